@@ -0,0 +1,807 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Inter-annotator agreement of several annotators' files of the same
+ * texts under one DTD.
+ *
+ * Extent tags of two annotators are aligned by a sweep over their spans,
+ * sorted by their first characters: tags that are open at the same time
+ * are candidates, and candidates are matched one to one, exact matches
+ * and then larger overlaps first. With exact matching, only tags with
+ * the same spans are matched. Link tags are matched when each of their
+ * arguments is the aligned counterpart of the other's. Non-consuming
+ * extent tags have nothing to align and are left out, but as arguments
+ * they stand for any non-consuming extent of the same element.
+ *
+ * For each element, F1 of every pair of annotators (the same as the
+ * Dice coefficient, 2 * matched / all tags) is pooled over pairs and
+ * documents, and for extent elements Fleiss' kappa is computed over
+ * characters, each character being tagged with the element or not by
+ * each annotator. For list attributes, Cohen's kappa of values of
+ * matched tags is pooled over pairs of annotators.
+ *
+ * Documents are compared in parallel in a fork-join pool, and so are
+ * elements of a document, extent elements first since links are matched
+ * through extent alignments. Run headless from the command line:
+ * <pre>
+ * java -jar mae.jar agree task.dtd annotator1_dir annotator2_dir [...] [--overlap] [--threads=N]
+ * </pre>
+ * Files with the same path in the annotators' directories are compared.
+ */
+class Agreement {
+
+    /**
+     * A tag of an annotator
+     */
+    static class Tag {
+        final String id;
+        final String[] values;
+        // start and end pairs, null for links and non-consuming extents
+        int[] spans;
+        int first;
+        int last;
+        // argument ids of a link, null for an empty argument
+        String[] args;
+
+        Tag(String id, String[] values) {
+            this.id = id;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Tags of an annotator in a document, by element names
+     */
+    static class Annotation {
+        final HashMap<String, ArrayList<Tag>> tags = new HashMap<String, ArrayList<Tag>>();
+        // ids of non-consuming extents -> element names
+        final HashMap<String, String> nonConsuming = new HashMap<String, String>();
+        int textLength;
+        // primary text, only when asked to keep it
+        CharBuffer text;
+
+        ArrayList<Tag> getTags(String elemName) {
+            ArrayList<Tag> list = tags.get(elemName);
+            return list == null ? new ArrayList<Tag>() : list;
+        }
+    }
+
+    /**
+     * Agreement on values of an attribute of matched tags
+     */
+    private static class AttCounts {
+        long agreed;
+        long pairs;
+        HashMap<String, Long> firstValues = new HashMap<String, Long>();
+        HashMap<String, Long> secondValues = new HashMap<String, Long>();
+
+        void add(String first, String second) {
+            first = first == null ? "" : first;
+            second = second == null ? "" : second;
+            pairs++;
+            if (first.equals(second)) {
+                agreed++;
+            }
+            count(firstValues, first, 1);
+            count(secondValues, second, 1);
+        }
+
+        void merge(AttCounts other) {
+            agreed += other.agreed;
+            pairs += other.pairs;
+            for (Map.Entry<String, Long> value : other.firstValues.entrySet()) {
+                count(firstValues, value.getKey(), value.getValue());
+            }
+            for (Map.Entry<String, Long> value : other.secondValues.entrySet()) {
+                count(secondValues, value.getKey(), value.getValue());
+            }
+        }
+
+        /**
+         * @return Cohen's kappa, NaN if chance agreement is 1
+         */
+        double kappa() {
+            if (pairs == 0) {
+                return Double.NaN;
+            }
+            double observed = (double) agreed / pairs;
+            double chance = 0;
+            for (Map.Entry<String, Long> value : firstValues.entrySet()) {
+                Long second = secondValues.get(value.getKey());
+                if (second != null) {
+                    chance += ((double) value.getValue() / pairs) * ((double) second / pairs);
+                }
+            }
+            return chance >= 1 ? Double.NaN : (observed - chance) / (1 - chance);
+        }
+    }
+
+    /**
+     * Counts of an element, mergeable over documents
+     */
+    static class ElemCounts {
+        // over all pairs of annotators
+        long matched;
+        long tags;
+        // over characters, for Fleiss' kappa
+        long chars;
+        double observed;
+        long votes;
+        long taggedVotes;
+        HashMap<String, AttCounts> atts = new HashMap<String, AttCounts>();
+
+        void merge(ElemCounts other) {
+            matched += other.matched;
+            tags += other.tags;
+            chars += other.chars;
+            observed += other.observed;
+            votes += other.votes;
+            taggedVotes += other.taggedVotes;
+            for (Map.Entry<String, AttCounts> att : other.atts.entrySet()) {
+                getAttCounts(att.getKey()).merge(att.getValue());
+            }
+        }
+
+        AttCounts getAttCounts(String attName) {
+            AttCounts counts = atts.get(attName);
+            if (counts == null) {
+                counts = new AttCounts();
+                atts.put(attName, counts);
+            }
+            return counts;
+        }
+
+        double f1() {
+            return tags == 0 ? Double.NaN : 2.0 * matched / tags;
+        }
+
+        /**
+         * @return Fleiss' kappa over characters, NaN for links
+         */
+        double kappa() {
+            if (chars == 0 || votes == 0) {
+                return Double.NaN;
+            }
+            double observedAgreement = observed / chars;
+            double p = (double) taggedVotes / votes;
+            double chance = p * p + (1 - p) * (1 - p);
+            return chance >= 1 ? Double.NaN : (observedAgreement - chance) / (1 - chance);
+        }
+    }
+
+    /**
+     * Matches of a pair of annotators for an element,
+     * with tags of the first annotator first
+     */
+    private static class ElemResult {
+        final String elemName;
+        final ElemCounts counts = new ElemCounts();
+        // pair index -> matched tags
+        final HashMap<Integer, List<Tag[]>> matches = new HashMap<Integer, List<Tag[]>>();
+
+        ElemResult(String elemName) {
+            this.elemName = elemName;
+        }
+    }
+
+    // stands for a non-consuming argument when matching links, not a valid id
+    private static final String NON_CONSUMING = "\0";
+
+    private final DTD mDtd;
+    private final boolean mOverlap;
+    private final HashMap<String, ElemCounts> mCounts;
+    private long mDocuments;
+    private int mMinAnnotators = Integer.MAX_VALUE;
+    private int mMaxAnnotators;
+
+    /**
+     * @param dtd DTD of the files
+     * @param overlap if true, extents overlapping each other match,
+     *                otherwise only extents with the same spans
+     */
+    Agreement(DTD dtd, boolean overlap) {
+        mDtd = dtd;
+        mOverlap = overlap;
+        mCounts = new HashMap<String, ElemCounts>();
+    }
+
+    /**
+     * Compares the files of each document in parallel
+     *
+     * @param documents files of each document, one per annotator
+     * @param threads number of threads, all processors if not positive
+     */
+    void compare(final List<List<File>> documents, int threads) {
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : new ForkJoinPool();
+        try {
+            ArrayList<RecursiveTask<Agreement>> tasks = new ArrayList<RecursiveTask<Agreement>>();
+            for (final List<File> files : documents) {
+                tasks.add(new RecursiveTask<Agreement>() {
+                    @Override
+                    protected Agreement compute() {
+                        Agreement partial = new Agreement(mDtd, mOverlap);
+                        partial.compareDocument(readAnnotations(mDtd, files));
+                        return partial;
+                    }
+                });
+            }
+            for (RecursiveTask<Agreement> task : tasks) {
+                pool.execute(task);
+            }
+            for (RecursiveTask<Agreement> task : tasks) {
+                merge(task.join());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compares annotations of a document, elements in parallel.
+     * Called within a fork-join pool.
+     */
+    void compareDocument(final List<Annotation> annotations) {
+        mDocuments++;
+        mMinAnnotators = Math.min(mMinAnnotators, annotations.size());
+        mMaxAnnotators = Math.max(mMaxAnnotators, annotations.size());
+        ArrayList<RecursiveTask<ElemResult>> extentTasks = new ArrayList<RecursiveTask<ElemResult>>();
+        for (final Elem elem : mDtd.getElements()) {
+            if (elem instanceof ElemExtent) {
+                extentTasks.add(new RecursiveTask<ElemResult>() {
+                    @Override
+                    protected ElemResult compute() {
+                        return compareExtents(elem, annotations);
+                    }
+                });
+            }
+        }
+        ForkJoinTask.invokeAll(extentTasks);
+        // ids of the first annotator's extents -> aligned ids of the second's, by pairs
+        final HashMap<Integer, HashMap<String, String>> alignments
+                = new HashMap<Integer, HashMap<String, String>>();
+        for (RecursiveTask<ElemResult> task : extentTasks) {
+            ElemResult result = task.join();
+            addCounts(result);
+            for (Map.Entry<Integer, List<Tag[]>> pair : result.matches.entrySet()) {
+                HashMap<String, String> alignment = alignments.get(pair.getKey());
+                if (alignment == null) {
+                    alignment = new HashMap<String, String>();
+                    alignments.put(pair.getKey(), alignment);
+                }
+                for (Tag[] match : pair.getValue()) {
+                    alignment.put(match[0].id, match[1].id);
+                }
+            }
+        }
+        ArrayList<RecursiveTask<ElemResult>> linkTasks = new ArrayList<RecursiveTask<ElemResult>>();
+        for (final Elem elem : mDtd.getElements()) {
+            if (elem instanceof ElemLink) {
+                linkTasks.add(new RecursiveTask<ElemResult>() {
+                    @Override
+                    protected ElemResult compute() {
+                        return compareLinks(elem, annotations, alignments);
+                    }
+                });
+            }
+        }
+        ForkJoinTask.invokeAll(linkTasks);
+        for (RecursiveTask<ElemResult> task : linkTasks) {
+            addCounts(task.join());
+        }
+    }
+
+    private ElemResult compareExtents(Elem elem, List<Annotation> annotations) {
+        ElemResult result = new ElemResult(elem.getName());
+        int pair = 0;
+        for (int i = 0; i < annotations.size(); i++) {
+            for (int j = i + 1; j < annotations.size(); j++, pair++) {
+                List<Tag> first = consuming(annotations.get(i).getTags(elem.getName()));
+                List<Tag> second = consuming(annotations.get(j).getTags(elem.getName()));
+                List<Tag[]> matches = alignExtents(first, second, mOverlap);
+                result.matches.put(pair, matches);
+                result.counts.matched += matches.size();
+                result.counts.tags += first.size() + second.size();
+                countAttributes(elem, matches, result.counts);
+            }
+        }
+        countCharacters(elem.getName(), annotations, result.counts);
+        return result;
+    }
+
+    private ElemResult compareLinks(Elem elem, List<Annotation> annotations,
+                                    HashMap<Integer, HashMap<String, String>> alignments) {
+        ElemResult result = new ElemResult(elem.getName());
+        int pair = 0;
+        for (int i = 0; i < annotations.size(); i++) {
+            for (int j = i + 1; j < annotations.size(); j++, pair++) {
+                List<Tag> first = annotations.get(i).getTags(elem.getName());
+                List<Tag> second = annotations.get(j).getTags(elem.getName());
+                HashMap<String, String> alignment = alignments.get(pair);
+                List<Tag[]> matches = alignLinks(first, second,
+                        alignment == null ? new HashMap<String, String>() : alignment,
+                        annotations.get(i).nonConsuming, annotations.get(j).nonConsuming);
+                result.counts.matched += matches.size();
+                result.counts.tags += first.size() + second.size();
+                countAttributes(elem, matches, result.counts);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Aligns extents of two annotators one to one.
+     * Both lists are swept together in the order of first characters,
+     * keeping tags whose spans are still open; a tag starting is a
+     * candidate for every open tag of the other annotator.
+     *
+     * @param overlap if true, overlapping extents are matched too
+     * @return matched tags, of the first list first
+     */
+    static List<Tag[]> alignExtents(List<Tag> first, List<Tag> second, boolean overlap) {
+        ArrayList<Tag> all = new ArrayList<Tag>(first.size() + second.size());
+        all.addAll(first);
+        all.addAll(second);
+        final HashMap<Tag, Boolean> isFirst = new HashMap<Tag, Boolean>();
+        for (Tag tag : first) {
+            isFirst.put(tag, true);
+        }
+        Collections.sort(all, new Comparator<Tag>() {
+            @Override
+            public int compare(Tag a, Tag b) {
+                return a.first < b.first ? -1 : (a.first == b.first ? 0 : 1);
+            }
+        });
+        // candidates, with exact matches and larger overlaps first
+        final ArrayList<long[]> candidates = new ArrayList<long[]>();
+        final ArrayList<Tag[]> candidateTags = new ArrayList<Tag[]>();
+        ArrayList<Tag> openFirst = new ArrayList<Tag>();
+        ArrayList<Tag> openSecond = new ArrayList<Tag>();
+        for (Tag tag : all) {
+            closeBefore(openFirst, tag.first);
+            closeBefore(openSecond, tag.first);
+            boolean fromFirst = isFirst.containsKey(tag);
+            for (Tag other : fromFirst ? openSecond : openFirst) {
+                Tag a = fromFirst ? tag : other;
+                Tag b = fromFirst ? other : tag;
+                boolean exact = Arrays.equals(a.spans, b.spans);
+                int shared = exact ? 0 : sharedChars(a.spans, b.spans);
+                if (exact || (overlap && shared > 0)) {
+                    candidates.add(new long[]{exact ? Long.MAX_VALUE : shared, candidateTags.size()});
+                    candidateTags.add(new Tag[]{a, b});
+                }
+            }
+            (fromFirst ? openFirst : openSecond).add(tag);
+        }
+        Collections.sort(candidates, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] > b[0] ? -1 : (a[0] == b[0] ? (a[1] < b[1] ? -1 : 1) : 1);
+            }
+        });
+        ArrayList<Tag[]> matches = new ArrayList<Tag[]>();
+        HashMap<Tag, Boolean> used = new HashMap<Tag, Boolean>();
+        for (long[] candidate : candidates) {
+            Tag[] tags = candidateTags.get((int) candidate[1]);
+            if (!used.containsKey(tags[0]) && !used.containsKey(tags[1])) {
+                used.put(tags[0], true);
+                used.put(tags[1], true);
+                matches.add(tags);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Matches links whose arguments are aligned to each other.
+     * A non-consuming argument is aligned to any non-consuming
+     * argument of the same element.
+     *
+     * @param alignment ids of the first annotator -> aligned ids of the second's
+     * @param firstNonConsuming non-consuming ids of the first annotator -> element names
+     * @param secondNonConsuming the same for the second annotator
+     */
+    static List<Tag[]> alignLinks(List<Tag> first, List<Tag> second,
+                                  HashMap<String, String> alignment,
+                                  HashMap<String, String> firstNonConsuming,
+                                  HashMap<String, String> secondNonConsuming) {
+        // second annotator's links by their arguments
+        HashMap<List<String>, ArrayList<Tag>> byArgs = new HashMap<List<String>, ArrayList<Tag>>();
+        for (Tag tag : second) {
+            String[] args = new String[tag.args.length];
+            for (int i = 0; i < args.length; i++) {
+                String elemName = tag.args[i] == null ? null : secondNonConsuming.get(tag.args[i]);
+                args[i] = elemName == null ? tag.args[i] : NON_CONSUMING + elemName;
+            }
+            List<String> key = Arrays.asList(args);
+            ArrayList<Tag> tags = byArgs.get(key);
+            if (tags == null) {
+                tags = new ArrayList<Tag>();
+                byArgs.put(key, tags);
+            }
+            tags.add(tag);
+        }
+        ArrayList<Tag[]> matches = new ArrayList<Tag[]>();
+        for (Tag tag : first) {
+            String[] aligned = new String[tag.args.length];
+            boolean complete = true;
+            for (int i = 0; i < aligned.length; i++) {
+                if (tag.args[i] != null) {
+                    String elemName = firstNonConsuming.get(tag.args[i]);
+                    aligned[i] = elemName == null
+                            ? alignment.get(tag.args[i]) : NON_CONSUMING + elemName;
+                    complete &= aligned[i] != null;
+                }
+            }
+            ArrayList<Tag> candidates = complete ? byArgs.get(Arrays.asList(aligned)) : null;
+            if (candidates != null && candidates.size() > 0) {
+                matches.add(new Tag[]{tag, candidates.remove(candidates.size() - 1)});
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Counts values of list attributes of matched tags
+     */
+    private static void countAttributes(Elem elem, List<Tag[]> matches, ElemCounts counts) {
+        ArrayList<Attrib> atts = elem.getAttributes();
+        for (int i = 0; i < atts.size(); i++) {
+            if (atts.get(i) instanceof AttList) {
+                AttCounts attCounts = counts.getAttCounts(atts.get(i).getName());
+                for (Tag[] match : matches) {
+                    attCounts.add(match[0].values[i], match[1].values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds up, over characters of a document, how many annotators tagged
+     * each character with an element. Spans of each annotator are merged
+     * first, then all annotators' are swept together.
+     */
+    private static void countCharacters(String elemName, List<Annotation> annotations,
+                                        ElemCounts counts) {
+        int length = annotations.get(0).textLength;
+        int raters = annotations.size();
+        // position and +1 for a start, -1 for an end; ends sort first
+        ArrayList<int[]> events = new ArrayList<int[]>();
+        for (Annotation annotation : annotations) {
+            for (int[] span : mergeSpans(annotation.getTags(elemName), length)) {
+                events.add(new int[]{span[0], 1});
+                events.add(new int[]{span[1], -1});
+            }
+        }
+        Collections.sort(events, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return a[0] != b[0] ? (a[0] < b[0] ? -1 : 1) : a[1] - b[1];
+            }
+        });
+        counts.chars += length;
+        counts.votes += (long) raters * length;
+        // every character agrees until tagged
+        counts.observed += length;
+        int tagging = 0;
+        int previous = 0;
+        for (int[] event : events) {
+            int run = event[0] - previous;
+            if (tagging > 0 && run > 0) {
+                double agreement = (double) tagging * (tagging - 1)
+                        + (double) (raters - tagging) * (raters - tagging - 1);
+                counts.observed += run * (agreement / ((double) raters * (raters - 1)) - 1);
+                counts.taggedVotes += (long) tagging * run;
+            }
+            tagging += event[1];
+            previous = event[0];
+        }
+    }
+
+    /**
+     * @return spans of tags, merged and within the text
+     */
+    private static List<int[]> mergeSpans(List<Tag> tags, int length) {
+        ArrayList<int[]> spans = new ArrayList<int[]>();
+        for (Tag tag : tags) {
+            if (tag.spans != null) {
+                for (int i = 0; i + 1 < tag.spans.length; i += 2) {
+                    int start = Math.max(0, tag.spans[i]);
+                    int end = Math.min(length, tag.spans[i + 1]);
+                    if (start < end) {
+                        spans.add(new int[]{start, end});
+                    }
+                }
+            }
+        }
+        Collections.sort(spans, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+        ArrayList<int[]> merged = new ArrayList<int[]>();
+        for (int[] span : spans) {
+            int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && span[0] <= last[1]) {
+                last[1] = Math.max(last[1], span[1]);
+            } else {
+                merged.add(span);
+            }
+        }
+        return merged;
+    }
+
+    private static void closeBefore(List<Tag> open, int position) {
+        for (int i = open.size() - 1; i >= 0; i--) {
+            if (open.get(i).last <= position) {
+                open.remove(i);
+            }
+        }
+    }
+
+    private static int sharedChars(int[] a, int[] b) {
+        int shared = 0;
+        for (int i = 0; i + 1 < a.length; i += 2) {
+            for (int j = 0; j + 1 < b.length; j += 2) {
+                shared += Math.max(0, Math.min(a[i + 1], b[j + 1]) - Math.max(a[i], b[j]));
+            }
+        }
+        return shared;
+    }
+
+    private static List<Tag> consuming(List<Tag> tags) {
+        ArrayList<Tag> consuming = new ArrayList<Tag>(tags.size());
+        for (Tag tag : tags) {
+            if (tag.spans != null) {
+                consuming.add(tag);
+            }
+        }
+        return consuming;
+    }
+
+    private void addCounts(ElemResult result) {
+        ElemCounts counts = mCounts.get(result.elemName);
+        if (counts == null) {
+            mCounts.put(result.elemName, result.counts);
+        } else {
+            counts.merge(result.counts);
+        }
+    }
+
+    private void merge(Agreement other) {
+        mDocuments += other.mDocuments;
+        mMinAnnotators = Math.min(mMinAnnotators, other.mMinAnnotators);
+        mMaxAnnotators = Math.max(mMaxAnnotators, other.mMaxAnnotators);
+        for (Map.Entry<String, ElemCounts> counts : other.mCounts.entrySet()) {
+            ElemCounts mine = mCounts.get(counts.getKey());
+            if (mine == null) {
+                mCounts.put(counts.getKey(), counts.getValue());
+            } else {
+                mine.merge(counts.getValue());
+            }
+        }
+    }
+
+    ElemCounts getCounts(String elemName) {
+        return mCounts.get(elemName);
+    }
+
+    /**
+     * Reads annotations of a document, one file per annotator
+     */
+    static List<Annotation> readAnnotations(DTD dtd, List<File> files) {
+        ArrayList<Annotation> annotations = new ArrayList<Annotation>();
+        for (File file : files) {
+            annotations.add(readAnnotation(dtd, file, false));
+        }
+        return annotations;
+    }
+
+    /**
+     * @param keepText if true, the primary text is kept in the annotation
+     */
+    static Annotation readAnnotation(DTD dtd, File file, boolean keepText) {
+        final Annotation annotation = new Annotation();
+        XMLFileLoader loader = new XMLFileLoader(file, dtd.getElements(),
+                new XMLFileLoader.TagListener() {
+                    @Override
+                    public void tag(Elem elem, String[] values) {
+                        int idIndex = elem.getAttributeIndex("id");
+                        String id = idIndex < 0 ? null : values[idIndex];
+                        if (id == null || id.length() == 0) {
+                            return;
+                        }
+                        Tag tag = new Tag(id, values.clone());
+                        if (elem instanceof ElemExtent) {
+                            readSpans(tag, values[elem.getAttributeIndex("spans")]);
+                            if (tag.spans == null) {
+                                annotation.nonConsuming.put(id, elem.getName());
+                            }
+                        } else if (elem instanceof ElemLink) {
+                            ArrayList<String> args = ((ElemLink) elem).getArguments();
+                            tag.args = new String[args.size()];
+                            for (int i = 0; i < args.size(); i++) {
+                                int index = elem.getAttributeIndex(args.get(i) + MaeStrings.ID_SUF);
+                                String arg = index < 0 ? null : values[index];
+                                tag.args[i] = arg == null || arg.length() == 0 ? null : arg;
+                            }
+                        }
+                        ArrayList<Tag> tags = annotation.tags.get(elem.getName());
+                        if (tags == null) {
+                            tags = new ArrayList<Tag>();
+                            annotation.tags.put(elem.getName(), tags);
+                        }
+                        tags.add(tag);
+                    }
+                });
+        annotation.textLength = loader.getText().length();
+        if (keepText) {
+            annotation.text = loader.getText();
+        }
+        return annotation;
+    }
+
+    private static void readSpans(Tag tag, String spansString) {
+        if (spansString == null || spansString.length() == 0 || spansString.startsWith("-1")) {
+            return;
+        }
+        try {
+            String[] pairs = spansString.split(MaeStrings.SPANSEPARATOR);
+            int[] spans = new int[pairs.length * 2];
+            for (int i = 0; i < pairs.length; i++) {
+                String[] points = pairs[i].split(MaeStrings.SPANDELIMITER);
+                spans[i * 2] = Integer.parseInt(points[0].trim());
+                spans[i * 2 + 1] = Integer.parseInt(points[1].trim());
+            }
+            tag.spans = spans;
+            tag.first = Integer.MAX_VALUE;
+            tag.last = Integer.MIN_VALUE;
+            for (int i = 0; i < spans.length; i += 2) {
+                tag.first = Math.min(tag.first, spans[i]);
+                tag.last = Math.max(tag.last, spans[i + 1]);
+            }
+        } catch (RuntimeException e) {
+            // malformed spans, left out as non-consuming
+            tag.spans = null;
+        }
+    }
+
+    /**
+     * Writes a report, elements in the order of the DTD
+     */
+    void print(PrintStream out) {
+        out.println(String.format("%d documents, %d-%d annotators each, %s matching",
+                mDocuments, mDocuments == 0 ? 0 : mMinAnnotators, mMaxAnnotators,
+                mOverlap ? "overlap" : "exact"));
+        for (Elem elem : mDtd.getElements()) {
+            ElemCounts counts = mCounts.get(elem.getName());
+            if (counts == null) {
+                continue;
+            }
+            out.println(String.format("%s\tF1 %s (%d of %d tags matched)\tkappa %s",
+                    elem.getName(), format(counts.f1()),
+                    counts.matched * 2, counts.tags, format(counts.kappa())));
+            for (Attrib att : elem.getAttributes()) {
+                AttCounts attCounts = counts.atts.get(att.getName());
+                if (attCounts != null && attCounts.pairs > 0) {
+                    out.println(String.format("  %s\tkappa %s (%d of %d matched pairs agree)",
+                            att.getName(), format(attCounts.kappa()),
+                            attCounts.agreed, attCounts.pairs));
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs from the command line, see MaeMain.main()
+     *
+     * @param args DTD file, annotators' directories, and options
+     * @return exit status
+     */
+    static int run(String[] args) {
+        String usage = "usage: agree task.dtd annotator1_dir annotator2_dir [...] "
+                + "[--overlap] [--threads=N]";
+        boolean overlap = false;
+        int threads = 0;
+        ArrayList<String> paths = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equals("--overlap")) {
+                overlap = true;
+            } else if (arg.startsWith("--threads=")) {
+                try {
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                } catch (NumberFormatException e) {
+                    System.err.println("number of threads must be a number: " + arg);
+                    return 1;
+                }
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() < 3 || !new File(paths.get(0)).isFile()) {
+            System.err.println(usage);
+            return 1;
+        }
+        // relative path of a document -> files of annotators
+        TreeMap<String, List<File>> documents = new TreeMap<String, List<File>>();
+        for (String dirName : paths.subList(1, paths.size())) {
+            File dir = new File(dirName);
+            if (!dir.isDirectory()) {
+                System.err.println(usage);
+                return 1;
+            }
+            String prefix = dir.getPath();
+            for (File file : CorpusStats.listFiles(dir)) {
+                String name = file.getPath().substring(prefix.length());
+                List<File> files = documents.get(name);
+                if (files == null) {
+                    files = new ArrayList<File>();
+                    documents.put(name, files);
+                }
+                files.add(file);
+            }
+        }
+        ArrayList<List<File>> compared = new ArrayList<List<File>>();
+        for (List<File> files : documents.values()) {
+            if (files.size() > 1) {
+                compared.add(files);
+            }
+        }
+        DTD dtd = new DTDLoader(new File(paths.get(0))).getDTD();
+        long start = System.currentTimeMillis();
+        Agreement agreement = new Agreement(dtd, overlap);
+        agreement.compare(compared, threads);
+        agreement.print(System.out);
+        System.err.println(String.format("%d of %d documents annotated more than once, read in %d ms",
+                compared.size(), documents.size(), System.currentTimeMillis() - start));
+        return 0;
+    }
+
+    private static String format(double value) {
+        return Double.isNaN(value) ? "-" : String.format("%.3f", value);
+    }
+
+    private static void count(HashMap<String, Long> counts, String key, long count) {
+        Long old = counts.get(key);
+        counts.put(key, old == null ? count : old + count);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.util.Arrays;
+
+/**
+ * Aho-Corasick automaton over chars, for finding every occurrence of
+ * a large set of terms in a text with a single pass.
+ * Each term carries an int value that is reported with its matches.
+ *
+ * States are kept in parallel int arrays. Goto transitions are stored
+ * in one open-addressing hash keyed by (state, char), so a dictionary
+ * with a million entries does not need a map object per state.
+ * Children of a state are also chained as siblings, for the
+ * breadth-first walk that computes failure links in build().
+ */
+class AhoCorasick {
+
+    /**
+     * Receives matches found by scan(), in the order of their end offsets
+     */
+    interface MatchListener {
+        void match(int start, int end, int value);
+    }
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+    private static final long EMPTY_KEY = -1L;
+
+    private boolean mIgnoreCase;
+    private boolean mBuilt;
+    private int mStates;
+    private int mTerms;
+
+    // per-state data
+    private int[] mFail;
+    private int[] mValue;
+    private int[] mOutLink;
+    private int[] mDepth;
+    private int[] mFirstChild;
+    private int[] mNextSibling;
+    private char[] mLabel;
+
+    // goto transitions, (state << 16 | char) -> state
+    private long[] mKeys;
+    private int[] mTargets;
+    private int mTransitions;
+
+    AhoCorasick(boolean ignoreCase) {
+        mIgnoreCase = ignoreCase;
+        int capacity = 1024;
+        mFail = new int[capacity];
+        mValue = new int[capacity];
+        mOutLink = new int[capacity];
+        mDepth = new int[capacity];
+        mFirstChild = new int[capacity];
+        mNextSibling = new int[capacity];
+        mLabel = new char[capacity];
+        mKeys = new long[capacity * 2];
+        Arrays.fill(mKeys, EMPTY_KEY);
+        mTargets = new int[capacity * 2];
+        mStates = 0;
+        newState(NONE, '\0');
+    }
+
+    boolean isIgnoreCase() {
+        return mIgnoreCase;
+    }
+
+    /**
+     * Adds a term to the automaton, must be called before build()
+     *
+     * @param term the term, empty terms are ignored
+     * @param value a non-negative value reported with the matches of the term
+     * @return false if the term was already added, the first value is kept
+     */
+    boolean add(CharSequence term, int value) {
+        if (mBuilt) {
+            throw new IllegalStateException("automaton is already built");
+        }
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value: " + value);
+        }
+        if (term.length() == 0) {
+            return false;
+        }
+        int state = ROOT;
+        for (int i = 0; i < term.length(); i++) {
+            char c = fold(term.charAt(i));
+            int next = getTransition(state, c);
+            if (next == NONE) {
+                next = newState(state, c);
+            }
+            state = next;
+        }
+        if (mValue[state] != NONE) {
+            return false;
+        }
+        mValue[state] = value;
+        mTerms++;
+        return true;
+    }
+
+    /**
+     * Computes failure and output links. No terms can be added afterward.
+     */
+    void build() {
+        if (mBuilt) {
+            return;
+        }
+        int[] queue = new int[mStates];
+        int head = 0, tail = 0;
+        for (int child = mFirstChild[ROOT]; child != NONE; child = mNextSibling[child]) {
+            mFail[child] = ROOT;
+            mOutLink[child] = NONE;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int child = mFirstChild[state]; child != NONE; child = mNextSibling[child]) {
+                char c = mLabel[child];
+                int f = mFail[state];
+                int next = getTransition(f, c);
+                while (next == NONE && f != ROOT) {
+                    f = mFail[f];
+                    next = getTransition(f, c);
+                }
+                int fail = next == NONE ? ROOT : next;
+                mFail[child] = fail;
+                mOutLink[child] = mValue[fail] != NONE ? fail : mOutLink[fail];
+                queue[tail++] = child;
+            }
+        }
+        mBuilt = true;
+    }
+
+    /**
+     * Reports every occurrence of every term in a text,
+     * overlapping occurrences included
+     */
+    void scan(CharSequence text, MatchListener listener) {
+        if (!mBuilt) {
+            build();
+        }
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = fold(text.charAt(i));
+            int next = getTransition(state, c);
+            while (next == NONE && state != ROOT) {
+                state = mFail[state];
+                next = getTransition(state, c);
+            }
+            state = next == NONE ? ROOT : next;
+            int out = mValue[state] != NONE ? state : mOutLink[state];
+            while (out != NONE) {
+                listener.match(i + 1 - mDepth[out], i + 1, mValue[out]);
+                out = mOutLink[out];
+            }
+        }
+    }
+
+    /**
+     * @return number of distinct terms
+     */
+    int size() {
+        return mTerms;
+    }
+
+    int getStateCount() {
+        return mStates;
+    }
+
+    private char fold(char c) {
+        return mIgnoreCase ? Character.toLowerCase(c) : c;
+    }
+
+    private int newState(int parent, char c) {
+        if (mStates == mFail.length) {
+            int capacity = mStates * 2;
+            mFail = Arrays.copyOf(mFail, capacity);
+            mValue = Arrays.copyOf(mValue, capacity);
+            mOutLink = Arrays.copyOf(mOutLink, capacity);
+            mDepth = Arrays.copyOf(mDepth, capacity);
+            mFirstChild = Arrays.copyOf(mFirstChild, capacity);
+            mNextSibling = Arrays.copyOf(mNextSibling, capacity);
+            mLabel = Arrays.copyOf(mLabel, capacity);
+        }
+        int state = mStates++;
+        mFail[state] = ROOT;
+        mValue[state] = NONE;
+        mOutLink[state] = NONE;
+        mFirstChild[state] = NONE;
+        mLabel[state] = c;
+        if (parent == NONE) {
+            mDepth[state] = 0;
+            mNextSibling[state] = NONE;
+        } else {
+            mDepth[state] = mDepth[parent] + 1;
+            mNextSibling[state] = mFirstChild[parent];
+            mFirstChild[parent] = state;
+            putTransition(parent, c, state);
+        }
+        return state;
+    }
+
+    private int getTransition(int state, char c) {
+        long key = transitionKey(state, c);
+        int mask = mKeys.length - 1;
+        int slot = slotOf(key, mask);
+        while (mKeys[slot] != EMPTY_KEY) {
+            if (mKeys[slot] == key) {
+                return mTargets[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private void putTransition(int state, char c, int target) {
+        // keep the table at most half full
+        if ((mTransitions + 1) * 2 > mKeys.length) {
+            rehash(mKeys.length * 2);
+        }
+        insert(transitionKey(state, c), target);
+        mTransitions++;
+    }
+
+    private void insert(long key, int target) {
+        int mask = mKeys.length - 1;
+        int slot = slotOf(key, mask);
+        while (mKeys[slot] != EMPTY_KEY) {
+            slot = (slot + 1) & mask;
+        }
+        mKeys[slot] = key;
+        mTargets[slot] = target;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = mKeys;
+        int[] oldTargets = mTargets;
+        mKeys = new long[capacity];
+        Arrays.fill(mKeys, EMPTY_KEY);
+        mTargets = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                insert(oldKeys[i], oldTargets[i]);
+            }
+        }
+    }
+
+    private static long transitionKey(int state, char c) {
+        return ((long) state << 16) | c;
+    }
+
+    private static int slotOf(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
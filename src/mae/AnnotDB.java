@@ -25,12 +25,14 @@
 package mae;
 
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
 
 /**
  * TagDB is the class that handles all the calls to the 
- * SQLite database.  TagDB in MAE has two tables:
+ * SQLite database.  TagDB in MAE has three tables:
  *
  * these column design was originally from Amber
  * 1) extents, with columns: 
@@ -44,11 +46,35 @@ import java.util.*;
  *    3-id,  // common attribs by far
  *    4, 5,..., 4+(2*MaxArgs), 4+(2*MaxArgs)+1 - arg0, arg0_name, ...argN, argN_name
  *     
- * User-defined attribute information about the tags that are being 
- * created is not stored in the database; it exists only in the 
- * tables that are part of MaeGui.  Therefore if the program 
- * is closed without the file being saved, the tags cannot
- * be completely recovered from the database.
+ * 3) attributes, with columns:
+ *    1-id,
+ *    2-att int, code of (element, attribute) pair
+ *    3-code int, code of the value
+ * 4) attribute_names, with columns:
+ *    1-att int,
+ *    2-element_name,
+ *    3-name
+ * 5) attribute_values, with columns:
+ *    1-att int,
+ *    2-code int,
+ *    3-value
+ *
+ * Values of all attributes but ids are kept in attributes table, one
+ * row per tag and attribute, indexed by values of each (element,
+ * attribute) pair and by ids. MaeGui fills it from its tables, where
+ * the values are edited, so that tags can be queried (see TagQuery)
+ * without going through the tables.
+ * Values are dictionary encoded (see AttributeDictionary): a list value
+ * is stored as its position in the list of valid values, and a text value
+ * as the code of its only copy in attribute_values, so that comparing
+ * and counting values does not compare strings.
+ *
+ * Every AnnotDB has its own database, in memory or in a temporary file
+ * that is deleted when it is closed, so that MAE instances started from
+ * the same directory do not share 'tag.db'.
+ * How the database trades durability for speed is chosen by a profile
+ * (see configure()), at startup with --db-profile=memory|normal|wal|full and
+ * --db-cache=PAGES, or system properties mae.db.profile and mae.db.cache.
  * @author Amber Stubbs, Keigh Rim
  *
  */
@@ -58,6 +84,10 @@ class AnnotDB {
 
     private PreparedStatement mExt2Insert;
     private PreparedStatement mLink2Insert;
+    private PreparedStatement mAtt2Insert;
+    private PreparedStatement mAttName2Insert;
+    private PreparedStatement mAttValue2Insert;
+    private AttributeDictionary mDict;
     private Connection mConn;
 
     // integers for each column in the table
@@ -65,6 +95,41 @@ class AnnotDB {
     final int NAME_COL = 2;
     final int ID_COL = 3;
     final int ARG0_COL = 4;
+    // durability profiles of a session database
+    // in memory, nothing is written to disk
+    static final int PROFILE_MEMORY = 0;
+    // temporary file, rollback journal with normal sync
+    static final int PROFILE_NORMAL = 1;
+    // temporary file, write-ahead log with normal sync
+    // (SQLite before 3.7, as the bundled one, has no WAL, then as NORMAL)
+    static final int PROFILE_WAL = 2;
+    // temporary file, rollback journal with full sync
+    static final int PROFILE_FULL = 3;
+    private static final String[] PROFILE_NAMES = {"memory", "normal", "wal", "full"};
+
+    private static int sProfile = PROFILE_NORMAL;
+    // page cache size in pages, 0 to keep SQLite default
+    private static int sCacheSize = 0;
+    private static boolean sWalWarned = false;
+    static {
+        String profile = System.getProperty("mae.db.profile");
+        if (profile != null && parseProfile(profile) >= 0) {
+            sProfile = parseProfile(profile);
+        }
+        sCacheSize = Integer.getInteger("mae.db.cache", 0);
+    }
+
+    // temporary database file, null when in memory
+    private File mDbFile;
+
+    // SQLite allows at most 999 parameters in a statement
+    private static final int MAX_IN_LIST = 500;
+
+    // what to do with links when a tag they take as an argument is removed
+    // remove the links as well
+    static final int DELETE_CASCADE = 0;
+    // keep the links, but empty the arguments
+    static final int DELETE_NULLIFY = 1;
     private int mMaxArgs;
 
     /**
@@ -80,11 +145,9 @@ class AnnotDB {
         try{
             mMaxArgs = maxArgs; // default number of args is 2
             Class.forName("org.sqlite.JDBC");
-            mConn = DriverManager.getConnection("jdbc:sqlite:tag.db");
+            mConn = openSession();
             Statement stat = mConn.createStatement();
-            stat.executeUpdate("DROP TABLE if exists extents;");
             stat.executeUpdate("CREATE TABLE extents (location INT(5), element_name, id);");
-            stat.executeUpdate("DROP TABLE if exists links;");
             stat.executeUpdate("CREATE TABLE links (location INT(5), element_name, id);");
             for (int i=0;i<mMaxArgs;i++) {
                 String colname = "arg"+i;
@@ -92,6 +155,34 @@ class AnnotDB {
                 colname = "arg"+i+"_name";
                 stat.executeUpdate("ALTER TABLE links ADD '" + colname + "';");
             }
+            // links are looked up by arguments when tags are removed
+            for (int i=0;i<mMaxArgs;i++) {
+                stat.executeUpdate(String.format(
+                        "CREATE INDEX links_arg%d ON links (arg%d);", i, i));
+            }
+
+            // ids are looked up when links are resolved and tags are removed
+            stat.executeUpdate("CREATE INDEX extents_id ON extents (id);");
+            stat.executeUpdate("CREATE INDEX links_id ON links (id);");
+            // text is recolored by ranges of locations
+            stat.executeUpdate("CREATE INDEX extents_location ON extents (location);");
+
+            stat.executeUpdate("CREATE TABLE attributes (id, att INTEGER, code INTEGER);");
+            stat.executeUpdate("CREATE TABLE attribute_names " +
+                    "(att INTEGER PRIMARY KEY, element_name, name);");
+            stat.executeUpdate("CREATE TABLE attribute_values " +
+                    "(att INTEGER, code INTEGER, value, PRIMARY KEY (att, code));");
+            // tags are queried by values of an (element, attribute) pair
+            stat.executeUpdate("CREATE INDEX attributes_value ON attributes (att, code);");
+            stat.executeUpdate("CREATE INDEX attributes_id ON attributes (id, att);");
+            stat.executeUpdate("CREATE INDEX attribute_values_value " +
+                    "ON attribute_values (att, value);");
+            mAtt2Insert = mConn.prepareStatement("insert into attributes values (?, ?, ?);");
+            mAttName2Insert = mConn.prepareStatement(
+                    "insert into attribute_names values (?, ?, ?);");
+            mAttValue2Insert = mConn.prepareStatement(
+                    "insert into attribute_values values (?, ?, ?);");
+            mDict = new AttributeDictionary();
 
             // init Extent DB table with null values
             mExt2Insert = mConn.prepareStatement("insert into extents values (?, ?, ?);");
@@ -179,6 +270,59 @@ class AnnotDB {
         return elems;
     }
 
+    /**
+     * get types of tags at every location in a range, in a single query
+     *
+     * @param begin first location
+     * @param end location after the last one
+     * @return HashCollection from locations to types of elements there,
+     * in the same order getElementsAtLoc() gives
+     * @throws Exception
+     */
+    HashCollection<Integer,String> getElementsInRange(int begin, int end)
+            throws Exception{
+        PreparedStatement query = mConn.prepareStatement(
+                "select location, element_name from extents " +
+                "where location >= ? and location < ? order by location, rowid;");
+        query.setInt(1, begin);
+        query.setInt(2, end);
+        ResultSet rs = query.executeQuery();
+        HashCollection<Integer,String> elems = new HashCollection<Integer,String>();
+        while(rs.next()){
+            elems.putEnt(rs.getInt(1), rs.getString(2));
+        }
+        rs.close();
+        query.close();
+        return elems;
+    }
+
+    /**
+     * Gets character offsets covered by each element, for filtering
+     * text locations by tags. Non-consuming tags are not included.
+     *
+     * @return element name -> set of offsets tagged with it
+     * @throws SQLException
+     */
+    HashMap<String,BitSet> getExtentLocations()
+            throws SQLException{
+        Statement stat = mConn.createStatement();
+        ResultSet rs = stat.executeQuery(
+                "select location, element_name from extents where location >= 0;");
+        HashMap<String,BitSet> locations = new HashMap<String,BitSet>();
+        while (rs.next()) {
+            String elemName = rs.getString(2);
+            BitSet locs = locations.get(elemName);
+            if (locs == null) {
+                locs = new BitSet();
+                locations.put(elemName, locs);
+            }
+            locs.set(rs.getInt(1));
+        }
+        rs.close();
+        stat.close();
+        return locations;
+    }
+
     /**
      * Used to color all the extent tag locations when an 
      * annotation is loaded.
@@ -357,6 +501,85 @@ class AnnotDB {
         return spans;
     }
 
+    /**
+     * Sets the profile and page cache size for databases opened from now on
+     *
+     * @param profile PROFILE_MEMORY, PROFILE_NORMAL, PROFILE_WAL or PROFILE_FULL
+     * @param cacheSize page cache size in pages, 0 to keep SQLite default
+     */
+    static void configure(int profile, int cacheSize) {
+        if (profile < PROFILE_MEMORY || profile > PROFILE_FULL) {
+            throw new IllegalArgumentException("unknown DB profile: " + profile);
+        }
+        sProfile = profile;
+        sCacheSize = cacheSize;
+    }
+
+    /**
+     * @param name name of a profile: memory, normal, wal or full
+     * @return the profile, or -1 if there is no such profile
+     */
+    static int parseProfile(String name) {
+        return Arrays.asList(PROFILE_NAMES).indexOf(name.toLowerCase());
+    }
+
+    static String getProfileName() {
+        return PROFILE_NAMES[sProfile];
+    }
+
+    static int getCacheSize() {
+        return sCacheSize;
+    }
+
+    /**
+     * Opens a new database for this object following the current profile
+     */
+    private Connection openSession() throws SQLException, IOException {
+        Connection conn;
+        if (sProfile == PROFILE_MEMORY) {
+            conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+        } else {
+            mDbFile = File.createTempFile("mae-", ".db");
+            // in case the DB is never closed; an exclusive lock keeps
+            // the journal file around after each transaction
+            mDbFile.deleteOnExit();
+            new File(mDbFile.getPath() + "-journal").deleteOnExit();
+            conn = DriverManager.getConnection("jdbc:sqlite:" + mDbFile.getAbsolutePath());
+        }
+        Statement stat = conn.createStatement();
+        if (sProfile == PROFILE_WAL) {
+            ResultSet rs = stat.executeQuery("PRAGMA journal_mode = WAL;");
+            String mode = rs.next() ? rs.getString(1) : "";
+            rs.close();
+            if (!mode.equalsIgnoreCase("wal") && !sWalWarned) {
+                sWalWarned = true;
+                System.err.println(String.format(
+                        "SQLite %s has no WAL, using a rollback journal",
+                        conn.getMetaData().getDatabaseProductVersion()));
+            }
+        }
+        switch (sProfile) {
+            case PROFILE_MEMORY:
+                stat.executeUpdate("PRAGMA synchronous = OFF;");
+                stat.executeUpdate("PRAGMA temp_store = MEMORY;");
+                break;
+            case PROFILE_NORMAL:
+            case PROFILE_WAL:
+                stat.executeUpdate("PRAGMA synchronous = NORMAL;");
+                // no other process opens a session DB
+                stat.executeQuery("PRAGMA locking_mode = EXCLUSIVE;").close();
+                break;
+            case PROFILE_FULL:
+                stat.executeUpdate("PRAGMA synchronous = FULL;");
+                break;
+        }
+        if (sCacheSize > 0) {
+            stat.executeUpdate("PRAGMA cache_size = " + sCacheSize + ";");
+        }
+        stat.close();
+        return conn;
+    }
+
     /**
      * Return the type of an element searched by id
      * 
@@ -409,6 +632,174 @@ class AnnotDB {
     }
 
 
+    /**
+     * Describes links affected by removing tags, other than ones
+     * removed explicitly
+     */
+    static class Removal {
+        // link type -> ids of links removed along with their arguments
+        final HashCollection<String,String> removedLinks
+                = new HashCollection<String,String>(true);
+        // link id -> positions of arguments emptied
+        final HashCollection<String,Integer> clearedArgs
+                = new HashCollection<String,Integer>(true);
+        // link id -> link type, for links in clearedArgs
+        final HashMap<String,String> clearedLinkTypes = new HashMap<String,String>();
+    }
+
+    /**
+     * Removes extent and link tags at once, in a single transaction.
+     * Links taking any removed tag as an argument are removed as well
+     * (DELETE_CASCADE, also links taking those links), or get the
+     * argument emptied (DELETE_NULLIFY), so that no link is left
+     * pointing to a tag not in DB.
+     *
+     * @param extIds IDs of extent tags being removed
+     * @param linkIds IDs of link tags being removed
+     * @param policy DELETE_CASCADE or DELETE_NULLIFY
+     * @return links affected other than linkIds
+     * @throws SQLException
+     */
+    Removal removeTags(Collection<String> extIds, Collection<String> linkIds,
+                       int policy) throws SQLException{
+        Removal removal = new Removal();
+        HashSet<String> removed = new HashSet<String>(extIds);
+        removed.addAll(linkIds);
+        HashSet<String> removedLinks = new HashSet<String>(linkIds);
+
+        mConn.setAutoCommit(false);
+        try {
+            Collection<String> targets = removed;
+            while (targets.size() > 0) {
+                HashSet<String> next = new HashSet<String>();
+                ArrayList<String> idList = new ArrayList<String>(targets);
+                for (int from = 0; from < idList.size(); from += MAX_IN_LIST) {
+                    List<String> chunk = idList.subList(
+                            from, Math.min(from + MAX_IN_LIST, idList.size()));
+                    for (int arg = 0; arg < mMaxArgs; arg++) {
+                        for (String[] link : selectLinksByArg(arg, chunk)) {
+                            String linkId = link[0], linkType = link[1];
+                            if (removed.contains(linkId)) {
+                                continue;
+                            }
+                            if (policy == DELETE_CASCADE) {
+                                removal.removedLinks.putEnt(linkType, linkId);
+                                next.add(linkId);
+                            } else {
+                                removal.clearedArgs.putEnt(linkId, arg);
+                                removal.clearedLinkTypes.put(linkId, linkType);
+                            }
+                        }
+                        if (policy == DELETE_NULLIFY) {
+                            clearArgs(arg, chunk);
+                        }
+                    }
+                }
+                // links removed in cascade can be arguments of other links
+                removed.addAll(next);
+                removedLinks.addAll(next);
+                targets = next;
+            }
+            deleteIds("extents", extIds);
+            deleteIds("links", removedLinks);
+            deleteIds("attributes", removed);
+            mConn.commit();
+        } catch (SQLException e) {
+            mConn.rollback();
+            throw e;
+        } finally {
+            mConn.setAutoCommit(true);
+        }
+        return removal;
+    }
+
+    private ArrayList<String[]> selectLinksByArg(int arg, List<String> argIds)
+            throws SQLException{
+        ArrayList<String[]> links = new ArrayList<String[]>();
+        PreparedStatement query = mConn.prepareStatement(String.format(
+                "SELECT id, element_name FROM links WHERE arg%d IN (%s);",
+                arg, placeholders(argIds.size())));
+        for (int i = 0; i < argIds.size(); i++) {
+            query.setString(i + 1, argIds.get(i));
+        }
+        ResultSet rs = query.executeQuery();
+        while (rs.next()) {
+            links.add(new String[]{rs.getString(1), rs.getString(2)});
+        }
+        rs.close();
+        query.close();
+        return links;
+    }
+
+    private void clearArgs(int arg, List<String> argIds) throws SQLException{
+        PreparedStatement update = mConn.prepareStatement(String.format(
+                "UPDATE links SET arg%d = NULL, arg%d_name = NULL WHERE arg%d IN (%s);",
+                arg, arg, arg, placeholders(argIds.size())));
+        for (int i = 0; i < argIds.size(); i++) {
+            update.setString(i + 1, argIds.get(i));
+        }
+        update.executeUpdate();
+        update.close();
+    }
+
+    private void deleteIds(String table, Collection<String> ids)
+            throws SQLException{
+        ArrayList<String> idList = new ArrayList<String>(ids);
+        for (int from = 0; from < idList.size(); from += MAX_IN_LIST) {
+            List<String> chunk = idList.subList(
+                    from, Math.min(from + MAX_IN_LIST, idList.size()));
+            PreparedStatement delete = mConn.prepareStatement(String.format(
+                    "DELETE FROM %s WHERE id IN (%s);", table, placeholders(chunk.size())));
+            for (int i = 0; i < chunk.size(); i++) {
+                delete.setString(i + 1, chunk.get(i));
+            }
+            delete.executeUpdate();
+            delete.close();
+        }
+    }
+
+    /**
+     * Returns types of tags given their IDs, looking up extents table
+     * first, then links table
+     *
+     * @param ids IDs of tags
+     * @return HashMap from IDs to element names, IDs not in DB are left out
+     * @throws SQLException
+     */
+    HashMap<String, String> getElemNamesByIDs(Collection<String> ids)
+            throws SQLException{
+        HashMap<String, String> names = new HashMap<String, String>();
+        ArrayList<String> idList = new ArrayList<String>(ids);
+        for (int from = 0; from < idList.size(); from += MAX_IN_LIST) {
+            List<String> chunk = idList.subList(
+                    from, Math.min(from + MAX_IN_LIST, idList.size()));
+            for (String table : new String[]{"links", "extents"}) {
+                PreparedStatement query = mConn.prepareStatement(String.format(
+                        "SELECT DISTINCT id, element_name FROM %s WHERE id IN (%s);",
+                        table, placeholders(chunk.size())));
+                for (int i = 0; i < chunk.size(); i++) {
+                    query.setString(i + 1, chunk.get(i));
+                }
+                ResultSet rs = query.executeQuery();
+                // extents are read last, so they win as in getElemNameByID()
+                while (rs.next()) {
+                    names.put(rs.getString(1), rs.getString(2));
+                }
+                rs.close();
+                query.close();
+            }
+        }
+        return names;
+    }
+
+    private static String placeholders(int n) {
+        StringBuilder sb = new StringBuilder(n * 2);
+        for (int i = 0; i < n; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
     /**
      * Returns the links that an extent participates in as 
      * a to or from anchor.
@@ -421,7 +812,8 @@ class AnnotDB {
      */
     HashCollection<String,String> getLinksByExtentID(String extType, String extID)
             throws Exception{
-        HashCollection<String,String> links = new HashCollection<String,String>();
+        // a link can take the same extent in more than one argument
+        HashCollection<String,String> links = new HashCollection<String,String>(true);
         Statement stat = mConn.createStatement();
         for (int i=0; i<mMaxArgs; i++) {
             try {
@@ -614,6 +1006,31 @@ class AnnotDB {
     }
 
 
+    /**
+     * Gets IDs in use that start with a prefix, from both tables
+     *
+     * @param prefix ID prefix of an element
+     * @return IDs with the prefix, may include some without it
+     * as LIKE ignores case
+     * @throws SQLException
+     */
+    HashSet<String> getIdsWithPrefix(String prefix)
+            throws SQLException{
+        PreparedStatement query = mConn.prepareStatement(
+                "select id from extents where id like ? " +
+                "union select id from links where id like ?;");
+        query.setString(1, prefix + "%");
+        query.setString(2, prefix + "%");
+        ResultSet rs = query.executeQuery();
+        HashSet<String> ids = new HashSet<String>();
+        while (rs.next()) {
+            ids.add(rs.getString(1));
+        }
+        rs.close();
+        query.close();
+        return ids;
+    }
+
     /**
      * Adds a single extent to the batch command
      * 
@@ -654,6 +1071,185 @@ class AnnotDB {
         batchExtents();
     }
 
+    /**
+     * Codes all attributes but ids of elements in a DTD, so that
+     * values of list attributes get codes in the order they are listed
+     *
+     * @param dtd DTD of the task
+     * @throws SQLException
+     */
+    void addAttributeNames(DTD dtd) throws SQLException{
+        for (Elem elem : dtd.getElements()) {
+            for (Attrib att : elem.getAttributes()) {
+                if (!(att instanceof AttID)) {
+                    encodeAttribute(elem.getName(), att.getName(), att);
+                }
+            }
+        }
+        batchAttributes();
+    }
+
+    AttributeDictionary getAttributeDictionary() {
+        return mDict;
+    }
+
+    /**
+     * Gets the code of an (element, attribute) pair, a new pair is
+     * added to the dictionary and to the batch
+     */
+    private int encodeAttribute(String element, String name, Attrib att)
+            throws SQLException{
+        int count = mDict.getAttCount();
+        int code = mDict.addAttribute(element, name, att);
+        if (code == count) {
+            mAttName2Insert.setInt(1, code);
+            mAttName2Insert.setString(2, element);
+            mAttName2Insert.setString(3, name);
+            mAttName2Insert.addBatch();
+            for (int i = 0; i < mDict.getValueCount(code); i++) {
+                addValueRow(code, i);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Gets the code of a value, a new value is added to the dictionary
+     * and to the batch
+     */
+    private int encodeValue(int att, String value) throws SQLException{
+        int count = mDict.getValueCount(att);
+        int code = mDict.addValue(att, value);
+        if (code == count) {
+            addValueRow(att, code);
+        }
+        return code;
+    }
+
+    private void addValueRow(int att, int code) throws SQLException{
+        mAttValue2Insert.setInt(1, att);
+        mAttValue2Insert.setInt(2, code);
+        mAttValue2Insert.setString(3, mDict.getValue(att, code));
+        mAttValue2Insert.addBatch();
+    }
+
+    /**
+     * Adds an attribute value of a new tag to the batch
+     *
+     * @param id ID of the tag
+     * @param element tag name
+     * @param name attribute name
+     * @param value attribute value
+     * @throws SQLException
+     */
+    void addAttribute(String id, String element, String name, String value)
+            throws SQLException{
+        int att = encodeAttribute(element, name, null);
+        mAtt2Insert.setString(1, id);
+        mAtt2Insert.setInt(2, att);
+        if (value == null) {
+            mAtt2Insert.setNull(3, Types.INTEGER);
+        } else {
+            mAtt2Insert.setInt(3, encodeValue(att, value));
+        }
+        mAtt2Insert.addBatch();
+    }
+
+    /**
+     * Adds a set of attribute values to the DB at once,
+     * along with new entries of the dictionary
+     * @throws SQLException
+     */
+    void batchAttributes() throws SQLException{
+        mConn.setAutoCommit(false);
+        mAttName2Insert.executeBatch();
+        mAttValue2Insert.executeBatch();
+        mAtt2Insert.executeBatch();
+        mConn.setAutoCommit(true);
+    }
+
+    /**
+     * Sets an attribute value of a tag already in the DB
+     *
+     * @param id ID of the tag
+     * @param element tag name
+     * @param name attribute name
+     * @param value new attribute value
+     * @throws SQLException
+     */
+    void setAttribute(String id, String element, String name, String value)
+            throws SQLException{
+        int att = encodeAttribute(element, name, null);
+        int code = value == null ? -1 : encodeValue(att, value);
+        batchAttributes();
+        PreparedStatement update = mConn.prepareStatement(
+                "UPDATE attributes SET code = ? WHERE id = ? AND att = ?;");
+        if (value == null) {
+            update.setNull(1, Types.INTEGER);
+        } else {
+            update.setInt(1, code);
+        }
+        update.setString(2, id);
+        update.setInt(3, att);
+        int updated = update.executeUpdate();
+        update.close();
+        if (updated == 0) {
+            addAttribute(id, element, name, value);
+            batchAttributes();
+        }
+    }
+
+    /**
+     * Counts tags having a value of an (element, attribute) pair,
+     * the count is read from the index on codes
+     *
+     * @param att code of the pair
+     * @param code code of the value
+     * @return number of tags
+     * @throws SQLException
+     */
+    int countAttributeValue(int att, int code) throws SQLException{
+        PreparedStatement count = mConn.prepareStatement(
+                "SELECT count(*) FROM attributes WHERE att = ? AND code = ?;");
+        count.setInt(1, att);
+        count.setInt(2, code);
+        ResultSet rs = count.executeQuery();
+        int n = rs.next() ? rs.getInt(1) : 0;
+        rs.close();
+        count.close();
+        return n;
+    }
+
+    /**
+     * Runs a query made by TagQuery
+     *
+     * @param sql statement selecting four columns
+     * @param params Strings and Integers to bind
+     * @return rows of results
+     * @throws SQLException
+     */
+    ArrayList<String[]> selectTags(String sql, List<Object> params)
+            throws SQLException{
+        PreparedStatement query = mConn.prepareStatement(sql);
+        for (int i = 0; i < params.size(); i++) {
+            Object param = params.get(i);
+            if (param instanceof Integer) {
+                query.setInt(i + 1, (Integer) param);
+            } else {
+                query.setString(i + 1, (String) param);
+            }
+        }
+        ResultSet rs = query.executeQuery();
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        while (rs.next()) {
+            rows.add(new String[]{
+                    rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)});
+        }
+        rs.close();
+        query.close();
+        return rows;
+    }
+
     /**
      * Adds a set of links to the DB at once
      * @throws Exception
@@ -699,6 +1295,65 @@ class AnnotDB {
         }
     }
     
+    /**
+     * Adds a link to the batch without types of its arguments, types are
+     * filled later by resolveLinkArgTypes(). Used when reading a file, where
+     * a link can be read before the extents it links.
+     *
+     * @param id ID string for a new link
+     * @param name type of link being added
+     * @param argIds ids of arguments in argument order, null for an empty one
+     */
+    void addLink(String id, String name, String[] argIds) {
+        if (argIds.length > mMaxArgs) {
+            System.err.println(Arrays.toString(argIds) + "CUR_MAX: " + mMaxArgs);
+            System.err.println("too many arguments");
+            return;
+        }
+        try {
+            mLink2Insert.setNull(LOC_COL, Types.INTEGER);
+            mLink2Insert.setString(ID_COL, id);
+            mLink2Insert.setString(NAME_COL, name);
+            // parameters are kept between rows, so set all argument columns
+            for (int i=0;i<mMaxArgs;i++) {
+                String argId = i < argIds.length ? argIds[i] : null;
+                if (argId == null || argId.equals("")) {
+                    mLink2Insert.setNull(ARG0_COL + (2*i), Types.VARCHAR);
+                } else {
+                    mLink2Insert.setString(ARG0_COL + (2*i), argId);
+                }
+                mLink2Insert.setNull(ARG0_COL + (2*i)+1, Types.VARCHAR);
+            }
+            mLink2Insert.addBatch();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Fills argument types of links added without them, looking up
+     * the ids in extents table first, then in links table.
+     * One UPDATE per argument column, in a single transaction.
+     */
+    void resolveLinkArgTypes() throws SQLException {
+        Statement stat = mConn.createStatement();
+        mConn.setAutoCommit(false);
+        try {
+            for (int i=0;i<mMaxArgs;i++) {
+                String argIdCol = "arg" + i, argTypeCol = "arg" + i + "_name";
+                stat.executeUpdate(String.format(
+                        "UPDATE links SET %2$s = coalesce(" +
+                        "(SELECT element_name FROM extents WHERE extents.id = links.%1$s LIMIT 1), " +
+                        "(SELECT l.element_name FROM links AS l WHERE l.id = links.%1$s LIMIT 1)) " +
+                        "WHERE %1$s IS NOT NULL AND %2$s IS NULL;", argIdCol, argTypeCol));
+            }
+            mConn.commit();
+        } finally {
+            mConn.setAutoCommit(true);
+            stat.close();
+        }
+    }
+
     /**
      * Update a link tag with a single specific argument of it
      * @param id
@@ -721,14 +1376,23 @@ class AnnotDB {
     }
 
     /**
-     * Closes the connection to the DB
+     * Closes the connection to the DB, and deletes it if it is a file
      */
     void closeDb(){
         try{
-            mConn.close();
+            if (mConn != null) {
+                mConn.close();
+            }
         }catch(Exception e){
             e.printStackTrace();
         }
+        if (mDbFile != null) {
+            String path = mDbFile.getAbsolutePath();
+            for (String suffix : new String[]{"", "-journal", "-wal", "-shm"}) {
+                new File(path + suffix).delete();
+            }
+            mDbFile = null;
+        }
     }
 
     /**
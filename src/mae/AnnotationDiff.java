@@ -0,0 +1,363 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Structural diff of two versions of an annotated file under one DTD.
+ *
+ * Tags are compared by what they mark, not by their ids, so that files
+ * whose ids were renumbered compare equal: an extent is keyed by its
+ * element and spans (non-consuming extents by their order among those
+ * of the element), and a link by its element and the keys of its
+ * arguments. Tags of both versions are sorted by their keys and walked
+ * in a single merge pass, reporting tags only in the old version as
+ * removed, tags only in the new version as added, and tags in both
+ * with different attribute values as modified.
+ *
+ * Run headless from the command line, on two files or on two
+ * directories of files with the same paths, compared in parallel:
+ * <pre>
+ * java -jar mae.jar diff task.dtd old.xml|old_dir new.xml|new_dir [--threads=N]
+ * </pre>
+ * The exit status is 0 without differences, 1 with, like diff(1).
+ */
+class AnnotationDiff {
+
+    static final int ADDED = 0;
+    static final int REMOVED = 1;
+    static final int MODIFIED = 2;
+    private static final String[] CHANGE_MARKS = {"+", "-", "~"};
+
+    /**
+     * A difference between the versions
+     */
+    static class Change {
+        final int kind;
+        final Elem elem;
+        // null for an added tag
+        final Agreement.Tag oldTag;
+        // null for a removed tag
+        final Agreement.Tag newTag;
+        // names of attributes with different values of a modified tag
+        final List<String> attributes;
+
+        Change(int kind, Elem elem, Agreement.Tag oldTag, Agreement.Tag newTag,
+               List<String> attributes) {
+            this.kind = kind;
+            this.elem = elem;
+            this.oldTag = oldTag;
+            this.newTag = newTag;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * A tag with the key it is compared by
+     */
+    private static class Keyed {
+        final Elem elem;
+        final int elemIndex;
+        final Agreement.Tag tag;
+        final String key;
+
+        Keyed(Elem elem, int elemIndex, Agreement.Tag tag, String key) {
+            this.elem = elem;
+            this.elemIndex = elemIndex;
+            this.tag = tag;
+            this.key = key;
+        }
+    }
+
+    private static final Comparator<Keyed> KEY_ORDER = new Comparator<Keyed>() {
+        @Override
+        public int compare(Keyed a, Keyed b) {
+            if (a.elemIndex != b.elemIndex) {
+                return a.elemIndex < b.elemIndex ? -1 : 1;
+            }
+            return a.key.compareTo(b.key);
+        }
+    };
+
+    private final DTD mDtd;
+
+    AnnotationDiff(DTD dtd) {
+        mDtd = dtd;
+    }
+
+    /**
+     * @return changes from the old file to the new file,
+     * in the order of elements and keys
+     */
+    List<Change> compare(File oldFile, File newFile) {
+        List<Keyed> olds = keyTags(Agreement.readAnnotation(mDtd, oldFile, false));
+        List<Keyed> news = keyTags(Agreement.readAnnotation(mDtd, newFile, false));
+        ArrayList<Change> changes = new ArrayList<Change>();
+        int i = 0, j = 0;
+        while (i < olds.size() || j < news.size()) {
+            int c = i == olds.size() ? 1
+                    : j == news.size() ? -1 : KEY_ORDER.compare(olds.get(i), news.get(j));
+            if (c < 0) {
+                Keyed removed = olds.get(i++);
+                changes.add(new Change(REMOVED, removed.elem, removed.tag, null, null));
+            } else if (c > 0) {
+                Keyed added = news.get(j++);
+                changes.add(new Change(ADDED, added.elem, null, added.tag, null));
+            } else {
+                Keyed before = olds.get(i++);
+                Keyed after = news.get(j++);
+                List<String> modified = modifiedAttributes(before.elem, before.tag, after.tag);
+                if (modified.size() > 0) {
+                    changes.add(new Change(MODIFIED, before.elem, before.tag, after.tag, modified));
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return tags of a file with their keys, sorted
+     */
+    private List<Keyed> keyTags(Agreement.Annotation annotation) {
+        ArrayList<Elem> elements = mDtd.getElements();
+        ArrayList<Keyed> keyed = new ArrayList<Keyed>();
+        // extent ids -> keys, links are keyed by them
+        HashMap<String, String> extentKeys = new HashMap<String, String>();
+        for (int e = 0; e < elements.size(); e++) {
+            Elem elem = elements.get(e);
+            if (!(elem instanceof ElemExtent)) {
+                continue;
+            }
+            int nonConsuming = 0;
+            for (Agreement.Tag tag : annotation.getTags(elem.getName())) {
+                String key = tag.spans == null
+                        ? "#" + pad(nonConsuming++) : spansKey(tag.spans);
+                extentKeys.put(tag.id, elem.getName() + ":" + key);
+                keyed.add(new Keyed(elem, e, tag, key));
+            }
+        }
+        for (int e = 0; e < elements.size(); e++) {
+            Elem elem = elements.get(e);
+            if (!(elem instanceof ElemLink)) {
+                continue;
+            }
+            for (Agreement.Tag tag : annotation.getTags(elem.getName())) {
+                StringBuilder key = new StringBuilder();
+                for (String arg : tag.args) {
+                    String argKey = arg == null ? "" : extentKeys.get(arg);
+                    // an argument that is not an extent of the file
+                    key.append(argKey == null ? "?" + arg : argKey).append(' ');
+                }
+                keyed.add(new Keyed(elem, e, tag, key.toString()));
+            }
+        }
+        Collections.sort(keyed, KEY_ORDER);
+        return keyed;
+    }
+
+    /**
+     * @return sortable key of spans, numbers padded to sort in order
+     */
+    private static String spansKey(int[] spans) {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i + 1 < spans.length; i += 2) {
+            key.append(pad(spans[i])).append(MaeStrings.SPANDELIMITER)
+                    .append(pad(spans[i + 1])).append(MaeStrings.SPANSEPARATOR);
+        }
+        return key.toString();
+    }
+
+    private static String pad(int number) {
+        String digits = Integer.toString(number);
+        return "0000000000".substring(Math.min(10, digits.length())) + digits;
+    }
+
+    /**
+     * @return names of attributes with different values, but ids and
+     * argument ids, which are expected to change with renumbering
+     */
+    private static List<String> modifiedAttributes(Elem elem, Agreement.Tag before,
+                                                   Agreement.Tag after) {
+        ArrayList<String> argIds = new ArrayList<String>();
+        if (elem instanceof ElemLink) {
+            for (String arg : ((ElemLink) elem).getArguments()) {
+                argIds.add(arg + MaeStrings.ID_SUF);
+            }
+        }
+        ArrayList<String> modified = new ArrayList<String>();
+        ArrayList<Attrib> atts = elem.getAttributes();
+        for (int i = 0; i < atts.size(); i++) {
+            String name = atts.get(i).getName();
+            if (name.equals("id") || argIds.contains(name)) {
+                continue;
+            }
+            if (!valueOf(before, i).equals(valueOf(after, i))) {
+                modified.add(name);
+            }
+        }
+        return modified;
+    }
+
+    private static String valueOf(Agreement.Tag tag, int att) {
+        String value = tag.values[att];
+        return value == null ? "" : value;
+    }
+
+    /**
+     * @return a one-line description of a tag: its id and
+     * the values of its other attributes that are not empty
+     */
+    static String describe(Elem elem, Agreement.Tag tag) {
+        StringBuilder description = new StringBuilder(tag.id);
+        ArrayList<Attrib> atts = elem.getAttributes();
+        for (int i = 0; i < atts.size(); i++) {
+            String name = atts.get(i).getName();
+            if (!name.equals("id") && valueOf(tag, i).length() > 0) {
+                description.append(' ').append(name).append("=\"")
+                        .append(valueOf(tag, i)).append('"');
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Writes changes one per line, prefixed with a label such as a file name
+     */
+    static void print(String label, List<Change> changes, PrintStream out) {
+        for (Change change : changes) {
+            StringBuilder line = new StringBuilder(label);
+            line.append(CHANGE_MARKS[change.kind]).append(' ').append(change.elem.getName());
+            if (change.kind == MODIFIED) {
+                line.append(' ').append(change.oldTag.id);
+                if (!change.oldTag.id.equals(change.newTag.id)) {
+                    line.append(" -> ").append(change.newTag.id);
+                }
+                for (String name : change.attributes) {
+                    int index = change.elem.getAttributeIndex(name);
+                    line.append(' ').append(name).append(": \"")
+                            .append(valueOf(change.oldTag, index)).append("\" -> \"")
+                            .append(valueOf(change.newTag, index)).append('"');
+                }
+            } else {
+                line.append(' ').append(describe(change.elem,
+                        change.kind == ADDED ? change.newTag : change.oldTag));
+            }
+            out.println(line);
+        }
+    }
+
+    /**
+     * Runs from the command line, see MaeMain.main()
+     *
+     * @param args DTD file, old and new files or directories, and options
+     * @return exit status, 0 without differences, 1 with, and 2 on errors
+     */
+    static int run(String[] args) {
+        String usage = "usage: diff task.dtd old.xml|old_dir new.xml|new_dir [--threads=N]";
+        int threads = 0;
+        ArrayList<String> paths = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                try {
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                } catch (NumberFormatException e) {
+                    System.err.println("number of threads must be a number: " + arg);
+                    return 2;
+                }
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() != 3 || !new File(paths.get(0)).isFile()) {
+            System.err.println(usage);
+            return 2;
+        }
+        final AnnotationDiff diff = new AnnotationDiff(
+                new DTDLoader(new File(paths.get(0))).getDTD());
+        File oldPath = new File(paths.get(1));
+        File newPath = new File(paths.get(2));
+        if (oldPath.isFile() && newPath.isFile()) {
+            List<Change> changes = diff.compare(oldPath, newPath);
+            print("", changes, System.out);
+            return changes.isEmpty() ? 0 : 1;
+        }
+        if (!oldPath.isDirectory() || !newPath.isDirectory()) {
+            System.err.println(usage);
+            return 2;
+        }
+        // relative paths of files in both directories, in order
+        TreeMap<String, File[]> pairs = new TreeMap<String, File[]>();
+        for (File file : CorpusStats.listFiles(oldPath)) {
+            String name = file.getPath().substring(oldPath.getPath().length());
+            File other = new File(newPath, name);
+            if (other.isFile()) {
+                pairs.put(name, new File[]{file, other});
+            } else {
+                System.out.println(name.substring(1) + ": only in " + oldPath.getPath());
+            }
+        }
+        for (File file : CorpusStats.listFiles(newPath)) {
+            String name = file.getPath().substring(newPath.getPath().length());
+            if (!pairs.containsKey(name)) {
+                System.out.println(name.substring(1) + ": only in " + newPath.getPath());
+            }
+        }
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : new ForkJoinPool();
+        boolean different = false;
+        try {
+            ArrayList<RecursiveTask<List<Change>>> tasks = new ArrayList<RecursiveTask<List<Change>>>();
+            for (final File[] pair : pairs.values()) {
+                RecursiveTask<List<Change>> task = new RecursiveTask<List<Change>>() {
+                    @Override
+                    protected List<Change> compute() {
+                        return diff.compare(pair[0], pair[1]);
+                    }
+                };
+                tasks.add(task);
+                pool.execute(task);
+            }
+            // printed in the order of paths as each pair is done
+            int i = 0;
+            for (String name : pairs.keySet()) {
+                List<Change> changes = tasks.get(i++).join();
+                print(name.substring(1) + ": ", changes, System.out);
+                different |= !changes.isEmpty();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return different ? 1 : 0;
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges several annotators' files of the same text into a candidate
+ * file for adjudication.
+ *
+ * Tags of each annotator are sorted by their spans, and all annotators'
+ * tags are merged in a k-way merge through a priority queue of cursors,
+ * one per annotator. Tags of the same element with the same spans are
+ * merged into one tag with a new id, and attribute values are taken by
+ * majority, the earlier annotator winning ties. Non-consuming extents
+ * are merged in the order they appear in each file. Old ids of every
+ * annotator are mapped to the new ids, and links are then merged the
+ * same way, ordered by their remapped arguments.
+ *
+ * Every merged tag is marked with an agreement attribute, the number of
+ * annotators who have the tag out of all ("2/3"), and when annotators
+ * gave different values, a disagreement attribute listing those
+ * attributes. Tags are written out as they are merged, only the text
+ * of the first file and the id tables are kept in memory besides the
+ * sorted tags. Run headless from the command line:
+ * <pre>
+ * java -jar mae.jar merge task.dtd merged.xml annotator1.xml annotator2.xml [...]
+ * </pre>
+ * or from the File menu, where the merged file is opened with
+ * disputed tags marked.
+ */
+class AnnotationMerger {
+
+    /**
+     * A tag of an annotator with the key it is merged by
+     */
+    private static class Entry {
+        final int annotator;
+        final Elem elem;
+        final int elemIndex;
+        final Agreement.Tag tag;
+        // spans, or for non-consuming extents their position among them,
+        // or for links their remapped arguments
+        final String[] key;
+        final int first;
+        final int last;
+
+        Entry(int annotator, Elem elem, int elemIndex, Agreement.Tag tag,
+              String[] key, int first, int last) {
+            this.annotator = annotator;
+            this.elem = elem;
+            this.elemIndex = elemIndex;
+            this.tag = tag;
+            this.key = key;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.first != b.first) {
+                return a.first < b.first ? -1 : 1;
+            }
+            if (a.last != b.last) {
+                return a.last < b.last ? -1 : 1;
+            }
+            if (a.elemIndex != b.elemIndex) {
+                return a.elemIndex < b.elemIndex ? -1 : 1;
+            }
+            for (int i = 0; i < Math.min(a.key.length, b.key.length); i++) {
+                int c = compareKeys(a.key[i], b.key[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return a.key.length - b.key.length;
+        }
+    };
+
+    /**
+     * Sorted tags of an annotator
+     */
+    private static class Cursor {
+        final List<Entry> entries;
+        int next;
+
+        Cursor(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        Entry head() {
+            return entries.get(next);
+        }
+    }
+
+    private final DTD mDtd;
+    private final List<Elem> mElements;
+    private int mAnnotators;
+    // old id -> new id, by annotators
+    private ArrayList<HashMap<String, String>> mIdMaps;
+    // next number of new ids, by id prefixes
+    private HashMap<String, Integer> mIdCounts;
+    private int mTags;
+    private int mDisputed;
+
+    AnnotationMerger(DTD dtd) {
+        mDtd = dtd;
+        mElements = dtd.getElements();
+    }
+
+    /**
+     * Merges annotated files into a new file
+     *
+     * @param files annotated files of the same text, one per annotator
+     * @param merged file to write
+     * @return number of merged tags that annotators disagree on
+     */
+    int merge(List<File> files, File merged) throws IOException {
+        mAnnotators = files.size();
+        mIdMaps = new ArrayList<HashMap<String, String>>();
+        mIdCounts = new HashMap<String, Integer>();
+        mTags = 0;
+        mDisputed = 0;
+
+        ArrayList<Agreement.Annotation> annotations = new ArrayList<Agreement.Annotation>();
+        for (int i = 0; i < files.size(); i++) {
+            // the text is the same for all, only the first is kept
+            annotations.add(Agreement.readAnnotation(mDtd, files.get(i), i == 0));
+            mIdMaps.add(new HashMap<String, String>());
+        }
+        File temp = new File(merged.getPath() + ".tmp");
+        Writer out = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+        try {
+            writeHead(out, annotations.get(0).text);
+            ArrayList<Cursor> extents = new ArrayList<Cursor>();
+            for (int i = 0; i < annotations.size(); i++) {
+                extents.add(new Cursor(extentEntries(i, annotations.get(i))));
+            }
+            mergeCursors(extents, out);
+            // links are ordered by arguments only known after extents are merged
+            ArrayList<Cursor> links = new ArrayList<Cursor>();
+            for (int i = 0; i < annotations.size(); i++) {
+                links.add(new Cursor(linkEntries(i, annotations.get(i))));
+            }
+            mergeCursors(links, out);
+            out.write("</TAGS>\n</" + mDtd.getName() + ">");
+        } finally {
+            out.close();
+        }
+        if (merged.exists() && !merged.delete() || !temp.renameTo(merged)) {
+            throw new IOException("cannot write " + merged.getPath());
+        }
+        return mDisputed;
+    }
+
+    int getMergedCount() {
+        return mTags;
+    }
+
+    /**
+     * @return extents of an annotator in the order of their spans,
+     * non-consuming extents first
+     */
+    private List<Entry> extentEntries(int annotator, Agreement.Annotation annotation) {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        for (int e = 0; e < mElements.size(); e++) {
+            Elem elem = mElements.get(e);
+            if (!(elem instanceof ElemExtent)) {
+                continue;
+            }
+            int nonConsuming = 0;
+            for (Agreement.Tag tag : annotation.getTags(elem.getName())) {
+                if (tag.spans == null) {
+                    entries.add(new Entry(annotator, elem, e, tag,
+                            new String[]{Integer.toString(nonConsuming++)}, -1, -1));
+                } else {
+                    String[] key = new String[tag.spans.length];
+                    for (int i = 0; i < key.length; i++) {
+                        key[i] = Integer.toString(tag.spans[i]);
+                    }
+                    entries.add(new Entry(annotator, elem, e, tag, key, tag.first, tag.last));
+                }
+            }
+        }
+        Collections.sort(entries, ENTRY_ORDER);
+        return entries;
+    }
+
+    /**
+     * @return links of an annotator in the order of their elements and
+     * remapped arguments
+     */
+    private List<Entry> linkEntries(int annotator, Agreement.Annotation annotation) {
+        HashMap<String, String> idMap = mIdMaps.get(annotator);
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        for (int e = 0; e < mElements.size(); e++) {
+            Elem elem = mElements.get(e);
+            if (!(elem instanceof ElemLink)) {
+                continue;
+            }
+            for (Agreement.Tag tag : annotation.getTags(elem.getName())) {
+                String[] key = new String[tag.args.length];
+                for (int i = 0; i < key.length; i++) {
+                    // an argument not merged, such as a link, is left empty
+                    String newId = tag.args[i] == null ? null : idMap.get(tag.args[i]);
+                    key[i] = newId == null ? "" : newId;
+                }
+                entries.add(new Entry(annotator, elem, e, tag, key, 0, 0));
+            }
+        }
+        Collections.sort(entries, ENTRY_ORDER);
+        return entries;
+    }
+
+    /**
+     * Merges sorted tags of all annotators, writing merged tags as they come
+     */
+    private void mergeCursors(List<Cursor> cursors, Writer out) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(
+                Math.max(1, cursors.size()), new Comparator<Cursor>() {
+            @Override
+            public int compare(Cursor a, Cursor b) {
+                int c = ENTRY_ORDER.compare(a.head(), b.head());
+                return c != 0 ? c : a.head().annotator - b.head().annotator;
+            }
+        });
+        for (Cursor cursor : cursors) {
+            if (cursor.entries.size() > 0) {
+                queue.add(cursor);
+            }
+        }
+        ArrayList<Entry> group = new ArrayList<Entry>();
+        ArrayList<Cursor> taken = new ArrayList<Cursor>();
+        boolean[] inGroup = new boolean[cursors.size()];
+        while (!queue.isEmpty()) {
+            group.clear();
+            taken.clear();
+            Arrays.fill(inGroup, false);
+            Entry head = queue.peek().head();
+            // one tag per annotator, an annotator's duplicate waits for the next group
+            while (!queue.isEmpty() && ENTRY_ORDER.compare(queue.peek().head(), head) == 0
+                    && !inGroup[queue.peek().head().annotator]) {
+                Cursor cursor = queue.poll();
+                group.add(cursor.head());
+                inGroup[cursor.head().annotator] = true;
+                taken.add(cursor);
+            }
+            writeTag(group, out);
+            for (Cursor cursor : taken) {
+                if (++cursor.next < cursor.entries.size()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a tag merged from tags of annotators, and maps their ids to its id
+     */
+    private void writeTag(List<Entry> group, Writer out) throws IOException {
+        Elem elem = group.get(0).elem;
+        String newId = nextId(elem);
+        for (Entry entry : group) {
+            mIdMaps.get(entry.annotator).put(entry.tag.id, newId);
+        }
+        ArrayList<String> argIds = new ArrayList<String>();
+        if (elem instanceof ElemLink) {
+            for (String arg : ((ElemLink) elem).getArguments()) {
+                argIds.add(arg + MaeStrings.ID_SUF);
+            }
+        }
+        StringBuilder tag = new StringBuilder();
+        StringBuilder disputed = new StringBuilder();
+        tag.append('<').append(elem.getName());
+        ArrayList<Attrib> atts = elem.getAttributes();
+        for (int i = 0; i < atts.size(); i++) {
+            String name = atts.get(i).getName();
+            String value;
+            int argIndex = argIds.indexOf(name);
+            if (name.equals("id")) {
+                value = newId;
+            } else if (argIndex >= 0) {
+                value = group.get(0).key[argIndex];
+            } else {
+                value = majority(group, i);
+                if (!name.equals("spans") && !name.equals("text") && !agree(group, i)) {
+                    disputed.append(disputed.length() == 0 ? "" : MaeStrings.SPANSEPARATOR)
+                            .append(name);
+                }
+            }
+            appendAttribute(tag, name, value);
+        }
+        appendAttribute(tag, MaeStrings.AGREEMENT_ATT, group.size() + "/" + mAnnotators);
+        if (disputed.length() > 0) {
+            appendAttribute(tag, MaeStrings.DISAGREEMENT_ATT, disputed.toString());
+        }
+        tag.append(" />\n");
+        out.write(tag.toString());
+        mTags++;
+        if (disputed.length() > 0 || group.size() < mAnnotators) {
+            mDisputed++;
+        }
+    }
+
+    /**
+     * @return a value given by most annotators, of the earliest on ties
+     */
+    private static String majority(List<Entry> group, int att) {
+        String best = null;
+        int bestCount = 0;
+        for (int i = 0; i < group.size(); i++) {
+            String value = valueOf(group.get(i), att);
+            int count = 0;
+            for (Entry entry : group) {
+                if (value.equals(valueOf(entry, att))) {
+                    count++;
+                }
+            }
+            if (count > bestCount) {
+                best = value;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    private static boolean agree(List<Entry> group, int att) {
+        String value = valueOf(group.get(0), att);
+        for (Entry entry : group) {
+            if (!value.equals(valueOf(entry, att))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String valueOf(Entry entry, int att) {
+        String value = entry.tag.values[att];
+        return value == null ? "" : value;
+    }
+
+    private String nextId(Elem elem) {
+        Attrib id = elem.getAttribute("id");
+        String prefix = id instanceof AttID ? ((AttID) id).getPrefix() : elem.getName();
+        Integer count = mIdCounts.get(prefix);
+        count = count == null ? 0 : count;
+        mIdCounts.put(prefix, count + 1);
+        return prefix + count;
+    }
+
+    private void writeHead(Writer out, CharBuffer text) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+        out.write("<" + mDtd.getName() + ">\n");
+        out.write("<TEXT><![CDATA[");
+        if (text.hasArray()) {
+            out.write(text.array(), text.arrayOffset() + text.position(), text.remaining());
+        } else {
+            out.write(text.toString());
+        }
+        out.write("]]></TEXT>\n");
+        out.write("<TAGS>\n");
+    }
+
+    private static void appendAttribute(StringBuilder tag, String name, String value) {
+        tag.append(' ').append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    tag.append("&amp;");
+                    break;
+                case '<':
+                    tag.append("&lt;");
+                    break;
+                case '>':
+                    tag.append("&gt;");
+                    break;
+                case '"':
+                    tag.append("&quot;");
+                    break;
+                case '\n':
+                    tag.append(' ');
+                    break;
+                default:
+                    tag.append(c);
+            }
+        }
+        tag.append('"');
+    }
+
+    /**
+     * Compares numbers as numbers and ids by their length first,
+     * so that N2 comes before N10
+     */
+    private static int compareKeys(String a, String b) {
+        if (a.length() != b.length()) {
+            return a.length() - b.length();
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * Tells whether a tag of a merged file needs adjudication
+     *
+     * @param agreement value of its agreement attribute
+     * @param disagreement value of its disagreement attribute, or null
+     */
+    static boolean isDisputed(String agreement, String disagreement) {
+        if (disagreement != null && disagreement.length() > 0) {
+            return true;
+        }
+        int slash = agreement.indexOf('/');
+        return slash < 0 || !agreement.substring(0, slash).equals(agreement.substring(slash + 1));
+    }
+
+    /**
+     * Runs from the command line, see MaeMain.main()
+     *
+     * @param args DTD file, file to write, and annotated files
+     * @return exit status
+     */
+    static int run(String[] args) {
+        if (args.length < 4 || !new File(args[0]).isFile()) {
+            System.err.println(
+                    "usage: merge task.dtd merged.xml annotator1.xml annotator2.xml [...]");
+            return 1;
+        }
+        ArrayList<File> files = new ArrayList<File>();
+        for (int i = 2; i < args.length; i++) {
+            File file = new File(args[i]);
+            if (!file.isFile()) {
+                System.err.println("not a file: " + args[i]);
+                return 1;
+            }
+            files.add(file);
+        }
+        try {
+            DTD dtd = new DTDLoader(new File(args[0])).getDTD();
+            long start = System.currentTimeMillis();
+            AnnotationMerger merger = new AnnotationMerger(dtd);
+            int disputed = merger.merge(files, new File(args[1]));
+            System.err.println(String.format("%d tags merged, %d disputed, in %d ms",
+                    merger.getMergedCount(), disputed, System.currentTimeMillis() - start));
+            return 0;
+        } catch (IOException e) {
+            System.err.println("merge failed: " + e.getMessage());
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import javax.swing.*;
+import javax.swing.table.TableModel;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.zip.CRC32;
+
+/**
+ * A binary snapshot of an annotated file, written next to the XML file
+ * when it is saved ('file.xml.maesnap') and read in place of the XML
+ * when the file is opened again, so that the text and tags are read
+ * without XML parsing.
+ *
+ * The snapshot is laid out to be memory mapped, everything is 4-byte
+ * aligned and big-endian:
+ * <pre>
+ * header   magic, XML length and CRC32, DTD name, counts
+ * text     UTF-16 chars
+ * strings  offsets of each string, then UTF-16 chars of all strings;
+ *          element and attribute names, ids, and values, each once
+ * elements for each element: name, attribute names, number of tags,
+ *          a column of string numbers per attribute (-1 for none),
+ *          and for extents, offsets of each tag in packed spans
+ *          and the packed spans (start, end pairs)
+ * </pre>
+ * A snapshot is stale and not used when the XML file it was written for
+ * has changed since (length or CRC32 of the XML differs), or when its
+ * elements and attributes are not those of the DTD being used.
+ * The text of a snapshot is not read at all, the document of an opened
+ * file is a MappedDocument over the mapped text. Snapshots are written
+ * to a temporary file and renamed, so that a snapshot still mapped by
+ * an open document is never overwritten in place.
+ */
+class AnnotationSnapshot {
+
+    /**
+     * Receives tags read from a snapshot
+     */
+    interface TagListener {
+        /**
+         * @param elem DTD element of the tag
+         * @param values attribute values, indexed by attribute positions in elem
+         * @param spans start and end pairs of an extent tag, null for a link tag
+         */
+        void tag(Elem elem, String[] values, int[] spans);
+    }
+
+    static final String SUFFIX = ".maesnap";
+    private static final long MAGIC = 0x4d4145534e415001L; // MAESNAP, version 1
+    private static final int HEADER_INTS = 10;
+    private static final int CRC_CHUNK = 1 << 16;
+
+    private MappedByteBuffer mMap;
+    private IntBuffer mInts;
+    private String mDtdName;
+    private int mTextStart;
+    private int mTextLength;
+    // position of string offsets and of string chars, in ints
+    private int mOffsetsStart;
+    private int mCharsStart;
+    private String[] mStrings;
+    private ArrayList<Elem> mElems;
+    // position of each element's columns, in ints
+    private ArrayList<Integer> mElemStarts;
+
+    private AnnotationSnapshot() {
+    }
+
+    static File getSnapshotFile(File xml) {
+        return new File(xml.getPath() + SUFFIX);
+    }
+
+    /**
+     * Writes a snapshot of annotations next to an XML file just saved.
+     * Values are written as they are in the tables.
+     *
+     * @param xml XML file the annotations were saved to
+     * @param text document with the primary text
+     * @param elementTables tag tables by element names
+     * @param elements elements of the DTD, in the order they were saved
+     * @param dtdName name of the DTD
+     * @throws IOException
+     */
+    static void write(File xml, Document text, Hashtable<String, JTable> elementTables,
+                      ArrayList<Elem> elements, String dtdName) throws IOException {
+        // strings are numbered in the order they are met
+        HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+        ArrayList<String> strings = new ArrayList<String>();
+        ArrayList<int[]> columns = new ArrayList<int[]>();
+        int dtdNumber = number(dtdName, numbers, strings);
+        for (Elem elem : elements) {
+            number(elem.getName(), numbers, strings);
+            TableModel model = elementTables.get(elem.getName()).getModel();
+            ArrayList<Attrib> atts = elem.getAttributes();
+            for (int i = 0; i < atts.size(); i++) {
+                number(atts.get(i).getName(), numbers, strings);
+                int[] column = new int[model.getRowCount()];
+                for (int row = 0; row < column.length; row++) {
+                    Object value = i < model.getColumnCount() ? model.getValueAt(row, i) : null;
+                    column[row] = value == null ? -1 : number((String) value, numbers, strings);
+                }
+                columns.add(column);
+            }
+        }
+
+        File snapshot = getSnapshotFile(xml);
+        File temp = new File(snapshot.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), CRC_CHUNK));
+        try {
+            int totalChars = 0;
+            for (String s : strings) {
+                totalChars += s.length();
+            }
+            out.writeLong(MAGIC);
+            out.writeLong(xml.length());
+            out.writeLong(crc(xml));
+            out.writeInt(dtdNumber);
+            out.writeInt(text.getLength());
+            out.writeInt(strings.size());
+            out.writeInt(elements.size());
+            writeText(out, text);
+            int offset = 0;
+            for (String s : strings) {
+                out.writeInt(offset);
+                offset += s.length();
+            }
+            out.writeInt(offset);
+            for (String s : strings) {
+                writeChars(out, s);
+            }
+            writePadding(out, totalChars);
+
+            int column = 0;
+            for (Elem elem : elements) {
+                ArrayList<Attrib> atts = elem.getAttributes();
+                int rows = elementTables.get(elem.getName()).getModel().getRowCount();
+                out.writeInt(numbers.get(elem.getName()));
+                out.writeInt(elem instanceof ElemExtent ? 1 : 0);
+                out.writeInt(atts.size());
+                out.writeInt(rows);
+                for (Attrib att : atts) {
+                    out.writeInt(numbers.get(att.getName()));
+                }
+                int spansColumn = -1;
+                for (int i = 0; i < atts.size(); i++) {
+                    int[] values = columns.get(column + i);
+                    for (int value : values) {
+                        out.writeInt(value);
+                    }
+                    if (atts.get(i).getName().equals("spans")) {
+                        spansColumn = column + i;
+                    }
+                }
+                if (elem instanceof ElemExtent) {
+                    writeSpans(out, rows,
+                            spansColumn < 0 ? null : columns.get(spansColumn), strings);
+                }
+                column += atts.size();
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(snapshot) && !(snapshot.delete() && temp.renameTo(snapshot))) {
+            temp.delete();
+            throw new IOException("cannot replace " + snapshot);
+        }
+    }
+
+    /**
+     * Opens the snapshot of an XML file
+     *
+     * @param xml XML file being opened
+     * @param task annotation task with the DTD to read tags with
+     * @return the snapshot, or null if there is none or it is stale
+     */
+    static AnnotationSnapshot open(File xml, AnnotationTask task) {
+        File file = getSnapshotFile(xml);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            AnnotationSnapshot snapshot = new AnnotationSnapshot();
+            try {
+                snapshot.mMap = raf.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+            if (snapshot.readHeader(xml, task)) {
+                return snapshot;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            // truncated or otherwise broken snapshot, the XML is read instead
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    String getDtdName() {
+        return mDtdName;
+    }
+
+    /**
+     * @return a read-only document over the mapped text
+     */
+    MappedDocument createDocument() {
+        ByteBuffer bytes = mMap.duplicate();
+        bytes.position(mTextStart * 4);
+        bytes.limit(mTextStart * 4 + mTextLength * 2);
+        return new MappedDocument(new MappedContent(bytes.slice().asCharBuffer()));
+    }
+
+    /**
+     * Hands every tag in the snapshot to a listener, element by element,
+     * as they were saved. The value array is reused for every tag of the
+     * same element, so a listener must copy values it wants to keep.
+     */
+    void readTags(TagListener listener) {
+        for (int e = 0; e < mElems.size(); e++) {
+            Elem elem = mElems.get(e);
+            int pos = mElemStarts.get(e);
+            int atts = mInts.get(pos + 2);
+            int rows = mInts.get(pos + 3);
+            int columns = pos + 4 + atts;
+            int spanOffsets = columns + atts * rows;
+            int spans = spanOffsets + rows + 1;
+            String[] values = new String[atts];
+            for (int row = 0; row < rows; row++) {
+                for (int i = 0; i < atts; i++) {
+                    values[i] = getString(mInts.get(columns + i * rows + row));
+                }
+                int[] tagSpans = null;
+                if (elem instanceof ElemExtent) {
+                    int begin = mInts.get(spanOffsets + row);
+                    tagSpans = new int[mInts.get(spanOffsets + row + 1) - begin];
+                    mInts.position(spans + begin);
+                    mInts.get(tagSpans);
+                }
+                listener.tag(elem, values, tagSpans);
+            }
+        }
+    }
+
+    /**
+     * Reads the header and element layouts, and checks the snapshot
+     * against the XML file and the DTD
+     *
+     * @return false if the snapshot is stale
+     */
+    private boolean readHeader(File xml, AnnotationTask task) throws IOException {
+        if (mMap.capacity() < HEADER_INTS * 4 || mMap.getLong(0) != MAGIC
+                || mMap.getLong(8) != xml.length() || mMap.getLong(16) != crc(xml)) {
+            return false;
+        }
+        mInts = mMap.asIntBuffer();
+        int dtdNumber = mInts.get(6);
+        mTextLength = mInts.get(7);
+        int stringCount = mInts.get(8);
+        int elemCount = mInts.get(9);
+        mTextStart = HEADER_INTS;
+        mOffsetsStart = mTextStart + charsToInts(mTextLength);
+        mCharsStart = mOffsetsStart + stringCount + 1;
+        mStrings = new String[stringCount];
+        mDtdName = getString(dtdNumber);
+        if (!mDtdName.equals(task.getDTDName())) {
+            return false;
+        }
+
+        mElems = new ArrayList<Elem>();
+        mElemStarts = new ArrayList<Integer>();
+        int pos = mCharsStart + charsToInts(mInts.get(mOffsetsStart + stringCount));
+        for (int e = 0; e < elemCount; e++) {
+            Elem elem = task.getElemByName(getString(mInts.get(pos)));
+            int atts = mInts.get(pos + 2);
+            int rows = mInts.get(pos + 3);
+            if (elem == null || (mInts.get(pos + 1) == 1) != (elem instanceof ElemExtent)
+                    || elem.getAttributes().size() != atts) {
+                return false;
+            }
+            for (int i = 0; i < atts; i++) {
+                String attName = getString(mInts.get(pos + 4 + i));
+                if (!elem.getAttributes().get(i).getName().equals(attName)) {
+                    return false;
+                }
+            }
+            mElems.add(elem);
+            mElemStarts.add(pos);
+            pos += 4 + atts + atts * rows;
+            if (elem instanceof ElemExtent) {
+                pos += rows + 1 + mInts.get(pos + rows);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Strings are made from the mapped chars when first asked for,
+     * and the same instance is returned afterwards
+     */
+    private String getString(int number) {
+        if (number < 0) {
+            return null;
+        }
+        if (mStrings[number] == null) {
+            int begin = mInts.get(mOffsetsStart + number);
+            int end = mInts.get(mOffsetsStart + number + 1);
+            mStrings[number] = readChars(mCharsStart * 2 + begin, end - begin);
+        }
+        return mStrings[number];
+    }
+
+    /**
+     * @param begin position in chars from the beginning of the snapshot
+     * @param length number of chars
+     */
+    private String readChars(int begin, int length) {
+        ByteBuffer bytes = mMap.duplicate();
+        bytes.position(0);
+        CharBuffer chars = bytes.asCharBuffer();
+        chars.position(begin);
+        chars.limit(begin + length);
+        return chars.toString();
+    }
+
+    private static int charsToInts(int chars) {
+        return (chars + 1) / 2;
+    }
+
+    private static void writeChars(DataOutputStream out, CharSequence chars) throws IOException {
+        byte[] chunk = new byte[Math.min(CRC_CHUNK, chars.length() * 2)];
+        int n = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            chunk[n++] = (byte) (c >>> 8);
+            chunk[n++] = (byte) c;
+            if (n == chunk.length) {
+                out.write(chunk, 0, n);
+                n = 0;
+            }
+        }
+        out.write(chunk, 0, n);
+    }
+
+    /**
+     * Writes the text of a document as it is kept, without copying it as a whole
+     */
+    private static void writeText(DataOutputStream out, Document text) throws IOException {
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        int offset = 0;
+        try {
+            while (offset < text.getLength()) {
+                text.getText(offset, text.getLength() - offset, segment);
+                writeChars(out, segment);
+                offset += segment.count;
+            }
+        } catch (BadLocationException e) {
+            throw new IOException(e.getMessage());
+        }
+        writePadding(out, text.getLength());
+    }
+
+    /**
+     * Keeps the next section 4-byte aligned after writing chars
+     */
+    private static void writePadding(DataOutputStream out, int chars) throws IOException {
+        if (chars % 2 == 1) {
+            out.writeChar(0);
+        }
+    }
+
+    /**
+     * Writes offsets of each tag in packed spans, then packed spans
+     */
+    private static void writeSpans(DataOutputStream out, int rows, int[] spansColumn,
+                                   ArrayList<String> strings) throws IOException {
+        ArrayList<int[]> packed = new ArrayList<int[]>(rows);
+        int offset = 0;
+        for (int row = 0; row < rows; row++) {
+            int number = spansColumn == null ? -1 : spansColumn[row];
+            int[] spans = number < 0 ? new int[]{-1, -1} : packSpans(strings.get(number));
+            packed.add(spans);
+            out.writeInt(offset);
+            offset += spans.length;
+        }
+        out.writeInt(offset);
+        for (int[] spans : packed) {
+            for (int point : spans) {
+                out.writeInt(point);
+            }
+        }
+    }
+
+    /**
+     * @return start and end pairs of a spans string, -1~-1 for an empty one
+     */
+    private static int[] packSpans(String spansString) {
+        if (spansString.length() == 0 || spansString.equals("-1~-1")) {
+            return new int[]{-1, -1};
+        }
+        String[] pairs = spansString.split(MaeStrings.SPANSEPARATOR);
+        int[] spans = new int[pairs.length * 2];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] points = pairs[i].split(MaeStrings.SPANDELIMITER);
+            spans[i * 2] = Integer.parseInt(points[0]);
+            spans[i * 2 + 1] = Integer.parseInt(points[1]);
+        }
+        return spans;
+    }
+
+    private static int number(String s, HashMap<String, Integer> numbers,
+                              ArrayList<String> strings) {
+        Integer number = numbers.get(s);
+        if (number == null) {
+            number = strings.size();
+            numbers.put(s, number);
+            strings.add(s);
+        }
+        return number;
+    }
+
+    /**
+     * @return CRC32 of a whole file
+     */
+    static long crc(File f) throws IOException {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            CRC32 crc = new CRC32();
+            byte[] chunk = new byte[CRC_CHUNK];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                crc.update(chunk, 0, n);
+            }
+            return crc.getValue();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -26,6 +26,11 @@ package mae;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 
@@ -41,6 +46,14 @@ class AnnotationTask {
     private Hashtable<String, Elem> mElements;
     private Hashtable<String, AttID> mIdTracker;
     private HashCollection<String, String> mIdsExist;
+    // link type -> ids of its links in DB, filled on demand
+    // and dropped whenever links are added or removed
+    private HashMap<String, ArrayList<String>> mLinkIdCache;
+    // what to do with links when their arguments are removed,
+    // AnnotDB.DELETE_CASCADE by default, -Dmae.links.ondelete=nullify to keep them
+    private int mDeletePolicy;
+    // counts changes to extents in DB, for caches of tag locations
+    private int mExtentsVersion;
 
     private AnnotDB mDb;
     private DTD mDtd;
@@ -49,6 +62,12 @@ class AnnotationTask {
 
     AnnotationTask() {
         mDb = new AnnotDB();
+        mLinkIdCache = new HashMap<String, ArrayList<String>>();
+        if ("nullify".equalsIgnoreCase(System.getProperty("mae.links.ondelete"))) {
+            mDeletePolicy = AnnotDB.DELETE_NULLIFY;
+        } else {
+            mDeletePolicy = AnnotDB.DELETE_CASCADE;
+        }
         hasDTD = false;
     }
 
@@ -56,6 +75,9 @@ class AnnotationTask {
         mDb.closeDb();
         mDb = new AnnotDB(mMaxArgs);
 //        mDb.setMaxArgs(mMaxArgs);
+        addAttributeNames();
+        mLinkIdCache.clear();
+        mExtentsVersion++;
     }
 
     public void resetIdTracker() {
@@ -113,7 +135,7 @@ class AnnotationTask {
      * for each tag in the DTD
      */
     private HashCollection<String, String> createIDsExist() {
-        HashCollection<String, String> ids = new HashCollection<String, String>();
+        HashCollection<String, String> ids = new HashCollection<String, String>(true);
         ArrayList<Elem> elems = mDtd.getElements();
         for (Elem elem : elems) {
             ids.putEnt(elem.getName(), "");
@@ -145,6 +167,34 @@ class AnnotationTask {
         return nextid;
     }
 
+    /**
+     * Finds next IDs for a number of new tags of an element at once.
+     * IDs in use are looked up with a single query, not one query per ID.
+     *
+     * @param element the type of tags seeking IDs
+     * @param count number of IDs needed
+     * @return IDs that will be assigned to the tags being created
+     */
+    ArrayList<String> getNextIDs(String element, int count) {
+        AttID id = mIdTracker.get(element);
+        HashSet<String> inUse;
+        try {
+            inUse = mDb.getIdsWithPrefix(id.getPrefix());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            inUse = new HashSet<String>();
+        }
+        ArrayList<String> ids = new ArrayList<String>(count);
+        while (ids.size() < count) {
+            String nextid = id.getID();
+            id.incrementNumber();
+            if (!inUse.contains(nextid)) {
+                ids.add(nextid);
+            }
+        }
+        return ids;
+    }
+
 
     // ***************
     // The methods enclosed between the ****** lines interact with the
@@ -189,22 +239,77 @@ class AnnotationTask {
         }
     }
 
-    public void removeLinkByID(String id) {
+    public AnnotDB.Removal removeLinkByID(String id) {
+        return removeTags(new ArrayList<String>(), Collections.singletonList(id));
+    }
+
+    public AnnotDB.Removal removeExtentByID(String id) {
+        return removeTags(Collections.singletonList(id), new ArrayList<String>());
+    }
+
+
+    /**
+     * Removes extent and link tags from DB in a single transaction,
+     * links using them as arguments are removed or emptied
+     * following the delete policy of this task
+     *
+     * @param extIds   IDs of extent tags
+     * @param linkIds  IDs of link tags
+     * @return links affected other than linkIds
+     */
+    AnnotDB.Removal removeTags(Collection<String> extIds, Collection<String> linkIds) {
+        mLinkIdCache.clear();
+        mExtentsVersion++;
         try {
-            mDb.removeLinkTag(id);
-        } catch (Exception e) {
+            return mDb.removeTags(extIds, linkIds, mDeletePolicy);
+        } catch (SQLException e) {
+            System.err.println("Error removing tags from DB");
             e.printStackTrace();
         }
+        return new AnnotDB.Removal();
+    }
+
+    int getDeletePolicy() {
+        return mDeletePolicy;
     }
 
-    public void removeExtentByID(String id) {
+    void setDeletePolicy(int policy) {
+        mDeletePolicy = policy;
+    }
+
+    HashMap<String, String> getElemNamesByIds(Collection<String> ids) {
         try {
-            mDb.removeExtentTag(id);
-        } catch (Exception e) {
+            return mDb.getElemNamesByIDs(ids);
+        } catch (SQLException e) {
             e.printStackTrace();
         }
+        return new HashMap<String, String>();
     }
 
+    /**
+     * @return a number that changes whenever extents are added or removed
+     */
+    int getExtentsVersion() {
+        return mExtentsVersion;
+    }
+
+    HashMap<String, BitSet> getExtentLocations() {
+        try {
+            return mDb.getExtentLocations();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return new HashMap<String, BitSet>();
+    }
+
+    HashCollection<Integer, String> getElementsInRange(int begin, int end) {
+        try {
+            return mDb.getElementsInRange(begin, end);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return new HashCollection<Integer, String>();
+    }
 
     public HashCollection<String, String> getLinksByExtentID(String e_name, String id) {
         try {
@@ -250,6 +355,28 @@ class AnnotationTask {
         mIdsExist.putEnt(elemName, newID);
     }
 
+    /**
+     * Method to add a link tag read from a file to SQL batch, types
+     * of arguments are filled later by resolveLinkArgTypes()
+     *
+     * @param elemName Type of new link tag being added
+     * @param newID    ID of new link tag being added
+     * @param argIds   arg IDs in argument order, null for an empty one
+     */
+    void addLinkToBatch(String elemName, String newID, String[] argIds) {
+        mDb.addLink(newID, elemName, argIds);
+        mIdsExist.putEnt(elemName, newID);
+    }
+
+    void resolveLinkArgTypes() {
+        try {
+            mDb.resolveLinkArgTypes();
+        } catch (SQLException e) {
+            System.err.println("Error resolving link arguments");
+            e.printStackTrace();
+        }
+    }
+
     void addArgument(
             String id, int argNum, String argId, String argType) {
         try {
@@ -278,7 +405,8 @@ class AnnotationTask {
      * @return all tags in every span
      */
     HashCollection<String, String> getTagsIn(ArrayList<int[]> spans) {
-        HashCollection<String, String> nameToId = new HashCollection<String, String>();
+        // a multi-span tag shows up in more than one span, so keep ids distinct
+        HashCollection<String, String> nameToId = new HashCollection<String, String>(true);
         for (int[] span : spans) {
             nameToId.putAll(getTagsBetween(span[0], span[1]));
         }
@@ -304,7 +432,7 @@ class AnnotationTask {
     }
 
     HashCollection<String, String> getAllExtTags(boolean includeNC) {
-        HashCollection<String, String> hc = new HashCollection<String, String>();
+        HashCollection<String, String> hc = new HashCollection<String, String>(true);
         try {
             hc.putAll(mDb.getAllExtTags());
         } catch (Exception e) {
@@ -324,7 +452,7 @@ class AnnotationTask {
      * @return all tags in every spans
      */
     public HashCollection<String, String> getTagsInSpansAndNC(ArrayList<int[]> spans) throws Exception {
-        HashCollection<String, String> hc = new HashCollection<String, String>();
+        HashCollection<String, String> hc = new HashCollection<String, String>(true);
         hc.putAll(getTagsIn(spans));
         hc.putAll(getNCTags());
         return hc;
@@ -352,21 +480,106 @@ class AnnotationTask {
     }
 
     public void runBatchExtents() {
+        mExtentsVersion++;
         try {
             mDb.batchExtents();
         } catch (Exception e) {
             System.err.println("Error adding all extents to DB");
             e.printStackTrace();
         }
+        runBatchAttributes();
     }
 
     public void runBatchLinks() {
+        mLinkIdCache.clear();
         try {
             mDb.batchLinks();
         } catch (Exception e) {
             System.err.println("Error adding all links to DB");
             e.printStackTrace();
         }
+        runBatchAttributes();
+    }
+
+    /**
+     * Adds an attribute value of a new tag to the batch, attributes
+     * in the batch go to DB along with extents or links
+     */
+    void addAttributeToBatch(String id, String elemName, String attName, String value) {
+        try {
+            mDb.addAttribute(id, elemName, attName, value);
+        } catch (SQLException e) {
+            System.err.println("Error adding attribute to DB");
+            e.printStackTrace();
+        }
+    }
+
+    void runBatchAttributes() {
+        try {
+            mDb.batchAttributes();
+        } catch (SQLException e) {
+            System.err.println("Error adding all attributes to DB");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Updates an attribute value of a tag in DB
+     */
+    void setAttribute(String id, String elemName, String attName, String value) {
+        try {
+            mDb.setAttribute(id, elemName, attName, value);
+        } catch (SQLException e) {
+            System.err.println("Error updating attribute in DB");
+            e.printStackTrace();
+        }
+    }
+
+    private void addAttributeNames() {
+        if (mDtd == null) {
+            return;
+        }
+        try {
+            mDb.addAttributeNames(mDtd);
+        } catch (SQLException e) {
+            System.err.println("Error adding attribute names to DB");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return dictionary of attribute values in DB, used to encode query values
+     */
+    AttributeDictionary getAttributeDictionary() {
+        return mDb.getAttributeDictionary();
+    }
+
+    /**
+     * Counts tags with a value of an attribute, by their codes
+     *
+     * @see AttributeDictionary
+     */
+    int countAttributeValue(int att, int code) {
+        try {
+            return mDb.countAttributeValue(att, code);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * Runs a compiled tag query
+     *
+     * @return rows of id, element name, spans, and text of tags found
+     */
+    ArrayList<String[]> findTags(TagQuery query) {
+        try {
+            return mDb.selectTags(query.getSql(), query.getParams());
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return new ArrayList<String[]>();
     }
 
     // ****************
@@ -377,13 +590,21 @@ class AnnotationTask {
     public void setDtd(DTD d) {
         mDtd = d;
         mMaxArgs = d.getMaxArgs();
+        mDb.closeDb();
         mDb = new AnnotDB(mMaxArgs);
 //        mDb.setMaxArgs(mMaxArgs);
+        addAttributeNames();
+        mLinkIdCache.clear();
+        mExtentsVersion++;
         mElements = createHash();
         mIdTracker = createIDTracker();
         hasDTD = true;
     }
 
+    public DTD getDtd() {
+        return mDtd;
+    }
+
     public ArrayList<Elem> getElements() {
         return mDtd.getElements();
     }
@@ -394,8 +615,7 @@ class AnnotationTask {
 
 
     public boolean idExists(String tagname, String id) {
-        ArrayList<String> ids = mIdsExist.get(tagname);
-        return ids.contains(id);
+        return mIdsExist.contains(tagname, id);
     }
 
 
@@ -421,14 +641,27 @@ class AnnotationTask {
         return links;
     }
 
+    /**
+     * Returns ids of all links of a type. Results are cached until links
+     * are added (by running a batch) or removed, so the returned list
+     * must not be modified.
+     *
+     * @param linkName link element name
+     * @return ids of links
+     */
     public ArrayList<String> getLinkIdsByName(String linkName) {
-        return mDb.getLinkIdsByName(linkName);
+        ArrayList<String> ids = mLinkIdCache.get(linkName);
+        if (ids == null) {
+            ids = mDb.getLinkIdsByName(linkName);
+            mLinkIdCache.put(linkName, ids);
+        }
+        return ids;
     }
 
     public ArrayList<String> getAllLinkIds() {
         ArrayList<String> linkids = new ArrayList<String>();
         for (String linkName : getLinkNames()) {
-            for (String id : mDb.getLinkIdsByName(linkName)) {
+            for (String id : getLinkIdsByName(linkName)) {
                 linkids.add(id);
             }
         }
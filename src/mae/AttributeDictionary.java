@@ -0,0 +1,177 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Dictionary encoding of attribute values kept in AnnotDB.
+ * Every (element, attribute) pair gets a small int code, and so does
+ * every distinct value of a pair. Values of a list attribute (AttList)
+ * are coded by their position in the list of valid values, values not
+ * in the list and values of free text attributes get the next codes
+ * as they are seen, so that each distinct string is kept only once
+ * (interned) no matter how many tags share it.
+ * Codes are never reused while the dictionary lives.
+ */
+class AttributeDictionary {
+
+    // codes of (element, attribute) pairs, element -> attribute -> code
+    private HashMap<String, HashMap<String, Integer>> mAttCodes;
+    private ArrayList<String> mElemNames;
+    private ArrayList<String> mAttNames;
+    // code of a pair -> distinct values in the order of their codes
+    private ArrayList<ArrayList<String>> mValues;
+    private ArrayList<HashMap<String, Integer>> mValueCodes;
+    private ArrayList<Boolean> mEnumerated;
+
+    AttributeDictionary() {
+        mAttCodes = new HashMap<String, HashMap<String, Integer>>();
+        mElemNames = new ArrayList<String>();
+        mAttNames = new ArrayList<String>();
+        mValues = new ArrayList<ArrayList<String>>();
+        mValueCodes = new ArrayList<HashMap<String, Integer>>();
+        mEnumerated = new ArrayList<Boolean>();
+    }
+
+    /**
+     * Gets the code of an (element, attribute) pair, adding the pair
+     * if it is new. Valid values of a list attribute are coded in order
+     * when it is added.
+     *
+     * @param elemName element name
+     * @param attName attribute name
+     * @param att attribute definition, can be null if unknown
+     * @return code of the pair
+     */
+    int addAttribute(String elemName, String attName, Attrib att) {
+        HashMap<String, Integer> codes = mAttCodes.get(elemName);
+        if (codes == null) {
+            codes = new HashMap<String, Integer>();
+            mAttCodes.put(elemName, codes);
+        }
+        Integer code = codes.get(attName);
+        if (code != null) {
+            return code;
+        }
+        code = mAttNames.size();
+        codes.put(attName, code);
+        mElemNames.add(elemName);
+        mAttNames.add(attName);
+        mValues.add(new ArrayList<String>());
+        mValueCodes.add(new HashMap<String, Integer>());
+        mEnumerated.add(att instanceof AttList);
+        if (att instanceof AttList) {
+            for (String value : ((AttList) att).getVaildValues()) {
+                addValue(code, value);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * @return code of an (element, attribute) pair, -1 if not in the dictionary
+     */
+    int getAttCode(String elemName, String attName) {
+        HashMap<String, Integer> codes = mAttCodes.get(elemName);
+        if (codes == null) {
+            return -1;
+        }
+        Integer code = codes.get(attName);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return codes of all pairs of an attribute name, over all elements
+     */
+    List<Integer> getAttCodes(String attName) {
+        ArrayList<Integer> codes = new ArrayList<Integer>();
+        for (int i = 0; i < mAttNames.size(); i++) {
+            if (mAttNames.get(i).equals(attName)) {
+                codes.add(i);
+            }
+        }
+        return codes;
+    }
+
+    int getAttCount() {
+        return mAttNames.size();
+    }
+
+    String getElemName(int att) {
+        return mElemNames.get(att);
+    }
+
+    String getAttName(int att) {
+        return mAttNames.get(att);
+    }
+
+    boolean isEnumerated(int att) {
+        return mEnumerated.get(att);
+    }
+
+    /**
+     * Gets the code of a value, adding the value if it is new
+     *
+     * @param att code of an (element, attribute) pair
+     * @param value attribute value, not null
+     * @return code of the value
+     */
+    int addValue(int att, String value) {
+        HashMap<String, Integer> codes = mValueCodes.get(att);
+        Integer code = codes.get(value);
+        if (code == null) {
+            ArrayList<String> values = mValues.get(att);
+            code = values.size();
+            values.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    /**
+     * @return code of a value, -1 if the pair never had the value
+     */
+    int getValueCode(int att, String value) {
+        Integer code = mValueCodes.get(att).get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the interned value of a code
+     */
+    String getValue(int att, int code) {
+        return mValues.get(att).get(code);
+    }
+
+    /**
+     * @return number of distinct values a pair has had
+     */
+    int getValueCount(int att) {
+        return mValues.get(att).size();
+    }
+}
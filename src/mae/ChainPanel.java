@@ -0,0 +1,305 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * A bar to go through chains of extents connected by links of chained
+ * types, e.g. coreference chains. Chains come from a LinkChainIndex, and
+ * the list of chains is refilled only when the index has changed since
+ * it was last read. Mentions of the selected chain are highlighted and
+ * visited in text order.
+ */
+class ChainPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    // extents whose text is longer than this are cut in the label
+    private static final int MAX_LABEL_TEXT = 30;
+
+    private JTextComponent mTextPane;
+    private AnnotationTask mTask;
+    private LinkChainIndex mChains;
+
+    private JComboBox<String> mChainBox;
+    private JLabel mMentionLabel;
+
+    private ArrayList<ArrayList<String>> mChainList;
+    private int mChainsVersion;
+    // mentions of the selected chain, sorted by their first spans
+    private ArrayList<String> mMentions;
+    private ArrayList<ArrayList<int[]>> mMentionSpans;
+    private int mCurrent;
+    private ArrayList<Object> mHighlights;
+    private ArrayList<Object> mCurrentHighlights;
+    private Highlighter.HighlightPainter mChainPainter;
+    private Highlighter.HighlightPainter mCurrentPainter;
+    // true while the chain box is being refilled
+    private boolean mFillingChains;
+
+    ChainPanel(JTextComponent textPane, AnnotationTask task, LinkChainIndex chains) {
+        super(new FlowLayout(FlowLayout.LEFT, 4, 2));
+        mTextPane = textPane;
+        mTask = task;
+        mChains = chains;
+        mChainList = new ArrayList<ArrayList<String>>();
+        mChainsVersion = -1;
+        mMentions = new ArrayList<String>();
+        mMentionSpans = new ArrayList<ArrayList<int[]>>();
+        mHighlights = new ArrayList<Object>();
+        mCurrentHighlights = new ArrayList<Object>();
+        mChainPainter = new DefaultHighlighter.DefaultHighlightPainter(new Color(170, 220, 255));
+        mCurrentPainter = new DefaultHighlighter.DefaultHighlightPainter(new Color(80, 160, 255));
+
+        mChainBox = new JComboBox<String>();
+        mMentionLabel = new JLabel();
+        JButton prev = new JButton("<");
+        JButton next = new JButton(">");
+        JButton close = new JButton("x");
+
+        mChainBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (!mFillingChains && isVisible()) {
+                    selectChain(mChainBox.getSelectedIndex(), 0);
+                }
+            }
+        });
+        prev.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showMention(mCurrent - 1);
+            }
+        });
+        next.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showMention(mCurrent + 1);
+            }
+        });
+        close.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                close();
+            }
+        });
+
+        add(new JLabel("Chain:"));
+        add(mChainBox);
+        add(prev);
+        add(next);
+        add(mMentionLabel);
+        add(close);
+        setVisible(false);
+    }
+
+    /**
+     * Shows the panel at the first chain
+     */
+    void open() {
+        setVisible(true);
+        fillChains();
+        selectChain(mChainBox.getSelectedIndex(), 0);
+    }
+
+    /**
+     * Shows the panel at the chain of an extent, with the extent as the current mention
+     *
+     * @return false if the extent is not in any chain
+     */
+    boolean openAt(String id) {
+        fillChains();
+        for (int i = 0; i < mChainList.size(); i++) {
+            if (mChainList.get(i).contains(id)) {
+                setVisible(true);
+                mFillingChains = true;
+                mChainBox.setSelectedIndex(i);
+                mFillingChains = false;
+                selectChain(i, 0);
+                showMention(mMentions.indexOf(id));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void close() {
+        clearHighlights();
+        setVisible(false);
+        mTextPane.requestFocusInWindow();
+    }
+
+    /**
+     * Forgets the chain list, for a new document
+     */
+    void reset() {
+        clearHighlights();
+        mChainList.clear();
+        mChainsVersion = -1;
+        mMentions.clear();
+        mMentionSpans.clear();
+        mChainBox.removeAllItems();
+        mMentionLabel.setText("");
+    }
+
+    private void fillChains() {
+        if (mChainsVersion == mChains.getVersion()) {
+            return;
+        }
+        mChainList = mChains.getChains();
+        mChainsVersion = mChains.getVersion();
+        mFillingChains = true;
+        int selected = mChainBox.getSelectedIndex();
+        mChainBox.removeAllItems();
+        for (int i = 0; i < mChainList.size(); i++) {
+            mChainBox.addItem(String.format("%d: %d extents", i + 1, mChainList.get(i).size()));
+        }
+        if (mChainList.size() > 0) {
+            mChainBox.setSelectedIndex(Math.max(0, Math.min(selected, mChainList.size() - 1)));
+        }
+        mFillingChains = false;
+        if (mChainList.size() == 0) {
+            mMentionLabel.setText(mChains.getLinkTypes().size() == 0
+                    ? "no link type is chained" : "no chains");
+        }
+    }
+
+    private void selectChain(int index, int mention) {
+        clearHighlights();
+        mMentions.clear();
+        mMentionSpans.clear();
+        if (index < 0 || index >= mChainList.size()) {
+            return;
+        }
+        // read locations of all mentions once, to sort and to highlight them
+        final ArrayList<String> ids = mChainList.get(index);
+        final ArrayList<ArrayList<int[]>> spans = new ArrayList<ArrayList<int[]>>(ids.size());
+        ArrayList<Integer> order = new ArrayList<Integer>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            ArrayList<int[]> idSpans = mTask.getLocByID(ids.get(i));
+            spans.add(idSpans == null ? new ArrayList<int[]>() : idSpans);
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                int start1 = startOf(spans.get(i1));
+                int start2 = startOf(spans.get(i2));
+                return start1 != start2 ? (start1 < start2 ? -1 : 1)
+                        : ids.get(i1).compareTo(ids.get(i2));
+            }
+        });
+        for (int i : order) {
+            mMentions.add(ids.get(i));
+            mMentionSpans.add(spans.get(i));
+        }
+        Highlighter hl = mTextPane.getHighlighter();
+        try {
+            for (ArrayList<int[]> mentionSpans : mMentionSpans) {
+                for (int[] span : mentionSpans) {
+                    if (span[0] >= 0) {
+                        mHighlights.add(hl.addHighlight(span[0], span[1], mChainPainter));
+                    }
+                }
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        showMention(mention);
+    }
+
+    private void showMention(int index) {
+        if (mMentions.size() == 0) {
+            return;
+        }
+        // wrap around at both ends
+        mCurrent = (index + mMentions.size()) % mMentions.size();
+        Highlighter hl = mTextPane.getHighlighter();
+        String text = "";
+        try {
+            for (Object highlight : mCurrentHighlights) {
+                hl.removeHighlight(highlight);
+            }
+            mCurrentHighlights.clear();
+            ArrayList<int[]> spans = mMentionSpans.get(mCurrent);
+            for (int[] span : spans) {
+                if (span[0] >= 0) {
+                    mCurrentHighlights.add(hl.addHighlight(span[0], span[1], mCurrentPainter));
+                    text += (text.length() > 0 ? " ... " : "")
+                            + mTextPane.getDocument().getText(span[0], span[1] - span[0]);
+                }
+            }
+            int start = startOf(spans);
+            if (start < Integer.MAX_VALUE) {
+                Rectangle2D view = mTextPane.modelToView2D(start);
+                if (view != null) {
+                    mTextPane.scrollRectToVisible(view.getBounds());
+                }
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        if (text.length() > MAX_LABEL_TEXT) {
+            text = text.substring(0, MAX_LABEL_TEXT) + "...";
+        }
+        mMentionLabel.setText(String.format("%d of %d: %s %s",
+                mCurrent + 1, mMentions.size(), mMentions.get(mCurrent), text));
+    }
+
+    private static int startOf(ArrayList<int[]> spans) {
+        // non-consuming extents go after all others
+        int start = Integer.MAX_VALUE;
+        for (int[] span : spans) {
+            if (span[0] >= 0 && span[0] < start) {
+                start = span[0];
+            }
+        }
+        return start;
+    }
+
+    private void clearHighlights() {
+        Highlighter hl = mTextPane.getHighlighter();
+        for (Object highlight : mHighlights) {
+            hl.removeHighlight(highlight);
+        }
+        mHighlights.clear();
+        for (Object highlight : mCurrentHighlights) {
+            hl.removeHighlight(highlight);
+        }
+        mCurrentHighlights.clear();
+    }
+}
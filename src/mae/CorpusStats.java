@@ -0,0 +1,468 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Statistics of a corpus of annotated files: tag counts per element,
+ * span length histograms, attribute value distributions, how often
+ * link arguments are filled, and how often extent tags overlap.
+ *
+ * Each file is read into its own CorpusStats, and CorpusStats are
+ * merged, so that files are read in parallel in a fork-join pool and
+ * the partial statistics are added up as the tasks join.
+ * Run headless from the command line:
+ * <pre>
+ * java -jar mae.jar stats task.dtd corpus_dir [--threads=N]
+ * </pre>
+ */
+class CorpusStats {
+
+    // a fork-join task reads at most this many files by itself
+    private static final int FILES_PER_TASK = 8;
+    // span lengths are counted in buckets of powers of two, 0, 1, 2-3, 4-7, ...
+    private static final int LENGTH_BUCKETS = 33;
+
+    /**
+     * Counts of a single element
+     */
+    private static class ElemStats {
+        long tags;
+        long nonConsuming;
+        long overlapping;
+        long[] lengths = new long[LENGTH_BUCKETS];
+        // list attribute -> value -> number of tags
+        HashMap<String, HashMap<String, Long>> values = new HashMap<String, HashMap<String, Long>>();
+        // text attribute -> number of tags with a value
+        HashMap<String, Long> filled = new HashMap<String, Long>();
+        // number of tags with each argument filled, and with all filled
+        long[] args = new long[0];
+        long allArgs;
+
+        HashMap<String, Long> getValues(String attName) {
+            HashMap<String, Long> counts = values.get(attName);
+            if (counts == null) {
+                counts = new HashMap<String, Long>();
+                values.put(attName, counts);
+            }
+            return counts;
+        }
+
+        void merge(ElemStats other) {
+            tags += other.tags;
+            nonConsuming += other.nonConsuming;
+            overlapping += other.overlapping;
+            for (int i = 0; i < LENGTH_BUCKETS; i++) {
+                lengths[i] += other.lengths[i];
+            }
+            for (Map.Entry<String, HashMap<String, Long>> att : other.values.entrySet()) {
+                HashMap<String, Long> counts = getValues(att.getKey());
+                for (Map.Entry<String, Long> value : att.getValue().entrySet()) {
+                    add(counts, value.getKey(), value.getValue());
+                }
+            }
+            for (Map.Entry<String, Long> att : other.filled.entrySet()) {
+                add(filled, att.getKey(), att.getValue());
+            }
+            if (args.length < other.args.length) {
+                args = Arrays.copyOf(args, other.args.length);
+            }
+            for (int i = 0; i < other.args.length; i++) {
+                args[i] += other.args[i];
+            }
+            allArgs += other.allArgs;
+        }
+    }
+
+    /**
+     * First and last character of a consuming extent tag in a file
+     */
+    private static class Extent {
+        final int first;
+        final int last;
+        final ElemStats stats;
+
+        Extent(int first, int last, ElemStats stats) {
+            this.first = first;
+            this.last = last;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Reads files[begin..end], splitting the range in two
+     * until it is small enough
+     */
+    private static class FileRange extends RecursiveTask<CorpusStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final DTD mDtd;
+        private final List<File> mFiles;
+        private final int mBegin;
+        private final int mEnd;
+
+        FileRange(DTD dtd, List<File> files, int begin, int end) {
+            mDtd = dtd;
+            mFiles = files;
+            mBegin = begin;
+            mEnd = end;
+        }
+
+        @Override
+        protected CorpusStats compute() {
+            if (mEnd - mBegin <= FILES_PER_TASK) {
+                CorpusStats stats = new CorpusStats(mDtd);
+                for (int i = mBegin; i < mEnd; i++) {
+                    stats.addFile(mFiles.get(i));
+                }
+                return stats;
+            }
+            int middle = (mBegin + mEnd) >>> 1;
+            FileRange left = new FileRange(mDtd, mFiles, mBegin, middle);
+            left.fork();
+            CorpusStats stats = new FileRange(mDtd, mFiles, middle, mEnd).compute();
+            stats.merge(left.join());
+            return stats;
+        }
+    }
+
+    private DTD mDtd;
+    private HashMap<String, ElemStats> mElems;
+    private long mFiles;
+    private long mFailed;
+    private long mChars;
+
+    CorpusStats(DTD dtd) {
+        mDtd = dtd;
+        mElems = new HashMap<String, ElemStats>();
+    }
+
+    /**
+     * Reads files in parallel
+     *
+     * @param dtd DTD of the files
+     * @param files annotated XML files
+     * @param threads number of threads, all processors if not positive
+     * @return statistics of all files
+     */
+    static CorpusStats collect(DTD dtd, List<File> files, int threads) {
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : new ForkJoinPool();
+        try {
+            return pool.invoke(new FileRange(dtd, files, 0, files.size()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Finds XML files in a directory and its subdirectories, sorted by path
+     */
+    static List<File> listFiles(File dir) {
+        ArrayList<File> files = new ArrayList<File>();
+        addFiles(dir, files);
+        Collections.sort(files);
+        return files;
+    }
+
+    private static void addFiles(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                addFiles(child, files);
+            } else if (child.getName().toLowerCase().endsWith(".xml")) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * Reads a single file into these statistics
+     */
+    void addFile(File file) {
+        final ArrayList<Extent> extents = new ArrayList<Extent>();
+        XMLFileLoader loader = new XMLFileLoader(file, mDtd.getElements(),
+                new XMLFileLoader.TagListener() {
+                    @Override
+                    public void tag(Elem elem, String[] values) {
+                        addTag(elem, values, extents);
+                    }
+                });
+        mFiles++;
+        if (loader.hasFailed()) {
+            mFailed++;
+        }
+        mChars += loader.getText().length();
+        countOverlaps(extents);
+    }
+
+    /**
+     * Adds up statistics of other files
+     */
+    void merge(CorpusStats other) {
+        mFiles += other.mFiles;
+        mFailed += other.mFailed;
+        mChars += other.mChars;
+        for (Map.Entry<String, ElemStats> elem : other.mElems.entrySet()) {
+            getElemStats(elem.getKey()).merge(elem.getValue());
+        }
+    }
+
+    private void addTag(Elem elem, String[] values, ArrayList<Extent> extents) {
+        ElemStats stats = getElemStats(elem.getName());
+        stats.tags++;
+        ArrayList<String> argAtts = new ArrayList<String>();
+        if (elem instanceof ElemLink) {
+            ArrayList<String> args = ((ElemLink) elem).getArguments();
+            if (stats.args.length < args.size()) {
+                stats.args = Arrays.copyOf(stats.args, args.size());
+            }
+            boolean all = true;
+            for (int i = 0; i < args.size(); i++) {
+                argAtts.add(args.get(i) + MaeStrings.ID_SUF);
+                argAtts.add(args.get(i) + "Text");
+                int index = elem.getAttributeIndex(args.get(i) + MaeStrings.ID_SUF);
+                if (index >= 0 && !isEmpty(values[index])) {
+                    stats.args[i]++;
+                } else {
+                    all = false;
+                }
+            }
+            if (all) {
+                stats.allArgs++;
+            }
+        }
+        ArrayList<Attrib> atts = elem.getAttributes();
+        for (int i = 0; i < atts.size(); i++) {
+            Attrib att = atts.get(i);
+            String name = att.getName();
+            if (att instanceof AttID || argAtts.contains(name)) {
+                continue;
+            }
+            if (elem instanceof ElemExtent && name.equals("spans")) {
+                addSpans(stats, values[i], extents);
+            } else if (att instanceof AttList) {
+                add(stats.getValues(name), isEmpty(values[i]) ? "" : values[i], 1);
+            } else if (!(elem instanceof ElemExtent && name.equals("text"))
+                    && !isEmpty(values[i])) {
+                add(stats.filled, name, 1);
+            }
+        }
+    }
+
+    private void addSpans(ElemStats stats, String spansString, ArrayList<Extent> extents) {
+        if (isEmpty(spansString) || spansString.startsWith("-1")) {
+            stats.nonConsuming++;
+            return;
+        }
+        int length = 0;
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        try {
+            for (String span : spansString.split(MaeStrings.SPANSEPARATOR)) {
+                String[] points = span.split(MaeStrings.SPANDELIMITER);
+                int start = Integer.parseInt(points[0].trim());
+                int end = Integer.parseInt(points[1].trim());
+                length += Math.max(0, end - start);
+                first = Math.min(first, start);
+                last = Math.max(last, end);
+            }
+        } catch (RuntimeException e) {
+            // malformed spans, counted as non-consuming
+            stats.nonConsuming++;
+            return;
+        }
+        stats.lengths[32 - Integer.numberOfLeadingZeros(length)]++;
+        extents.add(new Extent(first, last, stats));
+    }
+
+    /**
+     * Counts extent tags of a file that overlap any other extent tag.
+     * Tags are sorted by their first characters, then a tag overlaps a
+     * tag before it if it starts before the last end so far, or a tag
+     * after it if the next tag starts before its end.
+     */
+    private static void countOverlaps(ArrayList<Extent> extents) {
+        Collections.sort(extents, new Comparator<Extent>() {
+            @Override
+            public int compare(Extent a, Extent b) {
+                return a.first < b.first ? -1 : (a.first == b.first ? 0 : 1);
+            }
+        });
+        int lastEnd = Integer.MIN_VALUE;
+        for (int i = 0; i < extents.size(); i++) {
+            Extent extent = extents.get(i);
+            if (extent.first < lastEnd
+                    || (i + 1 < extents.size() && extents.get(i + 1).first < extent.last)) {
+                extent.stats.overlapping++;
+            }
+            lastEnd = Math.max(lastEnd, extent.last);
+        }
+    }
+
+    private ElemStats getElemStats(String elemName) {
+        ElemStats stats = mElems.get(elemName);
+        if (stats == null) {
+            stats = new ElemStats();
+            mElems.put(elemName, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Writes a report, elements in the order of the DTD
+     */
+    void print(PrintStream out) {
+        out.println(String.format("%d files (%d failed), %d characters", mFiles, mFailed, mChars));
+        for (Elem elem : mDtd.getElements()) {
+            ElemStats stats = mElems.get(elem.getName());
+            if (stats == null) {
+                out.println(String.format("%s\t0 tags", elem.getName()));
+                continue;
+            }
+            out.println(String.format("%s\t%d tags", elem.getName(), stats.tags));
+            if (elem instanceof ElemExtent) {
+                long consuming = stats.tags - stats.nonConsuming;
+                out.println(String.format("  non-consuming\t%d", stats.nonConsuming));
+                out.println(String.format("  overlapping\t%d (%s)",
+                        stats.overlapping, percent(stats.overlapping, consuming)));
+                StringBuilder lengths = new StringBuilder("  span lengths");
+                for (int i = 0; i < LENGTH_BUCKETS; i++) {
+                    if (stats.lengths[i] > 0) {
+                        lengths.append(String.format("\t%s: %d", bucketName(i), stats.lengths[i]));
+                    }
+                }
+                out.println(lengths);
+            } else if (elem instanceof ElemLink) {
+                ArrayList<String> args = ((ElemLink) elem).getArguments();
+                for (int i = 0; i < args.size(); i++) {
+                    long filled = i < stats.args.length ? stats.args[i] : 0;
+                    out.println(String.format("  %s filled\t%d (%s)",
+                            args.get(i), filled, percent(filled, stats.tags)));
+                }
+                out.println(String.format("  all arguments filled\t%d (%s)",
+                        stats.allArgs, percent(stats.allArgs, stats.tags)));
+            }
+            for (Attrib att : elem.getAttributes()) {
+                HashMap<String, Long> counts = stats.values.get(att.getName());
+                if (counts != null) {
+                    out.println(String.format("  %s", att.getName()));
+                    ArrayList<Map.Entry<String, Long>> values
+                            = new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+                    Collections.sort(values, new Comparator<Map.Entry<String, Long>>() {
+                        @Override
+                        public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                            return b.getValue().compareTo(a.getValue());
+                        }
+                    });
+                    for (Map.Entry<String, Long> value : values) {
+                        out.println(String.format("    %s\t%d (%s)",
+                                value.getKey().length() == 0 ? "(none)" : value.getKey(),
+                                value.getValue(), percent(value.getValue(), stats.tags)));
+                    }
+                } else if (stats.filled.containsKey(att.getName())) {
+                    long filled = stats.filled.get(att.getName());
+                    out.println(String.format("  %s filled\t%d (%s)",
+                            att.getName(), filled, percent(filled, stats.tags)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs from the command line, see MaeMain.main()
+     *
+     * @param args DTD file, corpus directory, and options
+     * @return exit status
+     */
+    static int run(String[] args) {
+        int threads = 0;
+        ArrayList<String> paths = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                try {
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                } catch (NumberFormatException e) {
+                    System.err.println("number of threads must be a number: " + arg);
+                    return 1;
+                }
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() != 2) {
+            System.err.println("usage: stats task.dtd corpus_dir [--threads=N]");
+            return 1;
+        }
+        File dtdFile = new File(paths.get(0));
+        File dir = new File(paths.get(1));
+        if (!dtdFile.isFile() || !dir.isDirectory()) {
+            System.err.println("usage: stats task.dtd corpus_dir [--threads=N]");
+            return 1;
+        }
+        DTD dtd = new DTDLoader(dtdFile).getDTD();
+        long start = System.currentTimeMillis();
+        CorpusStats stats = collect(dtd, listFiles(dir), threads);
+        stats.print(System.out);
+        System.err.println(String.format("read in %d ms", System.currentTimeMillis() - start));
+        return 0;
+    }
+
+    private static String bucketName(int bucket) {
+        if (bucket < 2) {
+            return String.valueOf(bucket);
+        }
+        return String.format("%d-%d", 1L << (bucket - 1), (1L << bucket) - 1);
+    }
+
+    private static String percent(long count, long total) {
+        if (total == 0) {
+            return "-";
+        }
+        return String.format("%.1f%%", 100.0 * count / total);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+
+    private static void add(HashMap<String, Long> counts, String key, long count) {
+        Long old = counts.get(key);
+        counts.put(key, old == null ? count : old + count);
+    }
+}
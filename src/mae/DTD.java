@@ -29,20 +29,31 @@ package mae;
  * Provides a description of the annotation task information 
  * stored in a DTD.  The DTD describes the annotation 
  * task, specifically the tags and attributes.
+ * Elements are indexed by their lower-cased names and ID prefixes
+ * in use are counted, so that lookups while loading a DTD or a file
+ * do not need to go through the list of elements.
  * @author Amber Stubbs, Keigh Rim
  *
  */
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 class DTD {
 
     private ArrayList<Elem> mElements;
+    private HashMap<String, Elem> mElemIndex;
+    // prefix -> number of elements using it
+    private HashMap<String, Integer> mIdPrefixes;
     private String mName;
     private int mMaxArgs;
+    private boolean mFrozen;
 
     DTD(){
         mElements =new ArrayList<Elem>();
+        mElemIndex = new HashMap<String, Elem>();
+        mIdPrefixes = new HashMap<String, Integer>();
+        mFrozen = false;
         mName ="XML";   // default generic name
         mMaxArgs = 2;   // by default, set max # arguments to 2 (for legacy support)
 
@@ -69,25 +80,71 @@ class DTD {
     }
 
     public void addElem(Elem t){
+        if (mFrozen) {
+            throw new IllegalStateException(
+                    String.format("DTD %s is frozen, cannot add %s", mName, t.getName()));
+        }
         mElements.add(t);
+        String key = Elem.indexKey(t.getName());
+        if (!mElemIndex.containsKey(key)) {
+            mElemIndex.put(key, t);
+        }
+        AttID id = getIdAtt(t);
+        if (id != null) {
+            countPrefix(id.getPrefix(), 1);
+        }
     }
 
     public Elem getElem(String name){
-        for (Elem e : mElements) {
-            if (e.getName().equalsIgnoreCase(name)) {
-                return e;
-            }
+        if (name == null) {
+            return null;
         }
-        return null;
+        return mElemIndex.get(Elem.indexKey(name));
     }
 
     public boolean hasElem(String name){
+        return getElem(name) != null;
+    }
+
+    /**
+     * Checks if any element in the DTD uses a prefix for its IDs
+     *
+     * @param prefix ID prefix
+     * @return true if the prefix is taken
+     */
+    public boolean hasIdPrefix(String prefix){
+        return mIdPrefixes.containsKey(prefix);
+    }
+
+    /**
+     * Changes the ID prefix of an element, keeping prefix index up to date
+     *
+     * @param e an element of this DTD
+     * @param prefix new prefix
+     */
+    public void setIdPrefix(Elem e, String prefix){
+        AttID id = getIdAtt(e);
+        if (id == null) {
+            return;
+        }
+        countPrefix(id.getPrefix(), -1);
+        id.setPrefix(prefix);
+        countPrefix(prefix, 1);
+    }
+
+    /**
+     * Marks the DTD and all its elements as complete.
+     * This is called once a DTD is fully loaded.
+     */
+    public void freeze(){
+        mFrozen = true;
         for (Elem e : mElements) {
-            if (e.getName().equalsIgnoreCase(name)) {
-                return true;
-            }
+            e.freeze();
         }
-        return false;
+    }
+
+    public boolean isFrozen(){
+        return mFrozen;
     }
 
     public ArrayList<Elem> getElements(){
@@ -108,6 +165,27 @@ class DTD {
         return ids;
     }
 
+    private AttID getIdAtt(Elem e){
+        Attrib a = e.getAttribute("id");
+        if (a instanceof AttID) {
+            return (AttID) a;
+        }
+        return null;
+    }
+
+    private void countPrefix(String prefix, int delta){
+        if (prefix == null) {
+            return;
+        }
+        Integer count = mIdPrefixes.get(prefix);
+        int newCount = (count == null ? 0 : count) + delta;
+        if (newCount > 0) {
+            mIdPrefixes.put(prefix, newCount);
+        } else {
+            mIdPrefixes.remove(prefix);
+        }
+    }
+
     /**
      * Returns a list of non-consuming extent tags
      *
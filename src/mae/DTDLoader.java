@@ -24,31 +24,82 @@
 
 package mae;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Provides methods for loading a DTD file into a DTD class
  *
+ * The file is read in a single pass by a small tokenizer, instead of
+ * joining lines and splitting strings for each declaration.
+ * Comments can appear anywhere (also inside a declaration), declarations
+ * can span any number of lines, and internal parameter entities
+ * (&lt;!ENTITY % name "..."&gt;) are expanded where they are referenced.
+ *
  * @author Amber Stubbs, Keigh Rim
  * @see DTD
  */
 
 class DTDLoader {
 
+    // bump this whenever a change here can make a different DTD from the same
+    // file; DTDSnapshot keys its cached snapshots with it
+    static final int PARSER_VERSION = 2;
+
+    // token types
+    private static final int T_NAME = 0;
+    private static final int T_QUOTED = 1;
+    private static final int T_GROUP = 2;
+    private static final int T_EQUALS = 3;
+
+    private static final Pattern ARG_ATT_PATTERN = Pattern.compile("^arg[0-9]+$");
+    private static final HashSet<String> ATT_TYPES = new HashSet<String>();
+    static {
+        String[] types = {"CDATA", "ID", "IDREF", "IDREFS", "NMTOKEN",
+                "NMTOKENS", "ENTITY", "ENTITIES", "NOTATION"};
+        for (String type : types) {
+            ATT_TYPES.add(type);
+        }
+    }
+    // to stop a recursive parameter entity from running forever
+    private static final int MAX_ENTITY_DEPTH = 64;
+
     private DTD mDtd;
+    private HashMap<String, String> mParamEntities;
+
+    // input stack, parameter entity references push their replacement text
+    private ArrayDeque<Source> mInput;
+    // tokens of the declaration being read, recycled for every declaration
+    private ArrayList<Token> mTokens;
 
     DTDLoader(File f) {
         mDtd = new DTD();
+        mParamEntities = new HashMap<String, String>();
+        mTokens = new ArrayList<Token>();
         try {
             readFile(f);
         } catch (FileNotFoundException e) {
             System.err.println("no file found");
         }
+        mDtd.freeze();
+    }
+
+    /**
+     * Loads a DTD from its text, already read from a file
+     *
+     * @param text the whole DTD
+     */
+    DTDLoader(CharSequence text) {
+        mDtd = new DTD();
+        mParamEntities = new HashMap<String, String>();
+        mTokens = new ArrayList<Token>();
+        parse(text);
+        mDtd.freeze();
     }
 
     public DTD getDTD() {
@@ -56,57 +107,90 @@ class DTDLoader {
     }
 
     private void readFile(File f) throws FileNotFoundException {
-        Scanner sc = new Scanner(f, "UTF-8");
-        while (sc.hasNextLine()) {
-            String next = sc.nextLine();
-            //first, get rid of comments
-            //this assumes that comments are on their own line(s)
-            //needs to be made more flexible
-            if (next.contains("<!--")) {
-                while (!next.contains("-->")) {
-                    next = sc.nextLine();
-                }
-                //this skips the lines with the comments
-                next = sc.nextLine();
+        Reader reader = new InputStreamReader(new FileInputStream(f),
+                java.nio.charset.Charset.forName("UTF-8"));
+        StringBuilder text = new StringBuilder((int) Math.min(f.length(), Integer.MAX_VALUE));
+        char[] buf = new char[8192];
+        try {
+            int read;
+            while ((read = reader.read(buf)) != -1) {
+                text.append(buf, 0, read);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading DTD file: " + f.getName());
+            e.printStackTrace();
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
             }
+        }
+        parse(text);
+    }
 
-            //then, get all information about a tag into one string
-            String tag = "";
-            if (next.contains("<")) {
-                tag = tag + next;
-                while (!next.contains(">")) {
-                    next = sc.nextLine();
-                    tag = tag + next;
-                }
+    /**
+     * Reads all declarations in a DTD text
+     *
+     * @param text the whole DTD
+     */
+    void parse(CharSequence text) {
+        mInput = new ArrayDeque<Source>();
+        int start = text.length() > 0 && text.charAt(0) == '\uFEFF' ? 1 : 0;
+        mInput.push(new Source(text, start));
+
+        int c;
+        while ((c = skipWhitespace()) != -1) {
+            if (lookingAt("<!--")) {
+                skipPast("-->");
+            } else if (lookingAt("<?")) {
+                skipPast("?>");
+            } else if (lookingAt("<!")) {
+                skip(2);
+                String keyword = readName();
+                readDeclaration();
+                process(keyword);
+            } else if (c == '%' && isNameChar(peek(1))) {
+                skip(1);
+                expandReference();
+            } else {
+                // stray character (e.g. end of a conditional section), skip it
+                skip(1);
             }
-            tag = tag.replaceAll("\\s+", " ");
-            tag = tag.replaceAll("[“”]", "\"");
-            process(tag);
         }
     }
 
-    private void process(String tag) {
+    private void process(String keyword) {
 
-        if (tag.startsWith("<!ELEMENT")) {
-            createElement(tag);
+        if (keyword.equals("ELEMENT")) {
+            createElement();
         }
 
-        if (tag.startsWith("<!ATTLIST")) {
-            addAttribute(tag);
+        if (keyword.equals("ATTLIST")) {
+            addAttributes();
         }
 
-        if (tag.startsWith("<!ENTITY")) {
-            addMeta(tag);
+        if (keyword.equals("ENTITY")) {
+            addEntity();
         }
     }
 
     /*
     Create a new element in the DTD
     */
-    private void createElement(String tag) {
-        String name = tag.split(" ")[1];
+    private void createElement() {
+        if (mTokens.size() == 0 || mTokens.get(0).type != T_NAME) {
+            System.err.println("ELEMENT declaration without a name");
+            return;
+        }
+        String name = mTokens.get(0).text;
+        boolean pcdata = false;
+        for (int i = 1; i < mTokens.size(); i++) {
+            if (mTokens.get(i).text.contains("#PCDATA")) {
+                pcdata = true;
+            }
+        }
         // PCDATA indicating this is an extend tag
-        if (tag.contains("#PCDATA")) {
+        if (pcdata) {
             String idString = getIDString(name);
             ElemExtent e = new ElemExtent(name, idString);
             mDtd.addElem(e);
@@ -120,11 +204,10 @@ class DTDLoader {
     }
 
     private String getIDString(String name) {
-        ArrayList<String> ids = mDtd.getElementIDs();
         String id = name.substring(0, 1);
         boolean idOkay = false;
         while (!idOkay) {
-            if (ids.contains(id)) {
+            if (mDtd.hasIdPrefix(id)) {
                 if (id.length() >= name.length()) {
                     id = id + "-";
                 } else {
@@ -137,146 +220,419 @@ class DTDLoader {
         return id;
     }
 
-    private void addMeta(String tag) {
-        if (tag.contains("name ")) {
-            String name = tag.split("name \"")[1];
-            name = name.split("\"")[0];
-            mDtd.setName(name);
+    /**
+     * Reads a general entity (only "name" is used, for the name of the task)
+     * or stores a parameter entity for later references
+     */
+    private void addEntity() {
+        if (mTokens.size() < 2) {
+            return;
+        }
+        if (mTokens.get(0).text.equals("%")) {
+            String name = mTokens.get(1).text;
+            Token value = firstOfType(T_QUOTED, 2);
+            if (value == null) {
+                System.err.println(String.format(
+                        "external parameter entity %s is not supported", name));
+            } else if (!mParamEntities.containsKey(name)) {
+                // as in XML, the first declaration is binding
+                mParamEntities.put(name, value.text);
+            }
+        } else if (mTokens.get(0).text.equals("name")) {
+            Token value = firstOfType(T_QUOTED, 1);
+            if (value != null) {
+                mDtd.setName(value.text);
+            }
         }
     }
 
     /**
-     * Add an attribute to an existing string
+     * Add attributes to an existing element.
+     * An ATTLIST can declare more than one attribute.
      */
-    private void addAttribute(String tag) {
-        if (tag.contains("(")) {
-            addListAtt(tag);
-        } else {
-            addDataAtt(tag);
+    private void addAttributes() {
+        if (mTokens.size() < 2) {
+            return;
+        }
+        String elemName = mTokens.get(0).text;
+        Elem elem = mDtd.getElem(elemName);
+        if (elem == null) {
+            System.err.println(String.format(
+                    "element name %s is not found", elemName));
+            return;
+        }
+
+        int i = 1;
+        while (i < mTokens.size()) {
+            Token nameToken = mTokens.get(i++);
+            if (nameToken.type != T_NAME) {
+                System.err.println(String.format(
+                        "unexpected %s in ATTLIST of %s", nameToken.text, elemName));
+                continue;
+            }
+            AttDecl decl = new AttDecl(nameToken.text);
+            boolean hasContent = false;
+            while (i < mTokens.size()) {
+                Token t = mTokens.get(i);
+                if (t.type == T_NAME && i + 2 < mTokens.size()
+                        && mTokens.get(i + 1).type == T_EQUALS
+                        && mTokens.get(i + 2).type == T_QUOTED) {
+                    if (t.text.equals("prefix")) {
+                        decl.prefix = mTokens.get(i + 2).text;
+                    }
+                    i += 3;
+                } else if (t.type == T_GROUP && decl.type == null && decl.values == null) {
+                    decl.values = t.text;
+                    i++;
+                } else if (t.type == T_NAME && decl.type == null && decl.values == null
+                        && ATT_TYPES.contains(t.text)) {
+                    decl.type = t.text;
+                    i++;
+                } else if (t.type == T_NAME && t.text.startsWith("#")) {
+                    if (t.text.equals("#REQUIRED")) {
+                        decl.required = true;
+                    }
+                    i++;
+                } else if (t.type == T_QUOTED) {
+                    decl.defaults++;
+                    if (decl.defaults == 1) {
+                        decl.defaultValue = t.text;
+                    }
+                    i++;
+                } else if (hasContent) {
+                    // name of the next attribute in the same ATTLIST
+                    break;
+                } else {
+                    i++;
+                }
+                hasContent = true;
+            }
+            if (decl.defaults > 1) {
+                System.err.println(String.format(
+                        "too many default values found for %s of %s", decl.name, elemName));
+            }
+            if (decl.values != null) {
+                addListAtt(elem, decl);
+            } else {
+                addDataAtt(elem, decl);
+            }
         }
     }
 
     /**
      * Create an attribute with a list of valid values
      */
-    private void addListAtt(String tag) {
-        String elemName = tag.split(" ")[1];
-        String attName = tag.split(" ")[2];
-        Elem elem = mDtd.getElem(elemName);
+    private void addListAtt(Elem elem, AttDecl decl) {
+        ArrayList<String> validValues = new ArrayList<String>();
+        for (String value : decl.values.split("\\|")) {
+            value = value.trim();
+            if (value.length() > 0) {
+                validValues.add(value);
+            }
+        }
 
-        if (elem != null) {
-            String listString = tag.split("\\(")[1];
-            listString = listString.split("\\)")[0];
+        String defaultValue = decl.defaultValue;
+        if (defaultValue.length() > 0 && !validValues.contains(defaultValue)) {
+            System.err.println(String.format(
+                    "default value %s not in attribute list of %s"
+                    , defaultValue, decl.name));
+            defaultValue = "";
+        }
+        elem.addAttribute(new AttList(decl.name, decl.required, validValues, defaultValue));
+    }
 
-            ArrayList<String> validValues = new ArrayList<String>();
-            for (String value : listString.split("\\|")) {
-                validValues.add(value.trim());
-            }
+    /**
+     * Creates an attribute that can have an arbitrary string data
+     */
+    private void addDataAtt(Elem elem, AttDecl decl) {
+        String attName = decl.name;
+        boolean req = decl.required;
 
-            Pattern defValPat = Pattern.compile("\"[\\w ]+\" *>");
-            Matcher matcher = defValPat.matcher(tag);
-            ArrayList<String> defVal = new ArrayList<String>();
-            String defaultValue = "";
-            while (matcher.find()) {
-                defVal.add(matcher.group());
+        // krim: support for multi-span extents
+        // dropped "end" tag, kept "start" only
+        // keeping "start" is for legacy DTD support
+        // (instead of replacing it with the actually used name "spans")
+        if (attName.equalsIgnoreCase("start")
+                || attName.equalsIgnoreCase("spans")) {
+            if (elem instanceof ElemExtent) {
+                Attrib att = elem.getAttribute("spans");
+                att.setRequired(req);
             }
-            if (defVal.size() > 1) {
-                System.err.println(String.format(
-                        "too many default values found in %s", tag));
-            } else if (defVal.size() == 1) {
-                defaultValue = defVal.get(0).split("\"")[1];
-                if (!validValues.contains(defaultValue)) {
-                    System.err.println(String.format(
-                            "default value %s not in attribute list of %s"
-                            , defaultValue, tag));
-                    defaultValue = "";
-                }
+        } else if ("ID".equals(decl.type)) {
+            if (decl.prefix != null) {
+                mDtd.setIdPrefix(elem, decl.prefix);
             }
-            boolean req = tag.contains("#REQUIRED");
-            elem.addAttribute(new AttList(attName, req, validValues, defaultValue));
         } else {
-            System.err.println(String.format(
-                    "%s not found. not a valid tag identifier?", elemName));
+            // krim: for multi-link support
+            // first check if this att is for argument
+            Matcher matcher = ARG_ATT_PATTERN.matcher(attName);
+            if (matcher.find()) {
+                // then check elem is a link tag
+                if (elem instanceof ElemLink) {
+                    String argName;
+                    // name argument if a name is given
+                    if (decl.prefix != null) {
+                        argName = decl.prefix;
+                    }
+                    // otherwise, use argN format as a default name
+                    else {
+                        argName = matcher.group();
+                    }
+                    ((ElemLink) elem).addArgement(argName);
+                    // then adjust max args in dtd object
+                    if (mDtd.getMaxArgs() < ((ElemLink) elem).getArgNum()) {
+                        mDtd.setMaxArgs(((ElemLink) elem).getArgNum());
+                    }
+                } else {
+                    System.err.println("No argument attrib allowed for an extend tag");
+                }
+            }
+            // otherwise, add as a simple data attrib (original code)
+            else {
+                AttData att = (new AttData(attName, req, decl.defaultValue));
+                // added by krim: check for IDREF for UI improvement
+                att.setIdRef(decl.type != null && decl.type.startsWith("IDREF"));
+                elem.addAttribute(att);
+            }
+        }
+    }
+
+    private Token firstOfType(int type, int from) {
+        for (int i = from; i < mTokens.size(); i++) {
+            if (mTokens.get(i).type == type) {
+                return mTokens.get(i);
+            }
         }
+        return null;
     }
 
+    // ***************
+    // tokenizer
+
     /**
-     * Creates an attribute that can have an arbitrary string data
+     * Reads tokens of a declaration up to its closing '&gt;' into mTokens
      */
-    private void addDataAtt(String tag) {
-
-        String elemName = tag.split(" ")[1];
-        String attName = tag.split(" ")[2];
-        boolean req = tag.contains("#REQUIRED");
-        if (mDtd.hasElem(elemName)) {
-            Elem elem = mDtd.getElem(elemName);
-
-            // krim: support for multi-span extents
-            // dropped "end" tag, kept "start" only
-            // keeping "start" is for legacy DTD support
-            // (instead of replacing it with the actually used name "spans")
-            if (attName.equalsIgnoreCase("start")
-                    || attName.equalsIgnoreCase("spans")) {
-                if (elem instanceof ElemExtent) {
-                    Attrib att = elem.getAttribute("spans");
-                    att.setRequired(req);
-                }
-            } else if (tag.contains(" ID ")) {
-                AttID att = (AttID) elem.getAttribute("id");
-                if (tag.contains("prefix")) {
-                    String prefix = tag.split("[\"]")[1];
-                    att.setPrefix(prefix);
+    private void readDeclaration() {
+        mTokens.clear();
+        int c;
+        while ((c = skipWhitespace()) != -1) {
+            if (c == '>') {
+                skip(1);
+                return;
+            } else if (lookingAt("<!--")) {
+                skipPast("-->");
+            } else if (lookingAt("--")) {
+                // SGML style comment inside a declaration
+                skip(2);
+                skipPast("--");
+            } else if (isQuote(c)) {
+                mTokens.add(new Token(T_QUOTED, readQuoted()));
+            } else if (c == '(') {
+                mTokens.add(new Token(T_GROUP, readGroup()));
+            } else if (c == '=') {
+                skip(1);
+                mTokens.add(new Token(T_EQUALS, "="));
+            } else if (c == '%') {
+                skip(1);
+                if (isNameChar(peek(0))) {
+                    expandReference();
+                } else {
+                    mTokens.add(new Token(T_NAME, "%"));
                 }
             } else {
-                // krim: for multi-link support
-                // first check if this att is for argument
-                Pattern argAttPat = Pattern.compile("^arg[0-9]+$");
-                Matcher matcher = argAttPat.matcher(attName);
-                if (matcher.find()) {
-                    // then check elem is a link tag
-                    if (elem instanceof ElemLink) {
-                        String argName;
-                        // name argument if a name is given
-                        if (tag.contains("prefix")) {
-                            argName = tag.split("\"")[1];
-                        }
-                        // otherwise, use argN format as a default name
-                        else {
-                            argName = matcher.group();
-                        }
-                        ((ElemLink) elem).addArgement(argName);
-                        // then adjust max args in dtd object
-                        if (mDtd.getMaxArgs() < ((ElemLink) elem).getArgNum()) {
-                            mDtd.setMaxArgs(((ElemLink) elem).getArgNum());
-                        }
-                    } else {
-                        System.err.println("No argument attrib allowed for an extend tag");
-                    }
+                String name = readName();
+                if (name.length() == 0) {
+                    // not a token character at all
+                    skip(1);
+                } else {
+                    mTokens.add(new Token(T_NAME, name));
                 }
-                // otherwise, add as a simple data attrib (original code)
-                else {
-                    Pattern defaultVal = Pattern.compile("\"[\\w ]+\" *>");
-                    matcher = defaultVal.matcher(tag);
-                    ArrayList<String> defVals = new ArrayList<String>();
-                    String defaultValue = "";
-                    while (matcher.find()) {
-                        defVals.add(matcher.group());
-                    }
-                    if (defVals.size() > 1) {
-                        System.err.println(String.format(
-                                "too many default values found in %s", tag));
-                    } else if (defVals.size() == 1) {
-                        defaultValue = defVals.get(0).split("\"")[1];
-                    }
-                    AttData att = (new AttData(attName, req, defaultValue));
-                    // added by krim: check for IDREF for UI improvement
-                    att.setIdRef(tag.contains("IDREF"));
-                    elem.addAttribute(att);
+            }
+        }
+        System.err.println("DTD ended in the middle of a declaration");
+    }
+
+    private String readName() {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = peek(0)) != -1 && !Character.isWhitespace(c)
+                && c != '>' && c != '(' && c != ')' && c != '='
+                && c != '%' && c != '|' && c != ';' && !isQuote(c)) {
+            sb.append((char) c);
+            skip(1);
+        }
+        return sb.toString();
+    }
+
+    private String readQuoted() {
+        int open = read();
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = read()) != -1) {
+            if (c == open || (open != '\'' && isQuote(c) && c != '\'')) {
+                break;
+            }
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads a parenthesized group, including nested ones, and returns
+     * what is inside the outermost parentheses
+     */
+    private String readGroup() {
+        skip(1);
+        StringBuilder sb = new StringBuilder();
+        int depth = 1;
+        int c;
+        while ((c = peek(0)) != -1) {
+            if (c == '%' && isNameChar(peek(1))) {
+                skip(1);
+                expandReference();
+                continue;
+            }
+            skip(1);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    break;
                 }
             }
-        } else {
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads the name of a parameter entity reference (after '%')
+     * and pushes its replacement text on the input
+     */
+    private void expandReference() {
+        String name = readName();
+        if (peek(0) == ';') {
+            skip(1);
+        }
+        String value = mParamEntities.get(name);
+        if (value == null) {
             System.err.println(String.format(
-                    "element name %s is not found", elemName));
+                    "parameter entity %%%s; is not declared", name));
+        } else if (mInput.size() > MAX_ENTITY_DEPTH) {
+            System.err.println(String.format(
+                    "parameter entity %%%s; is nested too deep", name));
+        } else {
+            mInput.push(new Source(value, 0));
+        }
+    }
+
+    private static boolean isQuote(int c) {
+        return c == '"' || c == '\'' || c == '\u201C' || c == '\u201D';
+    }
+
+    private static boolean isNameChar(int c) {
+        return c != -1 && (Character.isLetterOrDigit(c)
+                || c == '_' || c == '-' || c == '.' || c == ':');
+    }
+
+    /** drops finished entity replacement texts from the input stack */
+    private Source current() {
+        Source top = mInput.peek();
+        while (top != null && top.pos >= top.text.length() && mInput.size() > 1) {
+            mInput.pop();
+            top = mInput.peek();
+        }
+        return top;
+    }
+
+    private int peek(int ahead) {
+        Source src = current();
+        int i = src.pos + ahead;
+        if (i < src.text.length()) {
+            return src.text.charAt(i);
+        }
+        return -1;
+    }
+
+    private int read() {
+        int c = peek(0);
+        if (c != -1) {
+            current().pos++;
+        }
+        return c;
+    }
+
+    private void skip(int n) {
+        Source src = current();
+        src.pos = Math.min(src.pos + n, src.text.length());
+    }
+
+    private int skipWhitespace() {
+        int c;
+        while ((c = peek(0)) != -1 && Character.isWhitespace(c)) {
+            skip(1);
+        }
+        return c;
+    }
+
+    private boolean lookingAt(String s) {
+        Source src = current();
+        if (src.pos + s.length() > src.text.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (src.text.charAt(src.pos + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipPast(String s) {
+        while (peek(0) != -1) {
+            if (lookingAt(s)) {
+                skip(s.length());
+                return;
+            }
+            skip(1);
+        }
+    }
+
+    private static class Source {
+        private final CharSequence text;
+        private int pos;
+
+        private Source(CharSequence text, int pos) {
+            this.text = text;
+            this.pos = pos;
+        }
+    }
+
+    private static class Token {
+        private final int type;
+        private final String text;
+
+        private Token(int type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Everything declared for a single attribute in an ATTLIST
+     */
+    private static class AttDecl {
+        private final String name;
+        private String type;
+        private String values;
+        private String prefix;
+        private String defaultValue = "";
+        private int defaults = 0;
+        private boolean required = false;
+
+        private AttDecl(String name) {
+            this.name = name;
         }
     }
 }
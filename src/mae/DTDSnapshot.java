@@ -0,0 +1,354 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compiles a DTD into a compact binary snapshot, and keeps snapshots in
+ * a cache keyed by the SHA-1 of the DTD file content, the snapshot format
+ * version and DTDLoader.PARSER_VERSION, so that snapshots made by an
+ * older parser are never used. Loading a DTD that
+ * was seen before (in this session or, through the disk cache, in an
+ * earlier one) skips parsing altogether.
+ *
+ * Snapshots, not DTD objects, are cached, because ID counters of a DTD
+ * are changed while annotating; each load gets its own fresh DTD.
+ *
+ * The disk cache lives in ~/.mae/dtd-cache, which can be changed with the
+ * system property mae.dtd.cache (set it to "none" to disable the disk cache).
+ *
+ * @see DTDLoader
+ */
+class DTDSnapshot {
+
+    private static final int MAGIC = 0x4D414544; // "MAED"
+    // bump this when the format changes, see DTDLoader.PARSER_VERSION for the parser
+    private static final int VERSION = 1;
+
+    private static final byte EXTENT = 0;
+    private static final byte LINK = 1;
+    private static final byte ATT_ID = 0;
+    private static final byte ATT_DATA = 1;
+    private static final byte ATT_LIST = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // content hash -> snapshot, for this session
+    private static final HashMap<String, byte[]> sMemo = new HashMap<String, byte[]>();
+
+    private DTDSnapshot() {
+    }
+
+    /**
+     * Loads a DTD file, from a cached snapshot if its content was seen before
+     *
+     * @param f DTD file
+     * @return a new frozen DTD
+     * @throws IOException when the file cannot be read
+     */
+    static DTD load(File f) throws IOException {
+        byte[] content = readBytes(f);
+        String key = digest(content) + "-" + VERSION + "." + DTDLoader.PARSER_VERSION;
+
+        byte[] snapshot;
+        synchronized (sMemo) {
+            snapshot = sMemo.get(key);
+        }
+        if (snapshot == null) {
+            snapshot = readCache(key);
+        }
+        if (snapshot != null) {
+            try {
+                DTD dtd = decode(snapshot);
+                remember(key, snapshot);
+                return dtd;
+            } catch (IOException e) {
+                // broken or outdated snapshot, compile again
+                System.err.println("Discarding broken DTD snapshot " + key);
+            }
+        }
+
+        String text = new String(content, UTF8);
+        DTD dtd = new DTDLoader(text).getDTD();
+        snapshot = encode(dtd);
+        remember(key, snapshot);
+        writeCache(key, snapshot);
+        return dtd;
+    }
+
+    /**
+     * Writes the whole structure of a DTD into a byte array
+     */
+    static byte[] encode(DTD dtd) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(DTDLoader.PARSER_VERSION);
+        out.writeUTF(dtd.getName());
+        out.writeInt(dtd.getMaxArgs());
+
+        ArrayList<Elem> elems = dtd.getElements();
+        out.writeInt(elems.size());
+        for (Elem elem : elems) {
+            if (elem instanceof ElemLink) {
+                ElemLink link = (ElemLink) elem;
+                out.writeByte(LINK);
+                out.writeUTF(elem.getName());
+                out.writeBoolean(link.isNary());
+                writeStrings(out, link.getArguments());
+            } else {
+                out.writeByte(EXTENT);
+                out.writeUTF(elem.getName());
+            }
+
+            ArrayList<Attrib> atts = elem.getAttributes();
+            out.writeInt(atts.size());
+            for (Attrib att : atts) {
+                if (att instanceof AttID) {
+                    out.writeByte(ATT_ID);
+                } else if (att instanceof AttList) {
+                    out.writeByte(ATT_LIST);
+                } else {
+                    out.writeByte(ATT_DATA);
+                }
+                out.writeUTF(att.getName());
+                out.writeBoolean(att.isRequired());
+                out.writeBoolean(att.isIdRef());
+                writeNullable(out, att.getDefaultValue());
+                if (att instanceof AttID) {
+                    writeNullable(out, ((AttID) att).getPrefix());
+                } else if (att instanceof AttList) {
+                    writeStrings(out, ((AttList) att).getVaildValues());
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Rebuilds a DTD from a snapshot
+     *
+     * @throws IOException when the snapshot is broken or from another version
+     */
+    static DTD decode(byte[] snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION
+                || in.readInt() != DTDLoader.PARSER_VERSION) {
+            throw new IOException("not a DTD snapshot of this version");
+        }
+        DTD dtd = new DTD();
+        dtd.setName(in.readUTF());
+        dtd.setMaxArgs(in.readInt());
+
+        int numElems = in.readInt();
+        for (int i = 0; i < numElems; i++) {
+            byte kind = in.readByte();
+            Elem elem;
+            if (kind == LINK) {
+                ElemLink link = new ElemLink();
+                link.setName(in.readUTF());
+                boolean nary = in.readBoolean();
+                link.restoreArguments(readStrings(in), nary);
+                elem = link;
+            } else if (kind == EXTENT) {
+                elem = new ElemExtent();
+                elem.setName(in.readUTF());
+            } else {
+                throw new IOException("unknown element type " + kind);
+            }
+
+            int numAtts = in.readInt();
+            for (int j = 0; j < numAtts; j++) {
+                byte attKind = in.readByte();
+                Attrib att;
+                if (attKind == ATT_ID) {
+                    att = new AttID();
+                } else if (attKind == ATT_LIST) {
+                    att = new AttList();
+                } else if (attKind == ATT_DATA) {
+                    att = new AttData();
+                    ((AttData) att).setData("");
+                } else {
+                    throw new IOException("unknown attribute type " + attKind);
+                }
+                att.setName(in.readUTF());
+                att.setRequired(in.readBoolean());
+                att.setIdRef(in.readBoolean());
+                att.setDefaultValue(readNullable(in));
+                if (att instanceof AttID) {
+                    ((AttID) att).setPrefix(readNullable(in));
+                } else if (att instanceof AttList) {
+                    ((AttList) att).setVaildValues(readStrings(in));
+                }
+                elem.addAttribute(att);
+            }
+            dtd.addElem(elem);
+        }
+        if (in.available() > 0) {
+            throw new IOException("trailing bytes in DTD snapshot");
+        }
+        dtd.freeze();
+        return dtd;
+    }
+
+    private static void remember(String key, byte[] snapshot) {
+        synchronized (sMemo) {
+            sMemo.put(key, snapshot);
+        }
+    }
+
+    private static File getCacheDir() {
+        String dir = System.getProperty("mae.dtd.cache");
+        if (dir == null) {
+            return new File(System.getProperty("user.home"),
+                    ".mae" + File.separator + "dtd-cache");
+        }
+        if (dir.equals("none")) {
+            return null;
+        }
+        return new File(dir);
+    }
+
+    private static byte[] readCache(String key) {
+        File dir = getCacheDir();
+        if (dir == null) {
+            return null;
+        }
+        File cached = new File(dir, key + ".bin");
+        if (!cached.isFile()) {
+            return null;
+        }
+        try {
+            return readBytes(cached);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot into the disk cache. Failing to write the cache
+     * is not an error, the DTD will be simply parsed again next time.
+     */
+    private static void writeCache(String key, byte[] snapshot) {
+        File dir = getCacheDir();
+        if (dir == null || (!dir.isDirectory() && !dir.mkdirs())) {
+            return;
+        }
+        File cached = new File(dir, key + ".bin");
+        try {
+            // write to a temporary file first, so that other processes
+            // sharing the cache never read a half-written snapshot
+            File temp = File.createTempFile(key, ".tmp", dir);
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(snapshot);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(cached)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot write DTD cache: " + e.getMessage());
+        }
+    }
+
+    private static byte[] readBytes(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    (int) Math.min(f.length(), Integer.MAX_VALUE));
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                bytes.write(buf, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] hash = md.digest(content);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE is required to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, ArrayList<String> strings)
+            throws IOException {
+        if (strings == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static ArrayList<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        ArrayList<String> strings = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        if (in.readBoolean()) {
+            return in.readUTF();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Finds candidate extent tags in a text from a dictionary of terms.
+ * A dictionary is a UTF-8 text file, each line of which is a term and
+ * the name of an extent element, separated by a tab. Blank lines and
+ * lines starting with '#' are ignored.
+ *
+ * All terms are compiled into a single Aho-Corasick automaton, so the
+ * text is scanned once no matter how big the dictionary is. Out of
+ * overlapping matches, the leftmost one is taken, and the longest one
+ * if more than one start at the same offset.
+ */
+class DictionaryAnnotator {
+
+    // lengths and element indices are packed in 16 bits when sorting matches
+    static final int MAX_TERM_LENGTH = 0xFFFF;
+    private static final int MAX_ELEMENTS = 0xFFFF;
+
+    private AhoCorasick mAutomaton;
+    private boolean mWholeWords;
+    private ArrayList<String> mElemNames;
+    private HashMap<String, Integer> mElemIndex;
+    private int mSkipped;
+
+    /**
+     * @param ignoreCase if true, terms match regardless of case
+     * @param wholeWords if true, terms do not match in the middle of a word
+     */
+    DictionaryAnnotator(boolean ignoreCase, boolean wholeWords) {
+        mAutomaton = new AhoCorasick(ignoreCase);
+        mWholeWords = wholeWords;
+        mElemNames = new ArrayList<String>();
+        mElemIndex = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Reads a dictionary file
+     *
+     * @param file dictionary file
+     * @param elemNames names of extent elements terms can be tagged with,
+     *                  lines with other element names are skipped
+     * @param ignoreCase if true, terms match regardless of case
+     * @param wholeWords if true, terms do not match in the middle of a word
+     * @return an annotator ready to be used
+     * @throws IOException
+     */
+    static DictionaryAnnotator load(File file, Collection<String> elemNames,
+                                    boolean ignoreCase, boolean wholeWords)
+            throws IOException {
+        DictionaryAnnotator annotator = new DictionaryAnnotator(ignoreCase, wholeWords);
+        HashSet<String> allowed = new HashSet<String>(elemNames);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                int tab = line.lastIndexOf('\t');
+                String elemName = tab < 0 ? null : line.substring(tab + 1).trim();
+                if (elemName == null || !allowed.contains(elemName)
+                        || !annotator.addTerm(line.substring(0, tab).trim(), elemName)) {
+                    annotator.mSkipped++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        annotator.mAutomaton.build();
+        return annotator;
+    }
+
+    /**
+     * Adds a term to the dictionary
+     *
+     * @return false if the term is empty, too long, or already in the dictionary
+     */
+    boolean addTerm(String term, String elemName) {
+        if (term.length() == 0 || term.length() > MAX_TERM_LENGTH) {
+            return false;
+        }
+        Integer index = mElemIndex.get(elemName);
+        if (index == null) {
+            if (mElemNames.size() == MAX_ELEMENTS) {
+                return false;
+            }
+            index = mElemNames.size();
+            mElemNames.add(elemName);
+            mElemIndex.put(elemName, index);
+        }
+        return mAutomaton.add(term, index);
+    }
+
+    /**
+     * @return number of distinct terms in the dictionary
+     */
+    int size() {
+        return mAutomaton.size();
+    }
+
+    /**
+     * @return number of dictionary lines that were not used
+     */
+    int getSkipped() {
+        return mSkipped;
+    }
+
+    /**
+     * Finds non-overlapping candidate tags in a text
+     *
+     * @param text the primary text of a document
+     * @return matches sorted by their start offsets
+     */
+    ArrayList<TagCandidate> annotate(final CharSequence text) {
+        // start | (MAX - length) | element, so that sorting puts
+        // longer matches first among ones starting at the same offset
+        final long[][] found = new long[][] {new long[1024]};
+        final int[] count = new int[] {0};
+        mAutomaton.scan(text, new AhoCorasick.MatchListener() {
+            @Override
+            public void match(int start, int end, int value) {
+                if (mWholeWords && !isWordBoundary(text, start, end)) {
+                    return;
+                }
+                if (count[0] == found[0].length) {
+                    found[0] = Arrays.copyOf(found[0], count[0] * 2);
+                }
+                found[0][count[0]++] = ((long) start << 32)
+                        | ((long) (MAX_TERM_LENGTH - (end - start)) << 16)
+                        | value;
+            }
+        });
+        long[] sorted = found[0];
+        Arrays.sort(sorted, 0, count[0]);
+
+        ArrayList<TagCandidate> matches = new ArrayList<TagCandidate>();
+        int lastEnd = 0;
+        for (int i = 0; i < count[0]; i++) {
+            int start = (int) (sorted[i] >>> 32);
+            if (start < lastEnd) {
+                continue;
+            }
+            int length = MAX_TERM_LENGTH - (int) ((sorted[i] >>> 16) & 0xFFFF);
+            int elem = (int) (sorted[i] & 0xFFFF);
+            lastEnd = start + length;
+            matches.add(new TagCandidate(start, lastEnd, mElemNames.get(elem)));
+        }
+        return matches;
+    }
+
+    /**
+     * Checks a match does not start or end in the middle of a word.
+     * Only edges of a term that are letters or digits are checked,
+     * so that terms such as "C++" can still match.
+     */
+    private static boolean isWordBoundary(CharSequence text, int start, int end) {
+        if (start > 0 && isWordChar(text.charAt(start))
+                && isWordChar(text.charAt(start - 1))) {
+            return false;
+        }
+        if (end < text.length() && isWordChar(text.charAt(end - 1))
+                && isWordChar(text.charAt(end))) {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+}
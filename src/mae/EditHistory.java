@@ -0,0 +1,187 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.util.ArrayDeque;
+
+/**
+ * Undo and redo history of annotation edits.
+ *
+ * Every change to tags is recorded as an Edit that knows how to undo
+ * and redo itself, with what it needs for that kept when it is made, so
+ * that neither needs to look at or reload the whole document.
+ * The history is bounded by the number of edits and by their costs,
+ * a rough measure of the memory they keep (such as table cells),
+ * counting edits to be redone as well as ones to be undone; the oldest
+ * edits are dropped first. An edit too costly to keep clears the whole
+ * history, as older edits cannot be undone past it.
+ */
+class EditHistory {
+
+    /**
+     * An edit that can be undone and redone
+     */
+    interface Edit {
+        void undo();
+
+        void redo();
+
+        /**
+         * @return a short name for menus, such as "Delete N1"
+         */
+        String getName();
+
+        /**
+         * @return a rough measure of memory kept by this edit
+         */
+        int getCost();
+    }
+
+    static final int MAX_EDITS = 200;
+    static final int MAX_COST = 500000;
+
+    private final int mMaxEdits;
+    private final int mMaxCost;
+    // most recent last
+    private final ArrayDeque<Edit> mUndos;
+    private final ArrayDeque<Edit> mRedos;
+    // of all edits in both stacks
+    private int mCost;
+    private boolean isApplying;
+
+    EditHistory() {
+        this(MAX_EDITS, MAX_COST);
+    }
+
+    EditHistory(int maxEdits, int maxCost) {
+        mMaxEdits = maxEdits;
+        mMaxCost = maxCost;
+        mUndos = new ArrayDeque<Edit>();
+        mRedos = new ArrayDeque<Edit>();
+        mCost = 0;
+        isApplying = false;
+    }
+
+    /**
+     * Records an edit just made. Edits made while undoing or redoing
+     * are part of them and are not recorded.
+     */
+    void add(Edit edit) {
+        if (isApplying) {
+            return;
+        }
+        while (!mRedos.isEmpty()) {
+            mCost -= mRedos.removeLast().getCost();
+        }
+        if (edit.getCost() > mMaxCost) {
+            clear();
+            return;
+        }
+        mUndos.addLast(edit);
+        mCost += edit.getCost();
+        trim();
+    }
+
+    /**
+     * Drops the oldest edits to undo, then the last ones to redo,
+     * until the history is within its bounds
+     */
+    private void trim() {
+        while (mUndos.size() + mRedos.size() > mMaxEdits || mCost > mMaxCost) {
+            Edit dropped = mUndos.isEmpty() ? mRedos.removeFirst() : mUndos.removeFirst();
+            mCost -= dropped.getCost();
+        }
+    }
+
+    /**
+     * @return the edit undone, or null if there is nothing to undo
+     */
+    Edit undo() {
+        if (mUndos.isEmpty()) {
+            return null;
+        }
+        Edit edit = mUndos.removeLast();
+        isApplying = true;
+        try {
+            edit.undo();
+        } finally {
+            isApplying = false;
+        }
+        mRedos.addLast(edit);
+        trim();
+        return edit;
+    }
+
+    /**
+     * @return the edit redone, or null if there is nothing to redo
+     */
+    Edit redo() {
+        if (mRedos.isEmpty()) {
+            return null;
+        }
+        Edit edit = mRedos.removeLast();
+        isApplying = true;
+        try {
+            edit.redo();
+        } finally {
+            isApplying = false;
+        }
+        mUndos.addLast(edit);
+        trim();
+        return edit;
+    }
+
+    boolean canUndo() {
+        return !mUndos.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !mRedos.isEmpty();
+    }
+
+    /**
+     * @return name of the edit to be undone next, or null
+     */
+    String getUndoName() {
+        return mUndos.isEmpty() ? null : mUndos.peekLast().getName();
+    }
+
+    /**
+     * @return name of the edit to be redone next, or null
+     */
+    String getRedoName() {
+        return mRedos.isEmpty() ? null : mRedos.peekLast().getName();
+    }
+
+    boolean isApplying() {
+        return isApplying;
+    }
+
+    void clear() {
+        mUndos.clear();
+        mRedos.clear();
+        mCost = 0;
+    }
+}
@@ -27,17 +27,23 @@ package mae;
 
 /**
  * Parent class for DTD elements (generally referred to as "tags")
+ * Attributes are kept in declaration order (that is the column order
+ * of the bottom tables), and also indexed by their lower-cased names.
  * @author Amber Stubbs, Keigh Rim
  *
  */
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
 
 class Elem {
 
     Elem(){
         setName("no name");
         attributes=new ArrayList<Attrib>();
+        attIndex = new HashMap<String, Integer>();
+        frozen = false;
     }
 
     public String getName(){
@@ -53,13 +59,21 @@ class Elem {
     }
 
     public void addAttribute(Attrib a){
+        checkFrozen();
         attributes.add(a);
+        String key = indexKey(a.getName());
+        // as in a linear search, the first attribute with a name wins
+        if (!attIndex.containsKey(key)) {
+            attIndex.put(key, attributes.size() - 1);
+        }
     }
 
     public boolean removeAttribute(String attName) {
+        checkFrozen();
         for (Attrib a : attributes) {
             if (a.getName().equals(attName)) {
                 attributes.remove(a);
+                reindex();
                 return true;
             }
         }
@@ -71,21 +85,45 @@ class Elem {
     }
 
     public Attrib getAttribute(String name){
-        for(int i=0;i<attributes.size();i++){
-            if ((attributes.get(i).getName()).equalsIgnoreCase(name)){
-                return attributes.get(i);
-            }
+        int i = getAttributeIndex(name);
+        if (i < 0) {
+            return null;
         }
-        return null;
+        return attributes.get(i);
     }
 
     boolean hasAttribute(String name){
-        for(int i=0;i<attributes.size();i++){
-            if ((attributes.get(i).getName()).equalsIgnoreCase(name)){
-                return true;
-            }
+        return getAttributeIndex(name) >= 0;
+    }
+
+    /**
+     * Returns the position of an attribute in the attribute list,
+     * which is also the column index of it in the element's table
+     *
+     * @param name name of the attribute, case-insensitive
+     * @return index of the attribute, -1 if not found
+     */
+    int getAttributeIndex(String name){
+        if (name == null) {
+            return -1;
         }
-        return false;
+        Integer i = attIndex.get(indexKey(name));
+        if (i == null) {
+            return -1;
+        }
+        return i;
+    }
+
+    /**
+     * Marks this element as complete. Once frozen, its attribute list
+     * cannot be changed any more.
+     */
+    void freeze() {
+        frozen = true;
+    }
+
+    boolean isFrozen() {
+        return frozen;
     }
 
     void printInfo(){
@@ -97,6 +135,29 @@ class Elem {
         }
     }
 
+    static String indexKey(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    private void reindex() {
+        attIndex.clear();
+        for (int i = 0; i < attributes.size(); i++) {
+            String key = indexKey(attributes.get(i).getName());
+            if (!attIndex.containsKey(key)) {
+                attIndex.put(key, i);
+            }
+        }
+    }
+
+    private void checkFrozen() {
+        if (frozen) {
+            throw new IllegalStateException(
+                    String.format("%s is frozen, attributes cannot be changed", name));
+        }
+    }
+
     private ArrayList<Attrib> attributes;
+    private HashMap<String, Integer> attIndex;
+    private boolean frozen;
     private String name;
 }
\ No newline at end of file
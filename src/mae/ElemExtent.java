@@ -44,6 +44,13 @@ class ElemExtent extends Elem{
     // mod by krim: start, end --> spans
     private String mSpans;
 
+    /**
+     * Creates an extent element without any attribute,
+     * used to rebuild a cached DTD attribute by attribute
+     */
+    ElemExtent(){
+    }
+
     ElemExtent(String name, String idString){
         setName(name);
         //extent tags always have id, start, and end
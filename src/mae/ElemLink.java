@@ -110,6 +110,17 @@ class ElemLink extends Elem {
         addArgAtts(argName);
     }
     
+    /**
+     * Sets arguments of a link element rebuilt from a cached DTD,
+     * argument attributes are restored separately
+     * @param arguments names of arguments
+     * @param nary true if arguments are not the legacy from-to
+     */
+    void restoreArguments(ArrayList<String> arguments, boolean nary) {
+        mArguments = new ArrayList<String>(arguments);
+        mNary = nary;
+    }
+
     /**
      * Method to add two attributes given a name of argument
      * @param argName name of an argument to be added
@@ -34,6 +34,7 @@ package mae;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.text.Document;
+import javax.swing.text.Segment;
 import javax.swing.text.Style;
 import javax.swing.text.StyleContext;
 import javax.swing.text.StyledDocument;
@@ -95,19 +96,31 @@ class FileOperations {
         }
     }
 
+    /**
+     * Writes the text and tags to an XML file. The text is written
+     * segment by segment as it is kept in the document, not copied
+     * to a single string first.
+     */
     public static void saveXML(File f,
                                JTextPane pane,
                                Hashtable<String, JTable> elementTables,
                                ArrayList<Elem> elementNames,
                                String dtdName) {
-        String paneText = pane.getText();
+        Document doc = pane.getDocument();
         try {
             OutputStreamWriter fw = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
             String t = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n";
             t = t + "<" + dtdName + ">\n";
             t = t + "<TEXT><![CDATA[";
             fw.write(t, 0, t.length());
-            fw.write(paneText, 0, paneText.length());
+            Segment segment = new Segment();
+            segment.setPartialReturn(true);
+            int offset = 0;
+            while (offset < doc.getLength()) {
+                doc.getText(offset, doc.getLength() - offset, segment);
+                fw.write(segment.array, segment.offset, segment.count);
+                offset += segment.count;
+            }
             t = "]]></TEXT>\n";
             fw.write(t, 0, t.length());
             String s = "<TAGS>\n";
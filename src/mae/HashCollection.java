@@ -25,11 +25,18 @@
 package mae;
 
 /**
- * This is an implementation of a Hashtable that 
+ * This is an implementation of a HashMap that
  * stores more than one value per key.  This is done by 
  * having every key associated with an ArrayList, and every
  * new value being stored in the array is added to the end of
- * the list (unless the list already contains that value)
+ * the list.
+ *
+ * Backed by an unsynchronized HashMap (all access happens on the EDT or
+ * in a single loader thread). A collection can be created as
+ * 'distinct', then a value is added to a key's list only when the list
+ * does not already contain it; membership is checked through a hash set
+ * kept next to each list, not by scanning the list.
+ * Lists of values are only handed out as read-only views.
  * 
  * @author Amber Stubbs, Keigh Rim
  *
@@ -37,64 +44,78 @@ package mae;
  */
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
 
 class HashCollection<K,V>{
 
-    private Hashtable<K,ArrayList<V>> mHash;
+    private HashMap<K,ArrayList<V>> mHash;
+    // only used when this collection is distinct
+    private HashMap<K,HashSet<V>> mMembers;
 
     public HashCollection(){
-        mHash = new Hashtable<K,ArrayList<V>>();
+        this(false);
+    }
+
+    /**
+     * @param distinct if true, the same value is never added twice to a key
+     */
+    public HashCollection(boolean distinct){
+        mHash = new HashMap<K,ArrayList<V>>();
+        if (distinct) {
+            mMembers = new HashMap<K,HashSet<V>>();
+        }
     }
 
-    public HashCollection(Hashtable<K,ArrayList<V>> hash){
-        mHash = hash;
+    public HashCollection(Map<K,ArrayList<V>> hash){
+        mHash = new HashMap<K,ArrayList<V>>(hash);
+    }
+
+    public boolean isDistinct() {
+        return mMembers != null;
     }
 
     /**
-     * Associate yet another value with a key in a Hashtable that allows duplicates.
+     * Associate yet another value with a key in a HashMap that allows duplicates.
      * Also use to put the first key/value.
      * Add an entity to a key's arrayList
      *
-     * @param key Hashtable key
+     * @param key HashMap key
      * @param value value being added to key's array
      */
     public void putEnt (K key, V value) {
-        //just add to tail end of existing ArrayList
-        //but only if it's not already there
-        try {
-            getList(key).add(value);
-        } catch (NullPointerException e) {
-            ArrayList<V> newlist = new ArrayList<V>();
-            newlist.add(value);
-            mHash.put(key, newlist);
+        //just add to tail end of existing ArrayList,
+        //when distinct, only if it's not already there
+        ArrayList<V> list = mHash.get(key);
+        if (list == null) {
+            list = new ArrayList<V>(4);
+            mHash.put(key, list);
         }
-    }
-
-    /* krim: redundant
-    void putAllEnt (K key, V value) {
-        ArrayList<V> existing = getVaildValues(key);
-        if ( existing == null ){
-            ArrayList<V> newlist = new ArrayList<V>();
-            newlist.add(value);
-            mHash.put(key, newlist);
-        } else {
-            //just add to tail end of existing ArrayList
-            //even if the value is already there
-            existing.add(value);
+        if (mMembers != null) {
+            HashSet<V> members = mMembers.get(key);
+            if (members == null) {
+                members = new HashSet<V>();
+                mMembers.put(key, members);
+            }
+            if (!members.add(value)) {
+                return;
+            }
         }
+        list.add(value);
     }
-    */
 
     public Hashtable<V,String> getValueHash(){
         Hashtable<V,String> values = new Hashtable<V,String>();
         for (ArrayList<V> list : mHash.values()) {
-            if (list != null) {
-                for (V value : list) {
-                    if (value != null) {
-                        values.put(value, "");
-                    }
+            for (V value : list) {
+                if (value != null) {
+                    values.put(value, "");
                 }
             }
         }
@@ -102,59 +123,83 @@ class HashCollection<K,V>{
     }
 
     public void printKeys(){
-        for (Enumeration<K> e = mHash.keys() ; e.hasMoreElements() ;) {
-            System.out.println(e.nextElement());
+        for (K key : mHash.keySet()) {
+            System.out.println(key);
         }
     }
 
     public ArrayList<K> getKeyList(){
-        ArrayList<K> keys = new ArrayList<K>();
-        for (Enumeration<K> e = mHash.keys() ; e.hasMoreElements() ;) {
-            keys.add(e.nextElement());
-        }
-        return(keys);
+        return new ArrayList<K>(mHash.keySet());
+    }
+
+    public Set<K> keySet(){
+        return mHash.keySet();
     }
 
     public void printHash(){
-        for (Enumeration<K> e = mHash.keys() ; e.hasMoreElements() ;) {
-            K ent = e.nextElement();
-            System.out.println(ent + ":");
-            ArrayList<V> list = getList(ent);
-            for (int i=0;i<list.size();i++){
-                System.out.println("\t" + list.get(i).toString());
+        for (Map.Entry<K,ArrayList<V>> entry : mHash.entrySet()) {
+            System.out.println(entry.getKey() + ":");
+            for (V value : entry.getValue()) {
+                System.out.println("\t" + value.toString());
             }
         }
 
     }
 
     /**
-     * Add all key-value pairs of a new HashCollection to this object
+     * Add all key-value pairs of a new HashCollection to this object.
+     * Lists of keys that are not in this collection yet are copied in a
+     * single step, otherwise values are appended in bulk.
+     *
      * @param newHash - target HashCollection
      */
-
     public void putAll(HashCollection<K,V> newHash){
-        Enumeration<K> e = newHash.keys();
-        while (e.hasMoreElements()) {
-            K key = e.nextElement();
-            ArrayList<V> values = newHash.getList(key);
-            for (V value : values) {
-                putEnt(key, value);
-            }
+        if (newHash == null) {
+            return;
+        }
+        for (Map.Entry<K,ArrayList<V>> entry : newHash.mHash.entrySet()) {
+            putList(entry.getKey(), entry.getValue());
         }
     }
 
     public void putList(K key, ArrayList<V> list){
-        for (V aList : list) {
-            putEnt(key, aList);
+        if (mMembers != null) {
+            for (V value : list) {
+                putEnt(key, value);
+            }
+            return;
+        }
+        ArrayList<V> existing = mHash.get(key);
+        if (existing == null) {
+            mHash.put(key, new ArrayList<V>(list));
+        } else {
+            existing.addAll(list);
         }
     }
 
-    public ArrayList<V> getList(K key){
-        try {
-            return mHash.get(key);
-        } catch (NullPointerException e) {
-            return null;
+    /**
+     * Returns values of a key, as a read-only view, since changing the list
+     * would get it out of step with the hash set of a distinct collection
+     *
+     * @return values of the key, or null if there is none
+     */
+    public List<V> getList(K key){
+        ArrayList<V> list = mHash.get(key);
+        return list == null ? null : Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Checks if a value is associated with a key.
+     * This is a hash lookup for a distinct collection,
+     * and a list scan otherwise.
+     */
+    public boolean contains(K key, V value){
+        if (mMembers != null) {
+            HashSet<V> members = mMembers.get(key);
+            return members != null && members.contains(value);
         }
+        ArrayList<V> list = mHash.get(key);
+        return list != null && list.contains(value);
     }
 
     public int size(){
@@ -162,13 +207,32 @@ class HashCollection<K,V>{
     }
 
     public ArrayList<V> remove(K key){
+        if (mMembers != null) {
+            mMembers.remove(key);
+        }
         return mHash.remove(key);
     }
 
+    /**
+     * Removes a single value from a key's list
+     *
+     * @return true if the value was associated with the key
+     */
+    public boolean removeEnt(K key, V value){
+        ArrayList<V> list = mHash.get(key);
+        if (list == null || !list.remove(value)) {
+            return false;
+        }
+        if (mMembers != null) {
+            mMembers.get(key).remove(value);
+        }
+        return true;
+    }
+
     public void clear() {
-        for (Enumeration<K> e = mHash.keys() ; e.hasMoreElements() ;) {
-            K ent = e.nextElement();
-            remove(ent);
+        mHash.clear();
+        if (mMembers != null) {
+            mMembers.clear();
         }
     }
 
@@ -176,11 +240,14 @@ class HashCollection<K,V>{
         return(mHash.containsKey(key));
     }
 
-    public ArrayList<V> get(K key){
-        return(mHash.get(key));
+    /**
+     * Same as getList()
+     */
+    public List<V> get(K key){
+        return getList(key);
     }
 
     public Enumeration<K> keys(){
-        return(mHash.keys());
+        return(Collections.enumeration(mHash.keySet()));
     }
 }
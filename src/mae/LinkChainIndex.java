@@ -0,0 +1,266 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Groups extents into chains of tags connected, directly or through
+ * other extents, by links of selected types (e.g. coreference links).
+ * This is a disjoint-set forest over extent IDs, with union by size and
+ * path halving, and every set also threaded as a circular list, so that
+ * the chain of an extent is found in near constant time and listed in
+ * time linear to its length.
+ * New links are merged in as they are added. Sets cannot be split, so
+ * removing a link or changing its arguments only marks the index stale,
+ * and it is rebuilt from scratch by the given action on the next lookup.
+ */
+class LinkChainIndex {
+
+    private HashSet<String> mLinkTypes;
+    private Runnable mRebuildAction;
+    private boolean isStale;
+    private boolean isRebuilding;
+    // bumped whenever chains may have changed
+    private int mVersion;
+
+    private HashMap<String, Integer> mNodes;
+    private ArrayList<String> mIds;
+    private int[] mParent;
+    private int[] mSize;
+    // next member in the circular list of a set
+    private int[] mNext;
+
+    /**
+     * @param rebuildAction adds all links in the document again
+     *                      through addLink(), called on a stale index
+     */
+    LinkChainIndex(Runnable rebuildAction) {
+        mRebuildAction = rebuildAction;
+        mLinkTypes = new HashSet<String>();
+        mNodes = new HashMap<String, Integer>();
+        mIds = new ArrayList<String>();
+        mParent = new int[16];
+        mSize = new int[16];
+        mNext = new int[16];
+    }
+
+    boolean isChained(String linkType) {
+        return mLinkTypes.contains(linkType);
+    }
+
+    Set<String> getLinkTypes() {
+        return mLinkTypes;
+    }
+
+    /**
+     * Adds or drops a link type from the chaining types,
+     * chains are rebuilt on the next lookup
+     */
+    void setChained(String linkType, boolean chained) {
+        boolean changed = chained
+                ? mLinkTypes.add(linkType) : mLinkTypes.remove(linkType);
+        if (changed) {
+            invalidate();
+        }
+    }
+
+    void clearLinkTypes() {
+        mLinkTypes.clear();
+        clear();
+    }
+
+    /**
+     * Forgets all chains, for an empty document
+     */
+    void clear() {
+        mNodes.clear();
+        mIds.clear();
+        isStale = false;
+        mVersion++;
+    }
+
+    /**
+     * Marks chains out of date, after a link was removed or changed
+     */
+    void invalidate() {
+        isStale = true;
+        mVersion++;
+    }
+
+    int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Joins the chains of all arguments of a link,
+     * nothing happens if the link type is not chained
+     *
+     * @param linkType element name of the link
+     * @param argIds   IDs of arguments, empty or null for unset ones
+     */
+    void addLink(String linkType, String[] argIds) {
+        if (!mLinkTypes.contains(linkType) || (isStale && !isRebuilding)) {
+            // a stale index will read this link anyway when rebuilt
+            return;
+        }
+        int first = -1;
+        for (String argId : argIds) {
+            if (argId == null || argId.length() == 0) {
+                continue;
+            }
+            int node = getNode(argId);
+            if (first < 0) {
+                first = node;
+            } else {
+                union(first, node);
+            }
+        }
+        mVersion++;
+    }
+
+    /**
+     * Returns IDs of all extents in the chain of an extent,
+     * including itself, in no particular order
+     */
+    ArrayList<String> getChain(String id) {
+        refresh();
+        Integer node = mNodes.get(id);
+        if (node == null) {
+            return new ArrayList<String>(Arrays.asList(id));
+        }
+        return members(node);
+    }
+
+    /**
+     * @return number of extents in the chain of an extent
+     */
+    int getChainSize(String id) {
+        refresh();
+        Integer node = mNodes.get(id);
+        return node == null ? 1 : mSize[find(node)];
+    }
+
+    boolean isConnected(String id1, String id2) {
+        refresh();
+        Integer node1 = mNodes.get(id1);
+        Integer node2 = mNodes.get(id2);
+        if (node1 == null || node2 == null) {
+            return id1.equals(id2);
+        }
+        return find(node1) == find(node2);
+    }
+
+    /**
+     * Returns all chains of two or more extents
+     */
+    ArrayList<ArrayList<String>> getChains() {
+        refresh();
+        ArrayList<ArrayList<String>> chains = new ArrayList<ArrayList<String>>();
+        for (int node = 0; node < mIds.size(); node++) {
+            if (mParent[node] == node && mSize[node] > 1) {
+                chains.add(members(node));
+            }
+        }
+        return chains;
+    }
+
+    private void refresh() {
+        if (!isStale) {
+            return;
+        }
+        mNodes.clear();
+        mIds.clear();
+        isRebuilding = true;
+        try {
+            if (mLinkTypes.size() > 0) {
+                mRebuildAction.run();
+            }
+        } finally {
+            isRebuilding = false;
+        }
+        isStale = false;
+    }
+
+    private int getNode(String id) {
+        Integer node = mNodes.get(id);
+        if (node != null) {
+            return node;
+        }
+        int n = mIds.size();
+        if (n == mParent.length) {
+            mParent = Arrays.copyOf(mParent, n * 2);
+            mSize = Arrays.copyOf(mSize, n * 2);
+            mNext = Arrays.copyOf(mNext, n * 2);
+        }
+        mParent[n] = n;
+        mSize[n] = 1;
+        mNext[n] = n;
+        mIds.add(id);
+        mNodes.put(id, n);
+        return n;
+    }
+
+    private int find(int node) {
+        while (mParent[node] != node) {
+            mParent[node] = mParent[mParent[node]];
+            node = mParent[node];
+        }
+        return node;
+    }
+
+    private void union(int node1, int node2) {
+        int root1 = find(node1);
+        int root2 = find(node2);
+        if (root1 == root2) {
+            return;
+        }
+        if (mSize[root1] < mSize[root2]) {
+            int tmp = root1;
+            root1 = root2;
+            root2 = tmp;
+        }
+        mParent[root2] = root1;
+        mSize[root1] += mSize[root2];
+        // splice the two circular lists into one
+        int next = mNext[root1];
+        mNext[root1] = mNext[root2];
+        mNext[root2] = next;
+    }
+
+    private ArrayList<String> members(int node) {
+        ArrayList<String> members = new ArrayList<String>(mSize[find(node)]);
+        int member = node;
+        do {
+            members.add(mIds.get(member));
+            member = mNext[member];
+        } while (member != node);
+        return members;
+    }
+}
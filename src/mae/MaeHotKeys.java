@@ -185,6 +185,8 @@ public class MaeHotKeys {
     final static int NCMENU = KeyEvent.VK_N;
     final static int MODEMENU = KeyEvent.VK_M;
     final static int DPMENU = KeyEvent.VK_D;
+    final static int TOOLSMENU = KeyEvent.VK_T;
+    final static int EDITMENU = KeyEvent.VK_E;
     final static int HELPMENU = KeyEvent.VK_H;
     final static int OK_BUTTON = KeyEvent.VK_O;
     final static int CANCEL_BUTTON = KeyEvent.VK_C;
@@ -210,6 +212,17 @@ public class MaeHotKeys {
             Toolkit.getDefaultToolkit().getMenuShortcutKeyMask());
     final static KeyStroke SAVEXML = ksCS;
     
+    // edit menu keys
+    final static KeyStroke ksCZ
+            = KeyStroke.getKeyStroke(KeyEvent.VK_Z,
+            Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx());
+    final static KeyStroke UNDOEDIT = ksCZ;
+
+    final static KeyStroke ksCY
+            = KeyStroke.getKeyStroke(KeyEvent.VK_Y,
+            Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx());
+    final static KeyStroke REDOEDIT = ksCY;
+
     // display menu keys
     final static KeyStroke ksCMinus
             = KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, 
@@ -234,6 +247,12 @@ public class MaeHotKeys {
     final static KeyStroke NORMALMODE = ksCE;
     final static KeyStroke MSPANMODE = ksC1;
     final static KeyStroke ARGSMODE = ksC2;
+
+    // tools menu keys
+    final static KeyStroke ksCF
+            = KeyStroke.getKeyStroke(KeyEvent.VK_F,
+            Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx());
+    final static KeyStroke FIND = ksCF;
     
     // help menu keys
     final static  KeyStroke ABOUT = ksF10;
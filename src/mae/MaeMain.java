@@ -28,18 +28,30 @@ package mae;
 import javax.swing.*;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableColumn;
 import javax.swing.text.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.text.ParseException;
 import java.util.*;
 import java.util.List;
-import java.util.Timer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
@@ -114,7 +126,11 @@ public class MaeMain extends JPanel {
     private ArrayList<int[]> mLastSelection;
 
     // variables for link creation
-    private LinkedList<String> mUnderspecified;
+    private UnderspecifiedLinks mUnderspecified;
+    // undo and redo of tag edits
+    private EditHistory mHistory;
+    // extents connected by links of chained types
+    private LinkChainIndex mChains;
     private ArrayList<String> mPossibleArgIds;
     private String mFileFullName;
     private String mFileName;
@@ -137,12 +153,28 @@ public class MaeMain extends JPanel {
 
     private JMenuBar mMenuBar;
     private JLabel mStatusBar;
+    private StatusBarScheduler mStatusScheduler;
+    private SearchPanel mSearchPanel;
+    private ChainPanel mChainPanel;
 
     private JPopupMenu mTextPopup;
     private JPopupMenu mTablePopup;
 
     private JFileChooser mLoadFC;
     private JFileChooser mSaveFC;
+    private JFileChooser mDictFC;
+    private JCheckBox mDictIgnoreCase;
+    private JCheckBox mDictWholeWords;
+    private JFileChooser mRulesFC;
+
+    // last dictionary used for pre-annotation, kept while its file is unchanged
+    private DictionaryAnnotator mDictionary;
+    private String mDictionaryKey;
+    // regex rules running in the background, if any
+    private RuleWorker mRuleWorker;
+    // results of the last tag query, shown in a tab after element tabs
+    private JTable mQueryTable;
+    private String mLastQuery = "";
 
     //the helper function for talking to the database
     private static AnnotationTask mTask;
@@ -156,7 +188,14 @@ public class MaeMain extends JPanel {
         isTaskChanged = false;
         isTextSelected = false;
 
-        mUnderspecified = new LinkedList<String>();
+        mUnderspecified = new UnderspecifiedLinks();
+        mHistory = new EditHistory();
+        mChains = new LinkChainIndex(new Runnable() {
+            @Override
+            public void run() {
+                addLinksToChains();
+            }
+        });
         mPossibleArgIds = new ArrayList<String>();
 
         mFileFullName = "";
@@ -178,6 +217,14 @@ public class MaeMain extends JPanel {
         mLoadFC.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
         mSaveFC = new JFileChooser(".");
         mSaveFC.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        mDictFC = new JFileChooser(".");
+        mDictIgnoreCase = new JCheckBox("Ignore case");
+        mDictWholeWords = new JCheckBox("Whole words only", true);
+        JPanel dictOptions = new JPanel(new GridLayout(0, 1));
+        dictOptions.add(mDictIgnoreCase);
+        dictOptions.add(mDictWholeWords);
+        mDictFC.setAccessory(dictOptions);
+        mRulesFC = new JFileChooser(".");
 
         // popup menus
         mTextPopup = new JPopupMenu();
@@ -195,9 +242,24 @@ public class MaeMain extends JPanel {
 
         // add a status bar in the bottom of the text pane
         mStatusBar = new JLabel();
+        mStatusScheduler = new StatusBarScheduler(mStatusBar, new Runnable() {
+            @Override
+            public void run() {
+                updateStatusBar();
+            }
+        });
         updateStatusBar();
 
+        // find bar, hidden until called from the Tools menu
+        mSearchPanel = new SearchPanel(mTextPane, mTask);
+        // and chain bar, below it
+        mChainPanel = new ChainPanel(mTextPane, mTask, mChains);
+        JPanel bars = new JPanel(new BorderLayout());
+        bars.add(mSearchPanel, BorderLayout.NORTH);
+        bars.add(mChainPanel, BorderLayout.SOUTH);
+
         mTopPanel = new JPanel(new BorderLayout());
+        mTopPanel.add(bars, BorderLayout.NORTH);
         mTopPanel.add(mScrollPane, BorderLayout.CENTER);
         mTopPanel.add(mStatusBar, BorderLayout.SOUTH);
 
@@ -243,16 +305,6 @@ public class MaeMain extends JPanel {
         }
     }
 
-    /**
-     * Timer Task for timed messages in the status bar
-     */
-    private class TimedUpdateStatusBar extends TimerTask {
-        @Override
-        public void run() {
-            updateStatusBar();
-        }
-    }
-
     /**
      * Listener for the File menu; determines what action to take for loading/saving
      * documents.
@@ -263,6 +315,14 @@ public class MaeMain extends JPanel {
             int returnVal;
             String command = actionEvent.getActionCommand();
 
+            if ((command.equals("Load DTD") || command.equals("Load File")
+                    || command.equals("Merge Files"))
+                    && mRuleWorker != null) {
+                mRuleWorker.cancel(true);
+                // its tags go with the document, leave them out of history
+                mRuleWorker = null;
+            }
+
             if (command.equals("Load DTD")) {
                 if (isFileOpen && isTaskChanged) {
                     showSaveWarning();
@@ -272,20 +332,24 @@ public class MaeMain extends JPanel {
                     File file = mLoadFC.getSelectedFile();
                     try {
                         mTextPane.setStyledDocument(new DefaultStyledDocument());
-                        DTDLoader dtdl = new DTDLoader(file);
+                        DTD d = DTDSnapshot.load(file);
                         mTask.resetDb();
-                        DTD d = dtdl.getDTD();
                         mTask.setDtd(d);
                         mActiveLinks.clear();
+                        mUnderspecified.clear();
+                        mHistory.clear();
+                        mChains.clearLinkTypes();
                         mActiveExts.clear();
                         assignColors();
                         resetTabPane();
+                        mSearchPanel.setText(null);
+                        mSearchPanel.setElements(mTask.getExtNames());
 
                         // refresh interfaces
                         updateMenus();
                         resetSpans();
                         returnToNormalMode();
-                        mStatusBar.setText("DTD load succeed! Click anywhere to continue.");
+                        mStatusScheduler.post("DTD load succeed! Click anywhere to continue.");
 
                         if (mTask.getElements().size() > 20) {
                             mBottomTable.setTabLayoutPolicy(JTabbedPane.SCROLL_TAB_LAYOUT);
@@ -299,7 +363,7 @@ public class MaeMain extends JPanel {
                         ex.printStackTrace();
 
                         // print out the error message on the status bar
-                        mStatusBar.setText("Error loading DTD: " + ex.toString());
+                        mStatusScheduler.post("Error loading DTD: " + ex.toString());
                     }
                 }
 
@@ -308,65 +372,20 @@ public class MaeMain extends JPanel {
                     showSaveWarning();
                 }
                 returnVal = mLoadFC.showOpenDialog(MaeMain.this);
-                boolean succeed = true;
-                String status = "";
                 if (returnVal == JFileChooser.APPROVE_OPTION) {
-                    File file = mLoadFC.getSelectedFile();
-                    mFileFullName = file.getName();
-                    int endName = mFileFullName.lastIndexOf(".");
-                    mFileName = mFileFullName.substring(0, endName);
-                    mXmlName = mFileName + ".xml";
-                    try {
-                        updateTitle();
-                        isFileOpen = true;
-                        mTask.resetDb();
-                        mTask.resetIdTracker();
-
-                        // refresh interfaces
-                        resetTabPane();
-                        updateMenus();
-                        resetSpans();
-                        returnToNormalMode();
+                    loadFile(mLoadFC.getSelectedFile());
+                }
 
-                        mTextPane.setStyledDocument(new DefaultStyledDocument());
-                        mTextPane.setContentType("text/plain; charset=UTF-8");
-                        mMainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-
-                        if (FileOperations.hasTags(file)) {
-                            XMLFileLoader xfl = new XMLFileLoader(file);
-                            StyledDocument d = mTextPane.getStyledDocument();
-                            Style def = StyleContext.getDefaultStyleContext()
-                                    .getStyle(StyleContext.DEFAULT_STYLE);
-                            Style regular = d.addStyle("regular", def);
-                            d.insertString(0, xfl.getTextChars(), regular);
-                            // newTags is a hash from tagType to attib list
-                            // each attrib is stored in a has from att name to value
-                            HashCollection<String, Hashtable<String, String>> newTags
-                                    = xfl.getTagHash();
-                            if (newTags.size() > 0) {
-                                processTagHash(newTags);
-                            }
-                        } else {  // that is, if it's only a text file
-                            StyledDocument d = mTextPane.getStyledDocument();
-                            mTextPane.setStyledDocument(FileOperations.setText(file, d));
-                        }
-                        mTextPane.requestFocus(true);
-                        mTextPane.getCaret().setDot(0);
-                        mTextPane.getCaret().moveDot(1);
-                    } catch (Exception ex) {
-                        isFileOpen = false;
-                        ex.printStackTrace();
-                        succeed = false;
-                        status = "Error loading file";
-                    }
+            } else if (command.equals("Merge Files")) {
+                if (isFileOpen && isTaskChanged) {
+                    showSaveWarning();
                 }
-                mMainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
-                mTextPane.setCaretPosition(0);
-                // refresh status bar after all caret events
-                if (succeed) {
-                    status = "File load succeed! Click anywhere to continue.";
+                mLoadFC.setMultiSelectionEnabled(true);
+                returnVal = mLoadFC.showOpenDialog(MaeMain.this);
+                mLoadFC.setMultiSelectionEnabled(false);
+                if (returnVal == JFileChooser.APPROVE_OPTION) {
+                    mergeFiles(mLoadFC.getSelectedFiles());
                 }
-                mStatusBar.setText(status);
 
             } else if (command.equals("Save RTF")) {
                 String rtfName = mFileName + ".rtf";
@@ -377,16 +396,21 @@ public class MaeMain extends JPanel {
                     isTaskChanged = false;
                     try {
                         FileOperations.saveRTF(file, mTextPane);
-                        mStatusBar.setText("Save Complete :" + rtfName);
+                        mStatusScheduler.post("Save Complete :" + rtfName);
                     } catch (Exception ex) {
                         ex.printStackTrace();
-                        mStatusBar.setText("Error saving RTF file");
+                        mStatusScheduler.post("Error saving RTF file");
                     }
                 }
 
             } else if (command.equals("Save XML")) {
-                mSaveFC.setSelectedFile(new File(mXmlName));
-                returnVal = mSaveFC.showSaveDialog(MaeMain.this);
+                // links with empty arguments can be saved, but warn first
+                if (showUnfinishedLinksWarning()) {
+                    mSaveFC.setSelectedFile(new File(mXmlName));
+                    returnVal = mSaveFC.showSaveDialog(MaeMain.this);
+                } else {
+                    returnVal = JFileChooser.CANCEL_OPTION;
+                }
                 if (returnVal == JFileChooser.APPROVE_OPTION) {
                     File file = mSaveFC.getSelectedFile();
                     isTaskChanged = false;
@@ -397,17 +421,18 @@ public class MaeMain extends JPanel {
                                 mElementTables,
                                 mTask.getElements(),
                                 mTask.getDTDName());
+                        writeSnapshot(file);
                         updateTitle();
                         mXmlName = mFileFullName;
-                        mStatusBar.setText("Save Complete :" + mXmlName);
+                        mStatusScheduler.post("Save Complete :" + mXmlName);
                     } catch (Exception ex) {
                         ex.printStackTrace();
-                        mStatusBar.setText("Error saving XML file");
+                        mStatusScheduler.post("Error saving XML file");
                     }
                 }
             }
             // reset status bar after 3 secs
-            new Timer().schedule(new TimedUpdateStatusBar(), 3000);
+            mStatusScheduler.scheduleReset(3000);
         }
     }
 
@@ -479,6 +504,146 @@ public class MaeMain extends JPanel {
         }
     }
 
+    /**
+     * Keeps attribute values in DB in step with a tag table.
+     * Values of new rows go to the batch of the task, to be added to DB
+     * along with their tags, and edited cells are updated right away.
+     * Events for the whole table (fireTableDataChanged) are ignored.
+     */
+    private class AttributeSyncListener implements TableModelListener {
+        private String mElemName;
+
+        AttributeSyncListener(String elemName) {
+            mElemName = elemName;
+        }
+
+        @Override
+        public void tableChanged(TableModelEvent e) {
+            DefaultTableModel model = (DefaultTableModel) e.getSource();
+            if (e.getLastRow() >= model.getRowCount()) {
+                return;
+            }
+            if (e.getType() == TableModelEvent.INSERT) {
+                for (int row = e.getFirstRow(); row <= e.getLastRow(); row++) {
+                    String id = (String) model.getValueAt(row, ID_COL);
+                    for (int col = 0; col < model.getColumnCount(); col++) {
+                        if (col != ID_COL) {
+                            mTask.addAttributeToBatch(id, mElemName,
+                                    model.getColumnName(col), cellValue(model, row, col));
+                        }
+                    }
+                }
+            } else if (e.getType() == TableModelEvent.UPDATE
+                    && e.getColumn() != TableModelEvent.ALL_COLUMNS
+                    && e.getColumn() != ID_COL) {
+                for (int row = e.getFirstRow(); row <= e.getLastRow(); row++) {
+                    mTask.setAttribute((String) model.getValueAt(row, ID_COL), mElemName,
+                            model.getColumnName(e.getColumn()),
+                            cellValue(model, row, e.getColumn()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps chains of extents in step with a link table.
+     * Arguments of new rows are joined into chains right away; any other
+     * change to rows or argument columns may split a chain, so chains
+     * are marked stale and rebuilt when they are looked up next time.
+     */
+    private class LinkChainListener implements TableModelListener {
+        private String mLinkName;
+
+        LinkChainListener(String linkName) {
+            mLinkName = linkName;
+        }
+
+        @Override
+        public void tableChanged(TableModelEvent e) {
+            if (!mChains.isChained(mLinkName)) {
+                return;
+            }
+            DefaultTableModel model = (DefaultTableModel) e.getSource();
+            if (e.getType() == TableModelEvent.INSERT
+                    && e.getLastRow() < model.getRowCount()) {
+                TreeSet<Integer> argColumns = getArgColIndices(mLinkName);
+                for (int row = e.getFirstRow(); row <= e.getLastRow(); row++) {
+                    mChains.addLink(mLinkName, getArgIds(model, row, argColumns));
+                }
+            } else if (e.getType() == TableModelEvent.DELETE
+                    || e.getColumn() == TableModelEvent.ALL_COLUMNS
+                    || getArgColIndices(mLinkName).contains(e.getColumn())) {
+                mChains.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Adds all links in tables of chained link types to the chain index
+     */
+    private void addLinksToChains() {
+        for (String linkName : mChains.getLinkTypes()) {
+            JTable tab = mElementTables.get(linkName);
+            if (tab == null) {
+                continue;
+            }
+            DefaultTableModel model = (DefaultTableModel) tab.getModel();
+            TreeSet<Integer> argColumns = getArgColIndices(linkName);
+            for (int row = 0; row < model.getRowCount(); row++) {
+                mChains.addLink(linkName, getArgIds(model, row, argColumns));
+            }
+        }
+    }
+
+    private static String[] getArgIds(DefaultTableModel model, int row,
+                                      TreeSet<Integer> argColumns) {
+        String[] argIds = new String[argColumns.size()];
+        int i = 0;
+        for (Integer col : argColumns) {
+            argIds[i++] = cellValue(model, row, col);
+        }
+        return argIds;
+    }
+
+    private static String cellValue(DefaultTableModel model, int row, int col) {
+        Object value = model.getValueAt(row, col);
+        return value == null ? "" : value.toString();
+    }
+
+    /**
+     * Jumps to a tag in its own table when a row of query results
+     * is double-clicked, and highlights the tag in the text
+     */
+    private class QueryTableMouseAdapter extends MouseAdapter {
+        @Override
+        public void mouseClicked(MouseEvent e) {
+            if (e.getClickCount() != 2 || mQueryTable.getSelectedRow() < 0) {
+                return;
+            }
+            int selectedRow = mQueryTable.getSelectedRow();
+            String id = (String) mQueryTable.getValueAt(selectedRow, TagQuery.RESULT_ID);
+            String elemName = (String) mQueryTable.getValueAt(
+                    selectedRow, TagQuery.RESULT_ELEMENT);
+            JTable tab = mElementTables.get(elemName);
+            if (tab == null) {
+                return;
+            }
+            for (int row = 0; row < tab.getRowCount(); row++) {
+                if (id.equals(tab.getValueAt(row, ID_COL))) {
+                    mBottomTable.setSelectedIndex(mBottomTable.indexOfTab(elemName));
+                    tab.setRowSelectionInterval(row, row);
+                    tab.scrollRectToVisible(tab.getCellRect(row, 0, true));
+                    break;
+                }
+            }
+            Highlighter hl = mTextPane.getHighlighter();
+            hl.removeAllHighlights();
+            if (mTask.getElemByName(elemName) instanceof ElemExtent) {
+                highlightTextSpans(hl, mTask.getLocByID(id), mOrangeHL);
+            }
+        }
+    }
+
     /**
      * Called when the user selects the option to delete the highlighted rows from
      * the table in view.  Rows are removed both from the database and the table.
@@ -488,37 +653,7 @@ public class MaeMain extends JPanel {
             if (showDeleteWarning()) {
                 // command is concatenated ids from selected rows, so first split it
                 String[] ids = actionEvent.getActionCommand().split(MaeStrings.SEP);
-                for (String id : ids) {
-                    // load corresponding table and its back-end model
-                    String elemName = mTask.getElemNameById(id);
-                    Elem elem = mTask.getElemByName(elemName);
-                    JTable table = mElementTables.get(elemName);
-                    DefaultTableModel tableModel
-                            = (DefaultTableModel) table.getModel();
-
-                    // search in the table model for matching id, remove that row
-                    for (int i = 0; i < tableModel.getRowCount(); i++) {
-                        if (tableModel.getValueAt(i, 0).equals(id)) {
-                            // if removing an extent tag, re-assign highlighting
-                            if (elem instanceof ElemExtent) {
-                                mTask.removeExtentByID(id);
-                                assignTextColor(parseSpansString(
-                                        (String) tableModel.getValueAt(i, 1)));
-                                //remove links that use the tag being removed
-                                HashCollection<String, String> links
-                                        = mTask.getLinksByExtentID(elemName, id);
-                                removeLinkTableRows(links);
-                                // also remove item from all extents tab
-                                removeAllTableRow(id);
-                            } else {
-                                mTask.removeLinkByID(id);
-                            }
-                            tableModel.removeRow(i);
-                            break;
-                        }
-
-                    }
-                }
+                removeTags(Arrays.asList(ids));
             }
             isTaskChanged = true;
             updateTitle();
@@ -630,7 +765,7 @@ public class MaeMain extends JPanel {
 
         @Override
         public void itemStateChanged(ItemEvent itemEvent) {
-            mStatusBar.setText("Processing...");
+            mStatusScheduler.post("Processing...");
             int index = mBottomTable.indexOfTab(this.getElemName());
 
             TabTitle tab = (TabTitle) mBottomTable.getTabComponentAt(index);
@@ -679,7 +814,7 @@ public class MaeMain extends JPanel {
                 }
                 this.updateElemColor();
             }
-            new Timer().schedule(new TimedUpdateStatusBar(), 1000);
+            mStatusScheduler.scheduleReset(1000);
         }
 
         private void turnOnLink() {
@@ -776,13 +911,15 @@ public class MaeMain extends JPanel {
             // first add a new tag to table
             insertToTable();
 
-            // then add to DB
+            // then add to DB, a link with arguments is added when they are chosen
             if (isLink) {
                 processLink();
+                recordCreation(newName, newId);
             } else if (isArgLink) {
                 processLinkWithArgs();
             } else {
                 addExtTagToDb(newName, newId);
+                recordCreation(newName, newId);
             }
 
             // assign colors if necessary
@@ -792,8 +929,7 @@ public class MaeMain extends JPanel {
 
             // post to the user
             resetSpans();
-            mStatusBar.setText(String.format("%s is created!", newId));
-            new Timer().schedule(new TimedUpdateStatusBar(), 3000);
+            mStatusScheduler.post(String.format("%s is created!", newId), 3000);
             isTaskChanged = true;
             updateTitle();
         }
@@ -839,7 +975,9 @@ public class MaeMain extends JPanel {
                     Arrays.asList(argIds), Arrays.asList(argTypes));
 
             // add id of the new tag to underspecified set for further lookup
-            mUnderspecified.add(newId);
+            for (String argName : target.getArguments()) {
+                mUnderspecified.setEmpty(newName, newId, argName);
+            }
         }
 
         private void processLinkWithArgs() {
@@ -869,6 +1007,7 @@ public class MaeMain extends JPanel {
                                 target.getArguments().get(i), argIds[i],
                                 getTextByID(argTypes[i], argIds[i], true));
                     }
+                    recordCreation(newName, newId);
                     mLinkPopupFrame.setVisible(false);
                     mLinkPopupFrame.dispose();
                 }
@@ -883,8 +1022,10 @@ public class MaeMain extends JPanel {
                     mLinkPopupFrame.setVisible(false);
                     mLinkPopupFrame.dispose();
                     removeTableRows(newElem, newId);
-                    mStatusBar.setText("Canceled");
-                    new Timer().schedule(new TimedUpdateStatusBar(), 3000);
+                    // attributes of the new row were queued when it was added
+                    mTask.runBatchAttributes();
+                    mTask.removeTags(new ArrayList<String>(), Collections.singletonList(newId));
+                    mStatusScheduler.post("Canceled", 3000);
                 }
             });
 
@@ -976,13 +1117,31 @@ public class MaeMain extends JPanel {
             // command looks like this:
             // linkType(0), linkId(1), argName(2), argId(3), argText(4)
             String[] command = actionEvent.getActionCommand().split(MaeStrings.SEP);
-            setArgumentInTable(command[0], command[1], command[2], command[3], command[4]);
-            int argNum = mTask.getArguments(command[0]).indexOf(command[2]);
-            String argType = mTask.getElemNameById(command[3]);
-            mTask.addArgument(command[1], argNum, command[3], argType);
+            String[] link = getRowById(command[0], command[1]);
+            if (link == null) {
+                return;
+            }
+            int argCol = mTask.getElemByName(command[0])
+                    .getAttributeIndex(command[2] + MaeStrings.ID_SUF);
+            setArgument(command[0], command[1], command[2], command[3], command[4]);
+            mHistory.add(new ArgumentEdit(command[0], command[1], command[2],
+                    link[argCol], link[argCol + 1], command[3], command[4]));
         }
     }
 
+    /**
+     * Sets an argument of a link in its table and in DB
+     *
+     * @param argId id of the argument, empty to empty the argument
+     */
+    private void setArgument(String linkName, String linkId,
+                             String argName, String argId, String argText) {
+        setArgumentInTable(linkName, linkId, argName, argId, argText);
+        int argNum = mTask.getArguments(linkName).indexOf(argName);
+        String argType = argId.equals("") ? "" : mTask.getElemNameById(argId);
+        mTask.addArgument(linkId, argNum, argId, argType == null ? "" : argType);
+    }
+
     /**
      * Update a link tag in the bottom table with a single specific argument
      *
@@ -1016,24 +1175,18 @@ public class MaeMain extends JPanel {
 
         // set values for argID and argTEXT
         if (idRow == -1 || argCol == -1) {
-            mStatusBar.setText("ERROR! Link ID and Arg name cannot be found in the table");
-            new Timer().schedule(new TimedUpdateStatusBar(), 3000);
+            mStatusScheduler.post(
+                    "ERROR! Link ID and Arg name cannot be found in the table", 3000);
         } else {
             tableModel.setValueAt(argId, idRow, argCol);
             tableModel.setValueAt(argText, idRow, argCol + 1);
-        }
-
-        // finally, check this link has a complete set of arguments
-        boolean fulfilled = true;
-        for (int argColumn : argColumns) {
-            if (tableModel.getValueAt(idRow, argColumn).equals("")) {
-                fulfilled = false;
+            // finally, update the list of the underspecified
+            if (argId.equals("")) {
+                mUnderspecified.setEmpty(linkName, linkId, argName);
+            } else {
+                mUnderspecified.fill(linkName, linkId, argName);
             }
         }
-        // then remove this on from the list of the underspecified
-        if (fulfilled) {
-            mUnderspecified.remove(linkId);
-        }
     }
 
     /**
@@ -1045,19 +1198,10 @@ public class MaeMain extends JPanel {
             boolean check = showDeleteWarning();
             if (check) {
                 String command = actionEvent.getActionCommand();
-                Elem elem = mTask.getElemByName(command.split(MaeStrings.SEP)[0]);
-                //remove rows from DB
-                HashCollection<String, String> links;
-                // removes extent tags and related link tags from DB
-                String elemName = command.split(MaeStrings.SEP)[0];
                 String id = command.split(MaeStrings.SEP)[1];
-                links = mTask.getLinksByExtentID(elemName, id);
-                mTask.removeExtentByID(id);
-                //remove extent tags and recolors text area
-                removeTableRows(elem, id);
-                removeAllTableRow(id);
-                //remove links that use the tag being removed
-                removeLinkTableRows(links);
+                // removes extent tags and related link tags from DB and tables,
+                // then recolors text area
+                removeTags(Collections.singletonList(id));
                 isTaskChanged = true;
                 updateTitle();
             }
@@ -1192,6 +1336,7 @@ public class MaeMain extends JPanel {
                 hl.removeAllHighlights();
 
                 if (el instanceof ElemExtent) {
+                    highlightChain(hl, elemId);
                     // use table column[1] to get spanString then parse it
                     ArrayList<int[]> spansSelect = parseSpansString(
                             (String) tab.getValueAt(selectedRow, 1));
@@ -1204,6 +1349,16 @@ public class MaeMain extends JPanel {
                     // get relevant argument columns
                     TreeSet<Integer> argColumns = getArgColIndices(elemName);
 
+                    // whole chain of a chained link goes under its arguments
+                    if (mChains.isChained(elemName)) {
+                        for (Integer i : argColumns) {
+                            String argId = (String) tab.getValueAt(selectedRow, i);
+                            if (!argId.equals("")) {
+                                highlightChain(hl, argId);
+                                break;
+                            }
+                        }
+                    }
                     int j = 0;
                     for (Integer i : argColumns) {
                         String argId = (String) tab.getValueAt(selectedRow, i);
@@ -1268,18 +1423,206 @@ public class MaeMain extends JPanel {
                     break;
                 case M_MULTI_SPAN:
                     mMode = M_MULTI_SPAN;
-                    mStatusBar.setText(
+                    mStatusScheduler.post(
                             "Multi-span mode! Click anywhere to continue.");
                     break;
                 case M_ARG_SEL:
                     mMode = M_ARG_SEL;
-                    mStatusBar.setText(
+                    mStatusScheduler.post(
                             "Argument select mode! Click anywhere to continue.");
                     break;
             }
             updateMenus();
             resetSpans();
-            new Timer().schedule(new TimedUpdateStatusBar(), 3000);
+            mStatusScheduler.scheduleReset(3000);
+        }
+    }
+
+    /**
+     * Listener for the Tools menu
+     */
+    private class ToolsMenuListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent actionEvent) {
+            String command = actionEvent.getActionCommand();
+            if (command.equals("Find")) {
+                mSearchPanel.open();
+            } else if (command.equals("Chains")) {
+                mChainPanel.open();
+            } else if (command.equals("Query")) {
+                String query = (String) JOptionPane.showInputDialog(MaeMain.this,
+                        "Find tags, e.g. NOUN where type = person and arg0 of ACTION",
+                        "Query Tags", JOptionPane.PLAIN_MESSAGE, null, null, mLastQuery);
+                if (query == null || query.trim().length() == 0) {
+                    return;
+                }
+                mLastQuery = query;
+                try {
+                    TagQuery tagQuery = TagQuery.compile(query, mTask);
+                    showQueryResults(mTask.findTags(tagQuery));
+                } catch (ParseException e) {
+                    mStatusScheduler.post("Query error: " + e.getMessage(), 5000);
+                }
+            } else if (command.equals("Compare")) {
+                File[] files = new File[2];
+                String[] titles = {"Old Version", "New Version"};
+                for (int i = 0; i < files.length; i++) {
+                    mLoadFC.setDialogTitle(titles[i]);
+                    int returnVal = mLoadFC.showOpenDialog(MaeMain.this);
+                    mLoadFC.setDialogTitle(null);
+                    if (returnVal != JFileChooser.APPROVE_OPTION) {
+                        return;
+                    }
+                    files[i] = mLoadFC.getSelectedFile();
+                }
+                mMainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+                List<AnnotationDiff.Change> changes
+                        = new AnnotationDiff(mTask.getDtd()).compare(files[0], files[1]);
+                mMainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+                if (changes.isEmpty()) {
+                    mStatusScheduler.post("No differences in tags", 3000);
+                } else {
+                    showDiff(files[0], files[1], changes);
+                }
+            } else if (command.equals("Pre-annotate")) {
+                int returnVal = mDictFC.showOpenDialog(MaeMain.this);
+                if (returnVal != JFileChooser.APPROVE_OPTION) {
+                    return;
+                }
+                mMainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+                try {
+                    DictionaryAnnotator dict = loadDictionary(mDictFC.getSelectedFile(),
+                            mDictIgnoreCase.isSelected(), mDictWholeWords.isSelected());
+                    int added = preAnnotate(dict);
+                    mStatusScheduler.post(String.format(
+                            "%d tags are created from %d dictionary terms (%d lines skipped)",
+                            added, dict.size(), dict.getSkipped()), 5000);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    mStatusScheduler.post("Error loading dictionary: " + e.toString());
+                }
+                mMainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+            } else if (command.equals("Regex rules")) {
+                if (mRuleWorker != null) {
+                    mStatusScheduler.post("Regex rules are already running", 3000);
+                    return;
+                }
+                int returnVal = mRulesFC.showOpenDialog(MaeMain.this);
+                if (returnVal != JFileChooser.APPROVE_OPTION) {
+                    return;
+                }
+                try {
+                    RegexRuleAnnotator rules = RegexRuleAnnotator.load(
+                            mRulesFC.getSelectedFile(), mTask);
+                    String text = getTextBetween(
+                            0, mTextPane.getStyledDocument().getLength());
+                    mRuleWorker = new RuleWorker(rules, text);
+                    mRuleWorker.execute();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    mStatusScheduler.post("Error loading regex rules: " + e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs regex rules over the document in the background.
+     * Chunks of the text are scanned in parallel on a thread pool,
+     * and tags found in a chunk are added to the DB and tables on the EDT
+     * as soon as the chunk is done. Tags added before the job is cancelled
+     * are kept. All tags of a run go to edit history as a single edit when
+     * the job is done.
+     */
+    private class RuleWorker extends SwingWorker<Integer, ArrayList<TagCandidate>> {
+        private RegexRuleAnnotator mRules;
+        private String mText;
+        private ProgressMonitor mMonitor;
+        private int mAdded = 0;
+        // tags added by all batches, undone as a single edit
+        private HashCollection<String, String[]> mAddedRows
+                = new HashCollection<String, String[]>();
+
+        RuleWorker(RegexRuleAnnotator rules, String text) {
+            mRules = rules;
+            mText = text;
+            mMonitor = new ProgressMonitor(mMainFrame, String.format(
+                    "Running %d regex rules", rules.size()), null, 0, 100);
+            mMonitor.setMillisToDecideToPopup(200);
+            addPropertyChangeListener(new PropertyChangeListener() {
+                @Override
+                public void propertyChange(PropertyChangeEvent evt) {
+                    if (evt.getPropertyName().equals("progress")) {
+                        mMonitor.setProgress((Integer) evt.getNewValue());
+                        if (mMonitor.isCanceled()) {
+                            cancel(true);
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        protected Integer doInBackground() throws Exception {
+            int chunks = RegexRuleAnnotator.countChunks(mText.length());
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors());
+            CompletionService<ArrayList<TagCandidate>> completion
+                    = new ExecutorCompletionService<ArrayList<TagCandidate>>(executor);
+            try {
+                for (int i = 0; i < chunks; i++) {
+                    final int chunk = i;
+                    completion.submit(new Callable<ArrayList<TagCandidate>>() {
+                        @Override
+                        public ArrayList<TagCandidate> call() {
+                            return mRules.annotateChunk(mText, chunk);
+                        }
+                    });
+                }
+                for (int done = 0; done < chunks && !isCancelled(); done++) {
+                    publish(completion.take().get());
+                    setProgress((done + 1) * 100 / chunks);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            return chunks;
+        }
+
+        @Override
+        protected void process(List<ArrayList<TagCandidate>> chunks) {
+            if (isCancelled()) {
+                return;
+            }
+            ArrayList<TagCandidate> candidates = new ArrayList<TagCandidate>();
+            for (ArrayList<TagCandidate> chunk : chunks) {
+                candidates.addAll(chunk);
+            }
+            mAdded += addCandidateTags(candidates, mText, mAddedRows);
+        }
+
+        @Override
+        protected void done() {
+            mMonitor.close();
+            if (mRuleWorker != this) {
+                return;
+            }
+            mRuleWorker = null;
+            recordPreAnnotation(mAddedRows, mAdded);
+            if (isCancelled()) {
+                mStatusScheduler.post(String.format(
+                        "Regex rules cancelled, %d tags are created", mAdded), 5000);
+                return;
+            }
+            try {
+                get();
+                mStatusScheduler.post(String.format(
+                        "%d tags are created by %d regex rules (%d lines skipped)",
+                        mAdded, mRules.size(), mRules.getSkipped()), 5000);
+            } catch (Exception e) {
+                e.printStackTrace();
+                mStatusScheduler.post("Error running regex rules: " + e.toString());
+            }
         }
     }
 
@@ -1307,17 +1650,17 @@ public class MaeMain extends JPanel {
                 highlightTextSpans(hl, mSpans, mDefHL);
                 highlightTextSpans(hl, tmp, mGrayHL);
 
-                mStatusBar.setText(String.format(
+                mStatusScheduler.post(String.format(
                         "Removed '%s' from selection!" +
                                 " Click anywhere to continue."
                         , getTextBetween(lastSpan[0], lastSpan[1])));
             } else if (command.equals("Over")) {
                 resetSpans();
-                mStatusBar.setText(
+                mStatusScheduler.post(
                         "No text selected! Click anywhere to continue.");
 
             }
-            new Timer().schedule(new TimedUpdateStatusBar(), 1000);
+            mStatusScheduler.scheduleReset(1000);
             if (mMode == M_ARG_SEL) {
                 updateArgList();
             }
@@ -1379,174 +1722,182 @@ public class MaeMain extends JPanel {
         }
     }
 
-    // end Section: classes
-    // *******************************
+    /**
+     * Receives tags from the XMLFileLoader or an AnnotationSnapshot
+     * while a file is being read, and adds them to the DB and to the tables right away.
+     * DB inserts are run whenever LOAD_BATCH_ROWS rows are pending,
+     * so memory used for a file does not grow with the number of tags.
+     * Call finish() when the file is read.
+     */
+    private class TagLoader
+            implements XMLFileLoader.TagListener, AnnotationSnapshot.TagListener {
 
+        private static final int LOAD_BATCH_ROWS = 10000;
 
-    // *******************************
-    // Section: tag/database processing methods
+        private int mPendingExts = 0;
+        private int mPendingLinks = 0;
+        private boolean mHasLinks = false;
 
-    /**
-     * This takes the hashCollection created by the XMLHandler and loads it into the
-     * tables and database
-     *
-     * @param elementsToProcess the HashCollection passed from XMLHandler
-     */
-    private void processTagHash(
-            HashCollection<String, Hashtable<String, String>> elementsToProcess) {
-        ArrayList<String> elemNames = elementsToProcess.getKeyList();
-        //first, add the extent tags
+        @Override
+        public void tag(Elem elem, String[] values) {
+            tag(elem, values, null);
+        }
 
-        for (String elemName : elemNames) {
-            Elem elem = mTask.getElemByName(elemName);
-            if (elem instanceof ElemExtent &&
-                    mElementTables.containsKey(elemName)) {
-                // for each element type there is a list of tag information
-                ArrayList<Hashtable<String, String>> elemInstances
-                        = elementsToProcess.get(elemName);
-
-                for (Hashtable<String, String> instance : elemInstances) {
-                    if (updateIDandDB(instance, elemName)) {
-                        addRowFromHash(instance, elemName, true);
-                    }
+        @Override
+        public void tag(Elem elem, String[] values, int[] spans) {
+            String elemName = elem.getName();
+            if (!mElementTables.containsKey(elemName)) {
+                return;
+            }
+            int idIndex = elem.getAttributeIndex("id");
+            String newId = idIndex < 0 ? null : values[idIndex];
+            if (newId == null || newId.equals("")) {
+                System.err.println("ID was not found");
+                return;
+            }
+            if (mTask.idExists(elemName, newId)) {
+                System.err.println(String.format(
+                        "ID %s of %s already in DB. Skipping addition"
+                        , newId, elemName));
+                return;
+            }
+            if (elem instanceof ElemExtent) {
+                if (spans == null) {
+                    int spansIndex = elem.getAttributeIndex("spans");
+                    spans = packSpans(parseSpansString(values[spansIndex]));
+                }
+                mPendingExts += addExtToDb(spans, elemName, newId);
+                addRowFromValues(values, elemName, true);
+                if (mPendingExts >= LOAD_BATCH_ROWS) {
+                    mTask.runBatchExtents();
+                    mPendingExts = 0;
+                }
+            } else if (elem instanceof ElemLink) {
+                addLinkToDb((ElemLink) elem, values, newId);
+                addRowFromValues(values, elemName, false);
+                mHasLinks = true;
+                if (++mPendingLinks >= LOAD_BATCH_ROWS) {
+                    mTask.runBatchLinks();
+                    mPendingLinks = 0;
                 }
-                mTask.runBatchExtents();
             }
         }
-        // then, go back and add the link tags
-        // since they rely on the extent tag info, they need to be added later
-        for (String elemName : elemNames) {
-            Elem elem = mTask.getElemByName(elemName);
-            if (elem instanceof ElemLink &&
-                    mElementTables.containsKey(elemName)) {
-                /*for each element type there is a list of tag information*/
-                ArrayList<Hashtable<String, String>> elemInstances
-                        = elementsToProcess.get(elemName);
-
-                for (Hashtable<String, String> instance : elemInstances) {
-                    if (updateIDandDB(instance, elemName)) {
-                        addRowFromHash(instance, elemName, false);
-                    }
-                }
-                mTask.runBatchLinks();
+
+        /**
+         * Runs remaining batches, fills argument types of links,
+         * and sets colors for the whole document at once
+         */
+        void finish() {
+            mTask.runBatchExtents();
+            mTask.runBatchLinks();
+            // links can come before the extents they link,
+            // so argument types are looked up after everything is in
+            if (mHasLinks) {
+                mTask.resolveLinkArgTypes();
             }
+            assignAllColors();
         }
-        //set colors for the whole document at once
-        assignAllColors();
     }
 
     /**
-     * addExtToDbFromHash is called for each tag in the HashCollection used in
-     * processTagHash.
+     * Fills a menu with its items when it is selected for the first time
+     */
+    private abstract class LazyMenuFiller implements MenuListener {
+        private boolean mFilled = false;
+
+        @Override
+        public void menuSelected(MenuEvent e) {
+            if (!mFilled) {
+                mFilled = true;
+                fill((JMenu) e.getSource());
+            }
+        }
+
+        @Override
+        public void menuDeselected(MenuEvent e) {
+        }
+
+        @Override
+        public void menuCanceled(MenuEvent e) {
+        }
+
+        abstract void fill(JMenu menu);
+    }
+
+    // end Section: classes
+    // *******************************
+
+
+    // *******************************
+    // Section: tag/database processing methods
+
+    /**
+     * addExtToDb is called for each extent tag read from a file,
+     * and adds each character location of its spans to the DB batch
      *
-     * @param a        the Hashtable with the attribute information
+     * @param spans start and end pairs of the tag, packed in an array
      * @param elemName the name of the tag being processed
      * @param newId    the ID of the tag being added
+     * @return the number of rows added to the batch
      */
-    private void addExtToDbFromHash(
-            Hashtable<String, String> a, String elemName, String newId) {
-
-        // krim: take a string of spans and init a set of spans(start-end int pairs)
-        String spansString = a.get("spans");
-        mSpans = parseSpansString(spansString);
-        if (!isSpansEmpty()) {
-            for (int[] span : mSpans) {
-                int start = span[0], end = span[1];
-                for (int i = start; i < end; i++) {
+    private int addExtToDb(int[] spans, String elemName, String newId) {
+        int rows = 0;
+        if (spans.length > 0 && spans[0] != -1) {
+            for (int s = 0; s + 1 < spans.length; s += 2) {
+                for (int i = spans[s]; i < spans[s + 1]; i++) {
                     mTask.addExtToBatch(i, elemName, newId);
+                    rows++;
                 }
             }
         } else {
             mTask.addExtToBatch(-1, elemName, newId);
+            rows++;
         }
-        // krim: resetting start-end for NC tag addition
-        resetSpans();
+        return rows;
     }
 
     /**
-     * addLinkToDbFromHash is called for each tag in the HashCollection used in
-     * processTagHash.
+     * addLinkToDb is called for each link tag read by the XMLFileLoader.
+     * Arguments are stored in their positions, types of them are filled
+     * once the whole file is read.
      *
-     * @param a        the Hashtable with the attribute information
-     * @param elemName the name of the tag being processed
+     * @param elem     link element of the tag
+     * @param values   attribute values of the tag
      * @param newId    the ID of the tag being added
      */
-    private void addLinkToDbFromHash(
-            Hashtable<String, String> a, String elemName, String newId) {
-        ArrayList<String> args = mTask.getArguments(elemName);
-        ArrayList<String> argIDs = new ArrayList<String>();
-        ArrayList<String> argTypes = new ArrayList<String>();
-        for (String arg : args) {
-            String argId = a.get(arg + MaeStrings.ID_SUF);
+    private void addLinkToDb(ElemLink elem, String[] values, String newId) {
+        ArrayList<String> args = elem.getArguments();
+        String[] argIds = new String[args.size()];
+        for (int i = 0; i < args.size(); i++) {
+            int index = elem.getAttributeIndex(args.get(i) + MaeStrings.ID_SUF);
+            String argId = index < 0 ? null : values[index];
             // check if id value is a dummy,
             // if is, add the link tag to the underspecified for further lookup
-            if (argId.equals("")) {
-                mUnderspecified.add(argId);
-            } else {
-                String type = mTask.getElemNameById(argId);
-                argIDs.add(argId);
-                argTypes.add(type);
-            }
-        }
-        mTask.addLinkToBatch(elemName, newId, argIDs, argTypes);
-        // no need to run batch for each adding, to in at once in processTagHash()
-    }
-
-    /**
-     * updateIDandDB sends tag information to the database, and returns a boolean
-     * that indicates whether or not the tag was successfully added.
-     *
-     * @param elemAttVal the Hashtable of tag attributes
-     * @param elemName   the name of the tag
-     * @return a boolean indicating whether the transaction was successful
-     */
-    private boolean updateIDandDB(
-            Hashtable<String, String> elemAttVal, String elemName) {
-        Elem elem = mTask.getElemByName(elemName);
-        ArrayList<Attrib> attributes = elem.getAttributes();
-        String newId = "";
-        for (Attrib attribute : attributes) {
-            if (attribute instanceof AttID) {
-                newId = elemAttVal.get(attribute.getName());
-            }
-        }
-        if (!newId.equals("")) {
-            if (!mTask.idExists(elemName, newId)) {
-                if (elem instanceof ElemExtent) {
-                    addExtToDbFromHash(elemAttVal, elemName, newId);
-                } else if (elem instanceof ElemLink) {
-                    addLinkToDbFromHash(elemAttVal, elemName, newId);
-                }
+            if (argId == null || argId.equals("")) {
+                mUnderspecified.setEmpty(elem.getName(), newId, args.get(i));
             } else {
-                System.err.println(String.format(
-                        "ID %s of %s already in DB. Skipping addition"
-                        , newId, elemName));
-                return false;
+                argIds[i] = argId;
             }
-        } else {
-            System.err.println("ID was not found");
-            return false;
         }
-        return true;
+        mTask.addLinkToBatch(elem.getName(), newId, argIds);
     }
 
     /**
-     * addRowFromHash is called when new tag information has been added to the
+     * addRowFromValues is called when new tag information has been added to the
      * database successfully, and will now be added to the appropriate tag table.
+     * Table columns are in the same order as attributes of the element.
      *
-     * @param a        Hashtable of attributes
+     * @param values   attribute values, indexed by attribute positions
      * @param elemName type of tag being added
      */
-    private void addRowFromHash(
-            Hashtable<String, String> a, String elemName, boolean isExt) {
+    private void addRowFromValues(
+            String[] values, String elemName, boolean isExt) {
         DefaultTableModel tableModel
                 = (DefaultTableModel) mElementTables.get(elemName).getModel();
         String[] newdata = new String[tableModel.getColumnCount()];
-        for (int k = 0; k < tableModel.getColumnCount(); k++) {
-            String colName = tableModel.getColumnName(k);
-            String value = a.get(colName);
-            if (value != null) {
-                newdata[k] = value;
+        for (int k = 0; k < newdata.length; k++) {
+            if (k < values.length && values[k] != null) {
+                newdata[k] = values[k];
             } else {
                 newdata[k] = "";
             }
@@ -1564,38 +1915,459 @@ public class MaeMain extends JPanel {
     }
 
     /**
-     * delete an item from all_extent_tags table given an ID of the item
-     * @param id id of the item to delete
+     * Removes tags, and links that use removed tags as arguments, at once.
+     * Depending on the delete policy of the task, such links are removed
+     * or get the arguments emptied.
+     * DB is updated in a single transaction, each table fires a single event,
+     * and text is recolored once over the merged spans of removed extents.
+     *
+     * @param ids IDs of tags being removed
      */
-    private void removeAllTableRow(String id) {
+    private void removeTags(Collection<String> ids) {
+        HashMap<String, String> types = mTask.getElemNamesByIds(ids);
+        // element name -> ids to remove from its table
+        HashCollection<String, String> toRemove = new HashCollection<String, String>(true);
+        HashSet<String> extIds = new HashSet<String>();
+        HashSet<String> linkIds = new HashSet<String>();
+        for (String id : ids) {
+            String elemName = types.get(id);
+            if (elemName == null) {
+                continue;
+            }
+            if (mTask.getElemByName(elemName) instanceof ElemExtent) {
+                extIds.add(id);
+            } else {
+                linkIds.add(id);
+            }
+            toRemove.putEnt(elemName, id);
+        }
+        AnnotDB.Removal removal = mTask.removeTags(extIds, linkIds);
+        //remove links that used the tags being removed
+        for (String linkType : removal.removedLinks.keySet()) {
+            for (String linkId : removal.removedLinks.get(linkType)) {
+                linkIds.add(linkId);
+                toRemove.putEnt(linkType, linkId);
+            }
+        }
+        // or empty their arguments
+        ArrayList<String[]> clearedArgs = new ArrayList<String[]>();
+        if (removal.clearedArgs.size() > 0) {
+            clearArgsInTables(removal, clearedArgs);
+        }
+
+        ArrayList<int[]> removedSpans = new ArrayList<int[]>();
+        HashCollection<String, String[]> removedRows = new HashCollection<String, String[]>();
+        for (String elemName : toRemove.keySet()) {
+            boolean isExt = mTask.getElemByName(elemName) instanceof ElemExtent;
+            removeRowsById(elemName, new HashSet<String>(toRemove.get(elemName)),
+                    isExt ? removedSpans : null, removedRows);
+        }
+        // also remove items from all extents tab
+        if (extIds.size() > 0) {
+            removeRowsById(MaeStrings.ALL_TABLE_BACK_NAME, extIds, null, null);
+        }
+        if (removedRows.size() > 0) {
+            mHistory.add(new TagEdit(ids.size() == 1
+                    ? "Delete " + ids.iterator().next()
+                    : String.format("Delete %d tags", ids.size()),
+                    false, removedRows, clearedArgs));
+        }
+        for (String linkId : linkIds) {
+            mUnderspecified.remove(linkId);
+        }
+        // re-assign highlighting
+        for (int[] span : mergeSpans(removedSpans)) {
+            assignTextColor(span[0], span[1]);
+        }
+    }
+
+    /**
+     * Tags added or removed by an edit. Table rows of the tags, and link
+     * arguments emptied along with them, are kept so that the tags are put
+     * back in DB and tables directly, without reading the file again.
+     */
+    private class TagEdit implements EditHistory.Edit {
+        private final String mName;
+        private final boolean isAdding;
+        // element name -> rows of tags
+        private final HashCollection<String, String[]> mRows;
+        // link type, link id, argument name, argument id and text
+        private final List<String[]> mClearedArgs;
+        private final int mCost;
+
+        /**
+         * @param isAdding true if the edit added the tags, false if it removed them
+         */
+        TagEdit(String name, boolean isAdding,
+                HashCollection<String, String[]> rows, List<String[]> clearedArgs) {
+            mName = name;
+            this.isAdding = isAdding;
+            mRows = rows;
+            mClearedArgs = clearedArgs;
+            int cost = clearedArgs.size() * 5;
+            for (String elemName : rows.keySet()) {
+                for (String[] row : rows.get(elemName)) {
+                    cost += row.length;
+                }
+            }
+            mCost = cost;
+        }
+
+        @Override
+        public void undo() {
+            if (isAdding) {
+                removeRows();
+            } else {
+                restoreTags(mRows, mClearedArgs);
+            }
+        }
+
+        @Override
+        public void redo() {
+            if (isAdding) {
+                restoreTags(mRows, mClearedArgs);
+            } else {
+                removeRows();
+            }
+        }
+
+        private void removeRows() {
+            ArrayList<String> ids = new ArrayList<String>();
+            for (String elemName : mRows.keySet()) {
+                for (String[] row : mRows.get(elemName)) {
+                    ids.add(row[ID_COL]);
+                }
+            }
+            removeTags(ids);
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public int getCost() {
+            return mCost;
+        }
+    }
+
+    /**
+     * A value of an attribute edited in a table
+     */
+    private class AttributeEdit implements EditHistory.Edit {
+        private final String mElemName;
+        private final String mId;
+        private final String mAttName;
+        private final String mOldValue;
+        private final String mNewValue;
+
+        AttributeEdit(String elemName, String id, String attName,
+                      String oldValue, String newValue) {
+            mElemName = elemName;
+            mId = id;
+            mAttName = attName;
+            mOldValue = oldValue;
+            mNewValue = newValue;
+        }
+
+        @Override
+        public void undo() {
+            setAttributeInTable(mElemName, mId, mAttName, mOldValue);
+        }
+
+        @Override
+        public void redo() {
+            setAttributeInTable(mElemName, mId, mAttName, mNewValue);
+        }
+
+        @Override
+        public String getName() {
+            return String.format("%s of %s", mAttName, mId);
+        }
+
+        @Override
+        public int getCost() {
+            return 5;
+        }
+    }
+
+    /**
+     * An argument of a link set to a tag
+     */
+    private class ArgumentEdit implements EditHistory.Edit {
+        private final String mLinkName;
+        private final String mLinkId;
+        private final String mArgName;
+        private final String mOldId;
+        private final String mOldText;
+        private final String mNewId;
+        private final String mNewText;
+
+        ArgumentEdit(String linkName, String linkId, String argName,
+                     String oldId, String oldText, String newId, String newText) {
+            mLinkName = linkName;
+            mLinkId = linkId;
+            mArgName = argName;
+            mOldId = oldId;
+            mOldText = oldText;
+            mNewId = newId;
+            mNewText = newText;
+        }
+
+        @Override
+        public void undo() {
+            setArgument(mLinkName, mLinkId, mArgName, mOldId, mOldText);
+        }
+
+        @Override
+        public void redo() {
+            setArgument(mLinkName, mLinkId, mArgName, mNewId, mNewText);
+        }
+
+        @Override
+        public String getName() {
+            return String.format("%s of %s", mArgName, mLinkId);
+        }
+
+        @Override
+        public int getCost() {
+            return 7;
+        }
+    }
+
+    /**
+     * Listener for the Edit menu, undoes and redoes edits
+     */
+    private class EditMenuListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent actionEvent) {
+            boolean isUndo = actionEvent.getActionCommand().equals("Undo");
+            EditHistory.Edit edit = isUndo ? mHistory.undo() : mHistory.redo();
+            if (edit == null) {
+                mStatusScheduler.post(isUndo ? "Nothing to undo" : "Nothing to redo", 3000);
+                return;
+            }
+            isTaskChanged = true;
+            updateTitle();
+            mStatusScheduler.post((isUndo ? "Undone: " : "Redone: ") + edit.getName(), 3000);
+        }
+    }
+
+    /**
+     * Records creation of a tag, with its row as it is in the table now
+     */
+    private void recordCreation(String elemName, String id) {
+        String[] row = getRowById(elemName, id);
+        if (row != null) {
+            HashCollection<String, String[]> rows = new HashCollection<String, String[]>();
+            rows.putEnt(elemName, row);
+            mHistory.add(new TagEdit("Create " + id, true, rows, new ArrayList<String[]>()));
+        }
+    }
+
+    /**
+     * @return values of the row of a tag in its table, or null if not found
+     */
+    private String[] getRowById(String elemName, String id) {
         DefaultTableModel tableModel
-                = (DefaultTableModel) mElementTables.get(
-                MaeStrings.ALL_TABLE_BACK_NAME).getModel();
-        int rows = tableModel.getRowCount();
-        //has to go backwards or the wrong rows get deleted
-        for (int i = rows - 1; i >= 0; i--) {
-            if (id.equals(tableModel.getValueAt(i, 0))) {
-                tableModel.removeRow(i);
+                = (DefaultTableModel) mElementTables.get(elemName).getModel();
+        // new tags are at the end
+        for (int i = tableModel.getRowCount() - 1; i >= 0; i--) {
+            if (id.equals(tableModel.getValueAt(i, ID_COL))) {
+                String[] row = new String[tableModel.getColumnCount()];
+                for (int col = 0; col < row.length; col++) {
+                    row[col] = cellValue(tableModel, i, col);
+                }
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets a value of a tag in its table, DB follows the table
+     * (see AttributeSyncListener)
+     */
+    private void setAttributeInTable(String elemName, String id, String attName, String value) {
+        DefaultTableModel tableModel
+                = (DefaultTableModel) mElementTables.get(elemName).getModel();
+        int col = tableModel.findColumn(attName);
+        for (int i = tableModel.getRowCount() - 1; i >= 0 && col >= 0; i--) {
+            if (id.equals(tableModel.getValueAt(i, ID_COL))) {
+                tableModel.setValueAt(value, i, col);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Puts tags back in DB and tables, extents first as links need their
+     * types, and arguments back in links. Only the text under the
+     * extents is recolored.
+     *
+     * @param rows element name -> table rows of tags
+     * @param args link type, link id, argument name, argument id and text
+     *             of arguments to set
+     */
+    private void restoreTags(HashCollection<String, String[]> rows, List<String[]> args) {
+        ArrayList<int[]> spans = new ArrayList<int[]>();
+        for (String elemName : rows.keySet()) {
+            if (!(mTask.getElemByName(elemName) instanceof ElemExtent)) {
+                continue;
+            }
+            for (String[] row : rows.get(elemName)) {
+                ArrayList<int[]> tagSpans = parseSpansString(row[SPANS_COL]);
+                addExtToDb(packSpans(tagSpans), elemName, row[ID_COL]);
+                addRowFromValues(row, elemName, true);
+                spans.addAll(tagSpans);
             }
         }
+        mTask.runBatchExtents();
+        for (String elemName : rows.keySet()) {
+            Elem elem = mTask.getElemByName(elemName);
+            if (!(elem instanceof ElemLink)) {
+                continue;
+            }
+            ArrayList<String> argNames = ((ElemLink) elem).getArguments();
+            for (String[] row : rows.get(elemName)) {
+                ArrayList<String> argIds = new ArrayList<String>();
+                ArrayList<String> argTypes = new ArrayList<String>();
+                for (String argName : argNames) {
+                    String argId = row[elem.getAttributeIndex(argName + MaeStrings.ID_SUF)];
+                    String argType = argId.equals("") ? null : mTask.getElemNameById(argId);
+                    argIds.add(argId);
+                    argTypes.add(argType == null ? "" : argType);
+                    if (argId.equals("")) {
+                        mUnderspecified.setEmpty(elemName, row[ID_COL], argName);
+                    }
+                }
+                mTask.addLinkToBatch(elemName, row[ID_COL], argIds, argTypes);
+                addRowFromValues(row, elemName, false);
+            }
+        }
+        mTask.runBatchLinks();
+        for (String[] arg : args) {
+            setArgument(arg[0], arg[1], arg[2], arg[3], arg[4]);
+        }
+        for (int[] span : mergeSpans(spans)) {
+            assignTextColor(span[0], span[1]);
+        }
     }
 
     /**
-     * Removes links from the table and DB
+     * Empties arguments of links in tables, after the tags of the arguments
+     * are removed
      *
-     * @param links HashCollection of types and IDs of links being removed
+     * @param removal link ids and argument positions emptied in DB
+     * @param cleared link type, link id, argument name, and old argument id
+     *                and text of each argument emptied are added to it
      */
-    private void removeLinkTableRows(HashCollection<String, String> links) {
-        ArrayList<String> linkTags = links.getKeyList();
-        for (String tag : linkTags) {
-            Elem elem = mTask.getElemByName(tag);
-            ArrayList<String> link_ids = links.getList(elem.getName());
-            if (elem instanceof ElemLink) {
-                for (String id : link_ids) {
-                    removeTableRows(elem, id);
+    private void clearArgsInTables(AnnotDB.Removal removal, List<String[]> cleared) {
+        // link type -> link ids, so that each table is scanned once
+        HashCollection<String, String> byType = new HashCollection<String, String>();
+        for (String linkId : removal.clearedArgs.keySet()) {
+            byType.putEnt(removal.clearedLinkTypes.get(linkId), linkId);
+        }
+        for (String linkType : byType.keySet()) {
+            ElemLink link = (ElemLink) mTask.getElemByName(linkType);
+            DefaultTableModel tableModel
+                    = (DefaultTableModel) mElementTables.get(linkType).getModel();
+            HashSet<String> linkIds = new HashSet<String>(byType.get(linkType));
+            for (int i = 0; i < tableModel.getRowCount(); i++) {
+                String linkId = (String) tableModel.getValueAt(i, ID_COL);
+                if (!linkIds.contains(linkId)) {
+                    continue;
                 }
+                for (int argNum : removal.clearedArgs.get(linkId)) {
+                    String argName = link.getArguments().get(argNum);
+                    int argCol = link.getAttributeIndex(argName + MaeStrings.ID_SUF);
+                    cleared.add(new String[]{linkType, linkId, argName,
+                            cellValue(tableModel, i, argCol), cellValue(tableModel, i, argCol + 1)});
+                    tableModel.setValueAt("", i, argCol);
+                    tableModel.setValueAt("", i, argCol + 1);
+                    mUnderspecified.setEmpty(linkType, linkId, argName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all rows of given IDs from a table, firing a single table event
+     *
+     * @param tableName element name of the table
+     * @param ids       IDs of rows to remove
+     * @param spans     if not null, spans of removed rows are added to it
+     * @param removed   if not null, removed rows are added to it
+     */
+    private void removeRowsById(String tableName, Set<String> ids, ArrayList<int[]> spans,
+                                HashCollection<String, String[]> removed) {
+        DefaultTableModel tableModel
+                = (DefaultTableModel) mElementTables.get(tableName).getModel();
+        Vector<Vector<Object>> rows = getRows(tableModel);
+        Vector<Vector<Object>> kept = new Vector<Vector<Object>>(rows.size());
+        for (Vector<Object> cells : rows) {
+            if (ids.contains(cells.get(ID_COL))) {
+                if (spans != null) {
+                    spans.addAll(parseSpansString((String) cells.get(SPANS_COL)));
+                }
+                if (removed != null) {
+                    String[] values = new String[cells.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = cells.get(i) == null ? "" : cells.get(i).toString();
+                    }
+                    removed.putEnt(tableName, values);
+                }
+            } else {
+                kept.add(cells);
+            }
+        }
+        if (kept.size() < rows.size()) {
+            rows.clear();
+            rows.addAll(kept);
+            tableModel.fireTableDataChanged();
+        }
+    }
+
+    /**
+     * @return rows of a table model, to be changed in place
+     */
+    @SuppressWarnings("unchecked")
+    private static Vector<Vector<Object>> getRows(DefaultTableModel tableModel) {
+        // rows of a DefaultTableModel are always vectors of cell objects
+        return (Vector<Vector<Object>>) (Vector<?>) tableModel.getDataVector();
+    }
+
+    /**
+     * Sorts spans and merges overlapping or adjacent ones,
+     * spans of non-consuming tags are dropped
+     *
+     * @param spans list of start-end pairs
+     * @return merged spans, sorted by start
+     */
+    private ArrayList<int[]> mergeSpans(ArrayList<int[]> spans) {
+        ArrayList<int[]> sorted = new ArrayList<int[]>();
+        for (int[] span : spans) {
+            if (span[0] >= 0) {
+                sorted.add(span);
             }
         }
+        Collections.sort(sorted, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+        ArrayList<int[]> merged = new ArrayList<int[]>();
+        for (int[] span : sorted) {
+            int[] last = merged.size() == 0 ? null : merged.get(merged.size() - 1);
+            if (last != null && span[0] <= last[1]) {
+                last[1] = Math.max(last[1], span[1]);
+            } else {
+                merged.add(new int[]{span[0], span[1]});
+            }
+        }
+        return merged;
     }
 
     /**
@@ -1617,6 +2389,8 @@ public class MaeMain extends JPanel {
                 if (elem instanceof ElemExtent) {
                     assignTextColor(parseSpansString(
                             (String) tableModel.getValueAt(i, 1)));
+                } else {
+                    mUnderspecified.remove(id);
                 }
                 tableModel.removeRow(i);
             }
@@ -1661,7 +2435,7 @@ public class MaeMain extends JPanel {
         if (idHash.size() > 0) {
             ArrayList<String> elemNames = idHash.getKeyList();
             for (String elemName : elemNames) {
-                ArrayList<String> ids = idHash.get(elemName);
+                List<String> ids = idHash.get(elemName);
                 for (String id : ids) {
                     highlightTableRows(elemName, id);
                     //returns HashCollection of link ids connected to this
@@ -1674,36 +2448,201 @@ public class MaeMain extends JPanel {
     }
 
     /**
-     * Adds an extent tag to the database, one item per character location Note
-     * that, id DB, all tag is associated with the location of all characters in the
-     * span , meaning 3 letter word ends up with 3 items in the DB mod by krim: to
-     * use list(spans), not 2 integers(start/end)
+     * Adds an extent tag to the database, one item per character location Note
+     * that, id DB, all tag is associated with the location of all characters in the
+     * span , meaning 3 letter word ends up with 3 items in the DB mod by krim: to
+     * use list(spans), not 2 integers(start/end)
+     *
+     * @param elemName the type of tag being added
+     * @param newId    the ID of the tag being added
+     */
+    private void addExtTagToDb(String elemName, String newId) {
+        if (!isSpansEmpty()) {
+            for (int[] span : mSpans) {
+                int start = span[0], end = span[1];
+                for (int i = start; i < end; i++) {
+                    mTask.addExtToBatch(i, elemName, newId);
+                }
+            }
+        } else {
+            mTask.addExtToBatch(-1, elemName, newId);
+        }
+        mTask.runBatchExtents();
+    }
+
+    /**
+     * Adds a link tag to the database. Unlike an extent tag, a link tag only
+     * occupies one item in the DB
+     */
+    private void addLinkTagToDb(String elemName, String newId,
+                                List<String> argIds, List<String> argTypes) {
+        mTask.addLinkToBatch(elemName, newId, argIds, argTypes);
+        mTask.runBatchLinks();
+    }
+
+    /**
+     * Compiles a dictionary file, or returns the one compiled last time
+     * if the file and the options did not change since
+     */
+    private DictionaryAnnotator loadDictionary(
+            File file, boolean ignoreCase, boolean wholeWords) throws IOException {
+        String key = String.format("%s:%d:%d:%b:%b", file.getAbsolutePath(),
+                file.lastModified(), file.length(), ignoreCase, wholeWords);
+        if (mDictionary == null || !key.equals(mDictionaryKey)) {
+            mDictionary = DictionaryAnnotator.load(
+                    file, mTask.getExtNames(), ignoreCase, wholeWords);
+            mDictionaryKey = key;
+        }
+        return mDictionary;
+    }
+
+    /**
+     * Adds tags found by a dictionary in the document
+     *
+     * @param dict a compiled dictionary
+     * @return number of tags added
+     */
+    private int preAnnotate(DictionaryAnnotator dict) {
+        String text = getTextBetween(0, mTextPane.getStyledDocument().getLength());
+        HashCollection<String, String[]> added = new HashCollection<String, String[]>();
+        int count = addCandidateTags(dict.annotate(text), text, added);
+        recordPreAnnotation(added, count);
+        return count;
+    }
+
+    /**
+     * Puts tags added by a pre-annotator in edit history as a single edit
+     *
+     * @param added element name -> table rows of the added tags
+     * @param count number of added tags
+     */
+    private void recordPreAnnotation(HashCollection<String, String[]> added, int count) {
+        if (count > 0) {
+            mHistory.add(new TagEdit(String.format("Pre-annotate %d tags", count),
+                    true, added, new ArrayList<String[]>()));
+        }
+    }
+
+    /**
+     * Adds tags found by a pre-annotator to the DB and tables.
+     * Candidates overlapping a tag of the same element are skipped.
+     * Tags go to the DB in batches, each table fires a single event,
+     * and the text is recolored once at the end.
+     * Nothing is put in edit history, see recordPreAnnotation().
      *
-     * @param elemName the type of tag being added
-     * @param newId    the ID of the tag being added
+     * @param candidates tags to add
+     * @param text the primary text of the document
+     * @param added element name -> table rows, rows of added tags are put in it
+     * @return number of tags added
      */
-    private void addExtTagToDb(String elemName, String newId) {
-        if (!isSpansEmpty()) {
-            for (int[] span : mSpans) {
-                int start = span[0], end = span[1];
-                for (int i = start; i < end; i++) {
-                    mTask.addExtToBatch(i, elemName, newId);
+    private int addCandidateTags(List<TagCandidate> candidates, String text,
+                                 HashCollection<String, String[]> added) {
+        if (candidates.size() == 0) {
+            return 0;
+        }
+        int begin = Integer.MAX_VALUE, end = 0;
+        for (TagCandidate candidate : candidates) {
+            begin = Math.min(begin, candidate.start);
+            end = Math.max(end, candidate.end);
+        }
+        HashCollection<Integer, String> tagged = mTask.getElementsInRange(begin, end);
+        // element name -> candidates to be tagged with it
+        HashCollection<String, TagCandidate> matches
+                = new HashCollection<String, TagCandidate>();
+        for (TagCandidate match : candidates) {
+            if (mElementTables.containsKey(match.elemName)
+                    && !isTaggedWith(tagged, match.start, match.end, match.elemName)) {
+                matches.putEnt(match.elemName, match);
+                // candidates from different rules can overlap too
+                for (int i = match.start; i < match.end; i++) {
+                    tagged.putEnt(i, match.elemName);
                 }
             }
-        } else {
-            mTask.addExtToBatch(-1, elemName, newId);
+        }
+
+        DefaultTableModel allTableModel = (DefaultTableModel) mElementTables.get(
+                MaeStrings.ALL_TABLE_BACK_NAME).getModel();
+        Vector<Vector<Object>> allRows = getRows(allTableModel);
+        int allFirstRow = allRows.size();
+        ArrayList<int[]> spans = new ArrayList<int[]>();
+        int pending = 0;
+        for (String elemName : matches.keySet()) {
+            List<TagCandidate> elemMatches = matches.get(elemName);
+            ArrayList<String> ids = mTask.getNextIDs(elemName, elemMatches.size());
+            Elem elem = mTask.getElemByName(elemName);
+            DefaultTableModel tableModel
+                    = (DefaultTableModel) mElementTables.get(elemName).getModel();
+            String[] defaults = createDefaultRowData(elemName, tableModel.getColumnCount());
+            Vector<Vector<Object>> rows = getRows(tableModel);
+            int firstRow = rows.size();
+            for (int i = 0; i < elemMatches.size(); i++) {
+                TagCandidate match = elemMatches.get(i);
+                String newId = ids.get(i);
+                for (int loc = match.start; loc < match.end; loc++) {
+                    mTask.addExtToBatch(loc, elemName, newId);
+                }
+                pending += match.end - match.start;
+                if (pending >= TagLoader.LOAD_BATCH_ROWS) {
+                    mTask.runBatchExtents();
+                    pending = 0;
+                }
+                String[] newdata = defaults.clone();
+                newdata[ID_COL] = newId;
+                newdata[SPANS_COL] = match.start + MaeStrings.SPANDELIMITER + match.end;
+                newdata[TEXT_COL] = text.substring(match.start, match.end);
+                if (match.getAttributes() != null) {
+                    for (Map.Entry<String, String> att : match.getAttributes().entrySet()) {
+                        int col = elem.getAttributeIndex(att.getKey());
+                        if (col >= 0 && col < newdata.length) {
+                            newdata[col] = att.getValue();
+                        }
+                    }
+                }
+                rows.add(new Vector<Object>(Arrays.asList(newdata)));
+                added.putEnt(elemName, newdata);
+                allRows.add(new Vector<Object>(Arrays.asList(newdata).subList(0, 3)));
+                spans.add(new int[]{match.start, match.end});
+            }
+            tableModel.fireTableRowsInserted(firstRow, rows.size() - 1);
         }
         mTask.runBatchExtents();
+        if (spans.size() > 0) {
+            allTableModel.fireTableRowsInserted(allFirstRow, allRows.size() - 1);
+            assignTextColor(spans);
+            isTaskChanged = true;
+            updateTitle();
+        }
+        return spans.size();
     }
 
     /**
-     * Adds a link tag to the database. Unlike an extent tag, a link tag only
-     * occupies one item in the DB
+     * Checks if any location in a span is tagged with an element
      */
-    private void addLinkTagToDb(String elemName, String newId,
-                                List<String> argIds, List<String> argTypes) {
-        mTask.addLinkToBatch(elemName, newId, argIds, argTypes);
-        mTask.runBatchLinks();
+    private boolean isTaggedWith(HashCollection<Integer, String> tagged,
+                                 int start, int end, String elemName) {
+        for (int i = start; i < end; i++) {
+            if (tagged.contains(i, elemName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a table row for a new tag of an element
+     * with default values of attributes
+     */
+    private String[] createDefaultRowData(String elemName, int columns) {
+        ArrayList<Attrib> attributes = mTask.getElemByName(elemName).getAttributes();
+        String[] newData = new String[columns];
+        for (int i = 0; i < columns; i++) {
+            if (i < attributes.size() && attributes.get(i).hasDefaultValue()) {
+                newData[i] = attributes.get(i).getDefaultValue();
+            } else {
+                newData[i] = "";
+            }
+        }
+        return newData;
     }
 
     // *******************************
@@ -1719,7 +2658,7 @@ public class MaeMain extends JPanel {
     private void highlightTableRowsHash(HashCollection<String, String> hash) {
         ArrayList<String> elems = hash.getKeyList();
         for (String e : elems) {
-            ArrayList<String> ids = hash.get(e);
+            List<String> ids = hash.get(e);
             for (String id : ids) {
                 highlightTableRows(e, id);
             }
@@ -1736,7 +2675,7 @@ public class MaeMain extends JPanel {
         HashCollection<String, String> locElem = mTask.getLocElemHash();
         ArrayList<String> locs = locElem.getKeyList();
         for (String loc : locs) {
-            ArrayList<String> elements = locElem.getList(loc);
+            List<String> elements = locElem.getList(loc);
             if (elements.size() > 1) {
                 setColorAtLocation(mColorTable.get(elements.get(0)), Integer.parseInt(loc), 1, true);
             } else {
@@ -1777,11 +2716,24 @@ public class MaeMain extends JPanel {
      * @param spans a list of spans
      */
     private void assignTextColor(ArrayList<int[]> spans) {
+        // find what tags are in all spans with a single query
+        int begin = Integer.MAX_VALUE, end = -1;
+        for (int[] span : spans) {
+            if (span[0] >= 0) {
+                begin = Math.min(begin, span[0]);
+                end = Math.max(end, span[1]);
+            }
+        }
+        if (end < 0) {
+            return;
+        }
+        HashCollection<Integer, String> elemsInSpans = mTask.getElementsInRange(begin, end);
         //go through each part of the word being changed and
         //  find what tags are there, and what color it should be.
         for (int[] span : spans) {
-            int start = span[0], end = span[1];
-            assignTextColor(start, end);
+            for (int i = Math.max(span[0], 0); i < span[1]; i++) {
+                assignTextColorAt(i, elemsInSpans.get(i));
+            }
         }
     }
 
@@ -1794,34 +2746,47 @@ public class MaeMain extends JPanel {
      * @param end   the location of the last character in the extent
      */
     private void assignTextColor(int begin, int end) {
+        // find what tags are in the span being changed with a single query
+        HashCollection<Integer, String> elemsInSpan = mTask.getElementsInRange(begin, end);
         // go through each part of the span being changed and
-        // find what tags are there, and what color it should be.
+        // find what color it should be.
         for (int i = begin; i < end; i++) {
+            assignTextColorAt(i, elemsInSpan.get(i));
+        }
+    }
 
-            // get all elements at given location
-            ArrayList<String> cand = new ArrayList<String>();
+    /**
+     * Colors a single character by the activated tags at its location
+     *
+     * @param loc location of the character
+     * @param elemsAtLoc names of elements at the location, can be null
+     */
+    private void assignTextColorAt(int loc, List<String> elemsAtLoc) {
+        // get all elements at given location
+        ArrayList<String> cand = new ArrayList<String>();
 
-            // exclude unactivated elements
-            for (String elemName : mTask.getElementsAtLoc(i)) {
+        // exclude unactivated elements
+        if (elemsAtLoc != null) {
+            for (String elemName : elemsAtLoc) {
                 if (mActiveExts.contains(elemName)) {
                     cand.add(elemName);
                 }
             }
+        }
 
-            // determine color seeing first tag
-            Color c;
-            try {
-                c = mColorTable.get(cand.get(0));
-            } catch (IndexOutOfBoundsException e) {
-                c = Color.black;
-            }
+        // determine color seeing first tag
+        Color c;
+        try {
+            c = mColorTable.get(cand.get(0));
+        } catch (IndexOutOfBoundsException e) {
+            c = Color.black;
+        }
 
-            // set color and underline
-            if (cand.size() > 1) {
-                setColorAtLocation(c, i, 1, true);
-            } else {
-                setColorAtLocation(c, i, 1, false);
-            }
+        // set color and underline
+        if (cand.size() > 1) {
+            setColorAtLocation(c, loc, 1, true);
+        } else {
+            setColorAtLocation(c, loc, 1, false);
         }
     }
 
@@ -1931,7 +2896,23 @@ public class MaeMain extends JPanel {
     private JComponent makeTablePanel(Elem e) {
 
         MaeTableModel model = new MaeTableModel();
-        JTable table = new JTable(model);
+        final String elemName = e.getName();
+        JTable table = new JTable(model) {
+            // called by cell editors, other changes go to the model directly
+            @Override
+            public void setValueAt(Object value, int row, int col) {
+                Object old = getValueAt(row, col);
+                super.setValueAt(value, row, col);
+                String oldValue = old == null ? "" : old.toString();
+                String newValue = value == null ? "" : value.toString();
+                if (!oldValue.equals(newValue)) {
+                    String id = (String) getModel().getValueAt(
+                            convertRowIndexToModel(row), ID_COL);
+                    mHistory.add(new AttributeEdit(
+                            elemName, id, getColumnName(col), oldValue, newValue));
+                }
+            }
+        };
         table.setAutoCreateRowSorter(true);
         JScrollPane scrollPane = new JScrollPane(table);
 
@@ -1944,6 +2925,10 @@ public class MaeMain extends JPanel {
         for (Attrib attribute : attributes) {
             model.addColumn(attribute.getName());
         }
+        model.addTableModelListener(new AttributeSyncListener(e.getName()));
+        if (e instanceof ElemLink) {
+            model.addTableModelListener(new LinkChainListener(e.getName()));
+        }
         for (int i = 0; i < attributes.size(); i++) {
             Attrib a = attributes.get(i);
             TableColumn c = table.getColumnModel().getColumn(i);
@@ -2016,11 +3001,91 @@ public class MaeMain extends JPanel {
         return scrollPane;
     }
 
+    /**
+     * Shows results of a tag query in a tab after the element tabs,
+     * the tab is created when a query is run for the first time
+     *
+     * @param rows id, element name, spans, and text of tags found
+     */
+    private void showQueryResults(ArrayList<String[]> rows) {
+        if (mQueryTable == null) {
+            AllTableModel model = new AllTableModel();
+            model.addColumn("id");
+            model.addColumn("element");
+            model.addColumn("spans");
+            model.addColumn("text");
+            mQueryTable = new JTable(model);
+            mQueryTable.setAutoCreateRowSorter(true);
+            mQueryTable.addMouseListener(new QueryTableMouseAdapter());
+            mBottomTable.addTab(MaeStrings.QUERY_TABLE_NAME, new JScrollPane(mQueryTable));
+        }
+        DefaultTableModel model = (DefaultTableModel) mQueryTable.getModel();
+        model.setRowCount(0);
+        for (String[] row : rows) {
+            model.addRow(row);
+        }
+        mBottomTable.setSelectedIndex(mBottomTable.indexOfTab(MaeStrings.QUERY_TABLE_NAME));
+        mStatusScheduler.post(String.format("%d tags found", rows.size()), 3000);
+    }
+
+    /**
+     * Shows changes between two versions of a file side by side,
+     * rows colored by the kind of change
+     */
+    private void showDiff(File oldFile, File newFile, List<AnnotationDiff.Change> changes) {
+        AllTableModel model = new AllTableModel();
+        model.addColumn("element");
+        model.addColumn(oldFile.getName());
+        model.addColumn(newFile.getName());
+        model.addColumn("changed");
+        final Color[] colors = new Color[3];
+        colors[AnnotationDiff.ADDED] = mGreen;
+        colors[AnnotationDiff.REMOVED] = mPink;
+        colors[AnnotationDiff.MODIFIED] = mLightOrange;
+        final ArrayList<Integer> kinds = new ArrayList<Integer>();
+        for (AnnotationDiff.Change change : changes) {
+            StringBuilder changed = new StringBuilder();
+            if (change.attributes != null) {
+                for (String name : change.attributes) {
+                    changed.append(changed.length() == 0 ? "" : ", ").append(name);
+                }
+            }
+            model.addRow(new String[]{change.elem.getName(),
+                    change.oldTag == null ? "" : AnnotationDiff.describe(change.elem, change.oldTag),
+                    change.newTag == null ? "" : AnnotationDiff.describe(change.elem, change.newTag),
+                    changed.toString()});
+            kinds.add(change.kind);
+        }
+        JTable table = new JTable(model);
+        table.setDefaultRenderer(Object.class, new DefaultTableCellRenderer() {
+            @Override
+            public Component getTableCellRendererComponent(
+                    JTable table, Object value, boolean isSelected, boolean hasFocus,
+                    int row, int col) {
+                Component cell = super.getTableCellRendererComponent(
+                        table, value, isSelected, hasFocus, row, col);
+                if (!isSelected) {
+                    cell.setBackground(colors[kinds.get(table.convertRowIndexToModel(row))]);
+                }
+                return cell;
+            }
+        });
+        table.setAutoCreateRowSorter(true);
+        JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.setPreferredSize(new Dimension(900, 400));
+        JOptionPane.showMessageDialog(MaeMain.this, scrollPane,
+                String.format("%d changes", changes.size()), JOptionPane.PLAIN_MESSAGE);
+    }
+
     /**
      * Removes all the tags from the table when a new DTD is loaded.
      */
     private void resetTabPane() {
         mBottomTable.removeAll();
+        mQueryTable = null;
+        // new tables are empty, so are chains
+        mChains.clear();
+        mChainPanel.reset();
         ArrayList<Elem> elements = mTask.getElements();
         // create a tan for all extents and place it at first
         mBottomTable.addTab(MaeStrings.ALL_TABLE_BACK_NAME, makeAllTablePanel());
@@ -2131,7 +3196,7 @@ public class MaeMain extends JPanel {
             if (idHash.size() > 0) {
                 ArrayList<String> elems = idHash.getKeyList();
                 for (String elem : elems) {
-                    ArrayList<String> ids = idHash.get(elem);
+                    List<String> ids = idHash.get(elem);
                     for (String id : ids) {
                         jp.addSeparator();
                         String text = getTextByID(elem, id, false);
@@ -2163,7 +3228,10 @@ public class MaeMain extends JPanel {
     }
 
     /**
-     * Creates a waterfall menu to add current extent tag as an argument of a link tag
+     * Creates a waterfall menu to add current extent tag as an argument of a link tag.
+     * Only the first level is created here, lower levels are filled when
+     * they are selected for the first time, so opening a context menu
+     * does not depend on the number of links.
      *
      * @param menuTitle string for top menu item
      * @param argType element name of current extent tag
@@ -2172,18 +3240,18 @@ public class MaeMain extends JPanel {
      *         for each link type, for each argument type, for each link instance
      */
     private JMenu createSetAsArgMenu(
-            String menuTitle, String argType, String argId) {
+            String menuTitle, String argType, final String argId) {
         JMenu menu = new JMenu(menuTitle);
+        // text of the extent is the same for all items, look it up only once
+        final String argText = getTextByID(argType, argId, true);
 
         // waterfall menu top level - link names
         int j = -1;
-        for (String linkType : mTask.getLinkNames()) {
+        for (final String linkType : mTask.getLinkNames()) {
 
             j++;
-            ArrayList<String> linkIds = mTask.getLinkIdsByName(linkType);
-
             // check if a tag in each type of link element exists
-            if (linkIds.size() == 0) {
+            if (mTask.getLinkIdsByName(linkType).size() == 0) {
                 addGuideItem(menu, String.format("no %s links", linkType));
                 continue;
             }
@@ -2195,92 +3263,84 @@ public class MaeMain extends JPanel {
             } else {
                 linkTypeMenu = new JMenu(linkType);
             }
-
             // next level - actual relevant arguments
-            int k = 0;
-            for (String argName : mTask.getArguments(linkType)) {
-                JMenu linkArgMenu;
-                if (k < 10) {
-                    linkArgMenu = new JMenu(String.format("%d %s", k+1, argName));
-                    linkArgMenu.setMnemonic(MaeHotKeys.numKeys[k]);
-                } else {
-                    linkArgMenu = new JMenu(argName);
-                }
-                k++;
-                // copy names of all ids (list of ids will be recycled for all args)
-                ArrayList<String> id2Add = new ArrayList<String>(linkIds);
-                DefaultTableModel tableModel = (DefaultTableModel)
-                        mElementTables.get(linkType).getModel();
-                int rows = tableModel.getRowCount();
-                TreeSet<Integer> argCols = getArgColIndices(linkType);
-                int argCol = 0;
-
-                // find which column to look for
-                for (Integer i : argCols) {
-                    if (tableModel.getColumnName(i).
-                            equals(argName + MaeStrings.ID_SUF)) {
-                        argCol = i;
-                    }
+            linkTypeMenu.addMenuListener(new LazyMenuFiller() {
+                @Override
+                void fill(JMenu linkTypeMenu) {
+                    fillLinkTypeMenu(linkTypeMenu, linkType, argId, argText);
                 }
+            });
+            menu.add(linkTypeMenu);
+        }
+        return menu;
+    }
 
-                // final level - ids of each link
-                // needs to move underspecified items to the top of the menu
-                boolean prior = false;
-                if (mUnderspecified.size() > 0) {
-                    for (String unspecId : mUnderspecified) {
-                        if (id2Add.contains(unspecId)) {
-                            // find which row to look for,
-                            // Note that it has to go backwards for efficiency
-                            for (int i = rows - 1; i >= 0; i--) {
-                                // check if id is matching first
-                                // then check if argument is a dummy
-                                if (tableModel.getValueAt(i, 0).equals(unspecId) &&
-                                        tableModel.getValueAt(i, argCol).equals("")) {
-                                    // add a menu guidance
-                                    if (!prior) {
-                                        addGuideItem(linkArgMenu, "Underspecifed");
-                                        prior = true;
-                                    }
-
-                                    // add ids as menu items
-                                    JMenuItem unspecIdItem
-                                            = new JMenuItem(unspecId);
-                                    unspecIdItem.addActionListener(
-                                            new SetAsArgListener());
-                                    unspecIdItem.setActionCommand(
-                                            linkType + MaeStrings.SEP +
-                                                    unspecId + MaeStrings.SEP +
-                                                    argName + MaeStrings.SEP +
-                                                    argId + MaeStrings.SEP +
-                                                    getTextByID(argType, argId, true));
-                                    linkArgMenu.add(unspecIdItem);
-                                    id2Add.remove(unspecId);
-                                }
-                            }
-                        }
-                    }
-                    if (prior) {
-                        linkArgMenu.addSeparator();
-                    }
+    /**
+     * Fills the second level of set-as-argument menu, names of arguments
+     */
+    private void fillLinkTypeMenu(
+            JMenu linkTypeMenu, final String linkType,
+            final String argId, final String argText) {
+        int k = 0;
+        for (final String argName : mTask.getArguments(linkType)) {
+            JMenu linkArgMenu;
+            if (k < 10) {
+                linkArgMenu = new JMenu(String.format("%d %s", k+1, argName));
+                linkArgMenu.setMnemonic(MaeHotKeys.numKeys[k]);
+            } else {
+                linkArgMenu = new JMenu(argName);
+            }
+            k++;
+            linkArgMenu.addMenuListener(new LazyMenuFiller() {
+                @Override
+                void fill(JMenu linkArgMenu) {
+                    fillLinkArgMenu(linkArgMenu, linkType, argName, argId, argText);
                 }
+            });
+            linkTypeMenu.add(linkArgMenu);
+        }
+    }
 
-                // then add the rest of the list as menu items
-                for (String item : id2Add) {
-                    JMenuItem idItem = new JMenuItem(item);
-                    idItem.addActionListener(new SetAsArgListener());
-                    idItem.setActionCommand(
-                            linkType + MaeStrings.SEP +
-                                    item + MaeStrings.SEP +
-                                    argName + MaeStrings.SEP +
-                                    argId + MaeStrings.SEP +
-                                    getTextByID(argType, argId, true));
-                    linkArgMenu.add(idItem);
-                }
-                linkTypeMenu.add(linkArgMenu);
+    /**
+     * Fills the last level of set-as-argument menu, ids of links.
+     * Underspecified links with this argument empty come first.
+     */
+    private void fillLinkArgMenu(JMenu linkArgMenu, String linkType,
+                                 String argName, String argId, String argText) {
+        ArrayList<String> linkIds = mTask.getLinkIdsByName(linkType);
+        // links with this argument empty
+        Set<String> unspecIds = mUnderspecified.getLinks(linkType, argName);
+
+        if (unspecIds.size() > 0) {
+            // add a menu guidance
+            addGuideItem(linkArgMenu, "Underspecifed");
+            for (String unspecId : unspecIds) {
+                linkArgMenu.add(createSetAsArgItem(
+                        linkType, unspecId, argName, argId, argText));
+            }
+            linkArgMenu.addSeparator();
+        }
+
+        // then add the rest of the list as menu items
+        for (String linkId : linkIds) {
+            if (!unspecIds.contains(linkId)) {
+                linkArgMenu.add(createSetAsArgItem(
+                        linkType, linkId, argName, argId, argText));
             }
-            menu.add(linkTypeMenu);
         }
-        return menu;
+    }
+
+    private JMenuItem createSetAsArgItem(String linkType, String linkId,
+                                         String argName, String argId, String argText) {
+        JMenuItem idItem = new JMenuItem(linkId);
+        idItem.addActionListener(new SetAsArgListener());
+        idItem.setActionCommand(
+                linkType + MaeStrings.SEP +
+                        linkId + MaeStrings.SEP +
+                        argName + MaeStrings.SEP +
+                        argId + MaeStrings.SEP +
+                        argText);
+        return idItem;
     }
 
     /**
@@ -2349,17 +3409,18 @@ public class MaeMain extends JPanel {
                 ids[i] = (String) tableModel.getValueAt(selectedRows[i], ID_COL);
             }
             // concat ids into a string, this will be used for remove item
-            String idsString = "";
+            StringBuilder idsString = new StringBuilder();
             for (String id : ids) {
-                idsString += id + MaeStrings.SEP;
+                if (idsString.length() > 0) {
+                    idsString.append(MaeStrings.SEP);
+                }
+                idsString.append(id);
             }
-            idsString = idsString.
-                    substring(0, idsString.length() - MaeStrings.SEP.length());
 
             // then add "delete all" menu item
             JMenuItem removeItem = new JMenuItem(
                     String.format("Remove selected %d rows", selected));
-            removeItem.setActionCommand(idsString);
+            removeItem.setActionCommand(idsString.toString());
             removeItem.setAccelerator(MaeHotKeys.DELETE);
             removeItem.addActionListener(new RemoveSelectedTableRows());
             jp.add(removeItem);
@@ -2491,8 +3552,14 @@ public class MaeMain extends JPanel {
      */
     private boolean showDeleteWarning() {
         //JOptionPane delete = new JOptionPane();
-        String text = ("Deleting extent tag(s) will also delete \n" +
-                "any links that use these extents.  Would you like to continue?");
+        String text;
+        if (mTask.getDeletePolicy() == AnnotDB.DELETE_NULLIFY) {
+            text = ("Deleting tag(s) will also empty arguments of \n" +
+                    "any links that use these tags.  Would you like to continue?");
+        } else {
+            text = ("Deleting tag(s) will also delete \n" +
+                    "any links that use these tags.  Would you like to continue?");
+        }
 
         int message = JOptionPane.showConfirmDialog(mMainFrame,
                 text, "Warning!", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
@@ -2500,6 +3567,198 @@ public class MaeMain extends JPanel {
         return message == 0;
     }
 
+    /**
+     * Opens an annotated XML file or a text file under the current task
+     *
+     * @return true if the file is opened
+     */
+    private boolean loadFile(File file) {
+        boolean succeed = true;
+        String status = "";
+        mFileFullName = file.getName();
+        int endName = mFileFullName.lastIndexOf(".");
+        mFileName = mFileFullName.substring(0, endName);
+        mXmlName = mFileName + ".xml";
+        try {
+            updateTitle();
+            isFileOpen = true;
+            mTask.resetDb();
+            mTask.resetIdTracker();
+            mUnderspecified.clear();
+            mHistory.clear();
+
+            // refresh interfaces
+            resetTabPane();
+            updateMenus();
+            resetSpans();
+            returnToNormalMode();
+
+            mTextPane.setStyledDocument(new DefaultStyledDocument());
+            mTextPane.setContentType("text/plain; charset=UTF-8");
+            mMainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+            if (FileOperations.hasTags(file)) {
+                // tags go to DB and tables while the file is read,
+                // from its snapshot if there is an up-to-date one
+                TagLoader tagLoader = new TagLoader();
+                AnnotationSnapshot snapshot = AnnotationSnapshot.open(file, mTask);
+                ArrayList<String[]> agreements = null;
+                if (snapshot != null) {
+                    // the text stays in the mapped snapshot
+                    mTextPane.setStyledDocument(snapshot.createDocument());
+                    snapshot.readTags(tagLoader);
+                } else {
+                    // the text stays in the array it was read into
+                    XMLFileLoader xfl = new XMLFileLoader(file, mTask, tagLoader);
+                    mTextPane.setStyledDocument(new MappedDocument(
+                            new MappedContent(xfl.getText())));
+                    agreements = xfl.getAgreements();
+                }
+                tagLoader.finish();
+                // a merged file, tags annotators disagree on are marked
+                if (agreements != null && agreements.size() > 0) {
+                    markDisputedTags(agreements);
+                }
+            } else {  // that is, if it's only a text file
+                StyledDocument d = mTextPane.getStyledDocument();
+                mTextPane.setStyledDocument(FileOperations.setText(file, d));
+            }
+            if (mTextPane.getStyledDocument() instanceof MappedDocument) {
+                mSearchPanel.setText(((MappedDocument)
+                        mTextPane.getStyledDocument()).getCharSequence());
+            } else {
+                mSearchPanel.setText(getTextBetween(
+                        0, mTextPane.getStyledDocument().getLength()));
+            }
+            mTextPane.requestFocus(true);
+            mTextPane.getCaret().setDot(0);
+            mTextPane.getCaret().moveDot(1);
+        } catch (Exception ex) {
+            isFileOpen = false;
+            mSearchPanel.setText(null);
+            ex.printStackTrace();
+            succeed = false;
+            status = "Error loading file";
+        }
+        mMainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+        mTextPane.setCaretPosition(0);
+        // refresh status bar after all caret events
+        if (succeed) {
+            status = "File load succeed! Click anywhere to continue.";
+        }
+        mStatusScheduler.post(status);
+        return succeed;
+    }
+
+    /**
+     * Merges annotators' files of the same text into a new file,
+     * and opens it with tags to adjudicate marked
+     */
+    private void mergeFiles(File[] files) {
+        if (files.length < 2) {
+            mStatusScheduler.post("Select two or more annotated files to merge");
+            return;
+        }
+        String name = files[0].getName();
+        int endName = name.lastIndexOf(".");
+        name = endName < 0 ? name : name.substring(0, endName);
+        mSaveFC.setSelectedFile(new File(name + "-merged.xml"));
+        if (mSaveFC.showSaveDialog(MaeMain.this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File merged = mSaveFC.getSelectedFile();
+        mMainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        try {
+            new AnnotationMerger(mTask.getDtd()).merge(Arrays.asList(files), merged);
+        } catch (IOException e) {
+            e.printStackTrace();
+            mMainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+            mStatusScheduler.post("Error merging files: " + e.toString());
+            return;
+        }
+        loadFile(merged);
+    }
+
+    /**
+     * Gives a background color to extents of a merged file that annotators
+     * disagree on, and lists all disputed tags in the query results tab
+     *
+     * @param agreements marked tags, see XMLFileLoader.getAgreements()
+     */
+    private void markDisputedTags(ArrayList<String[]> agreements) {
+        DefaultStyledDocument styleDoc =
+                (DefaultStyledDocument) mTextPane.getStyledDocument();
+        SimpleAttributeSet aset = new SimpleAttributeSet();
+        StyleConstants.setBackground(aset, mPink);
+        ArrayList<String[]> disputed = new ArrayList<String[]>();
+        for (String[] tag : agreements) {
+            if (!AnnotationMerger.isDisputed(tag[4], tag[5])) {
+                continue;
+            }
+            disputed.add(new String[]{tag[0], tag[1], tag[2], tag[3]});
+            if (tag[2].length() > 0) {
+                for (int[] span : parseSpansString(tag[2])) {
+                    if (span[0] >= 0 && span[1] > span[0]) {
+                        styleDoc.setCharacterAttributes(
+                                span[0], span[1] - span[0], aset, false);
+                    }
+                }
+            }
+        }
+        if (disputed.size() > 0) {
+            showQueryResults(disputed);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the annotations next to an XML file just saved,
+     * so that the file opens without XML parsing next time.
+     * A failed snapshot is removed, the XML file is read then.
+     */
+    private void writeSnapshot(File xml) {
+        try {
+            AnnotationSnapshot.write(xml, mTextPane.getStyledDocument(),
+                    mElementTables, mTask.getElements(), mTask.getDTDName());
+        } catch (Exception e) {
+            e.printStackTrace();
+            AnnotationSnapshot.getSnapshotFile(xml).delete();
+        }
+    }
+
+    /**
+     * Shows a warning when there are links with empty arguments.
+     *
+     * @return true if there is no such link, or the user wants to
+     * continue anyway
+     */
+    private boolean showUnfinishedLinksWarning() {
+        if (mUnderspecified.size() == 0) {
+            return true;
+        }
+        HashCollection<String, String> links = mUnderspecified.getAll();
+        StringBuilder text = new StringBuilder(String.format(
+                "%d link tag(s) still have empty arguments:\n",
+                mUnderspecified.size()));
+        for (String linkType : links.keySet()) {
+            List<String> ids = links.get(linkType);
+            text.append(String.format("  %s: ", linkType));
+            // do not make the dialog too long
+            int shown = Math.min(ids.size(), 5);
+            text.append(ids.subList(0, shown).toString());
+            if (shown < ids.size()) {
+                text.append(String.format(" and %d more", ids.size() - shown));
+            }
+            text.append("\n");
+        }
+        text.append("Would you like to save anyway?");
+
+        int message = JOptionPane.showConfirmDialog(mMainFrame,
+                text.toString(), "Warning!",
+                JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+
+        return message == 0;
+    }
+
     /**
      * Shows information about MAE
      */
@@ -2576,6 +3835,12 @@ public class MaeMain extends JPanel {
         }
         menu.add(loadFile);
 
+        JMenuItem mergeFiles = new JMenuItem("Merge Files...");
+        mergeFiles.setActionCommand("Merge Files");
+        mergeFiles.addActionListener(new FileMenuListener());
+        mergeFiles.setEnabled(mTask.hasDTD());
+        menu.add(mergeFiles);
+
         menu.addSeparator();
         JMenuItem saveFileRTF = new JMenuItem("Create RTF");
         saveFileRTF.setActionCommand("Save RTF");
@@ -2603,6 +3868,50 @@ public class MaeMain extends JPanel {
         return menu;
     }
 
+    /**
+     * Creates the Edit menu for the top bar, names of edits to undo and
+     * redo are filled when the menu opens
+     *
+     * @return JMenu with undo and redo
+     */
+    private JMenu createEditMenu(String menuTitle) {
+        JMenu menu = new JMenu(menuTitle);
+        final JMenuItem undo = new JMenuItem("Undo");
+        undo.setActionCommand("Undo");
+        undo.addActionListener(new EditMenuListener());
+        undo.setAccelerator(MaeHotKeys.UNDOEDIT);
+        menu.add(undo);
+
+        final JMenuItem redo = new JMenuItem("Redo");
+        redo.setActionCommand("Redo");
+        redo.addActionListener(new EditMenuListener());
+        redo.setAccelerator(MaeHotKeys.REDOEDIT);
+        menu.add(redo);
+
+        menu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                undo.setText(mHistory.canUndo() ? "Undo " + mHistory.getUndoName() : "Undo");
+                undo.setEnabled(mHistory.canUndo());
+                redo.setText(mHistory.canRedo() ? "Redo " + mHistory.getRedoName() : "Redo");
+                redo.setEnabled(mHistory.canRedo());
+            }
+
+            // shortcut keys of disabled items do not work
+            @Override
+            public void menuDeselected(MenuEvent e) {
+                undo.setEnabled(true);
+                redo.setEnabled(true);
+            }
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
+                menuDeselected(e);
+            }
+        });
+        return menu;
+    }
+
     /**
      * Creates the Display menu for the top bar
      *
@@ -2810,6 +4119,84 @@ public class MaeMain extends JPanel {
         return menu;
     }
 
+    /**
+     * Creates the Tools menu for the top bar
+     *
+     * @return JMenu with tools working on the whole document
+     */
+    private JMenu createToolsMenu(String menuTitle) {
+        JMenu menu = new JMenu(menuTitle);
+        JMenuItem find = new JMenuItem("Find...");
+        find.setActionCommand("Find");
+        find.addActionListener(new ToolsMenuListener());
+        find.setAccelerator(MaeHotKeys.FIND);
+        menu.add(find);
+
+        JMenuItem query = new JMenuItem("Query Tags...");
+        query.setActionCommand("Query");
+        query.addActionListener(new ToolsMenuListener());
+        menu.add(query);
+
+        JMenuItem compare = new JMenuItem("Compare Files...");
+        compare.setActionCommand("Compare");
+        compare.addActionListener(new ToolsMenuListener());
+        compare.setEnabled(mTask.hasDTD());
+        menu.add(compare);
+        menu.add(createChainsMenu("Link Chains"));
+        menu.addSeparator();
+
+        JMenuItem preAnnotate = new JMenuItem("Pre-annotate with Dictionary...");
+        preAnnotate.setActionCommand("Pre-annotate");
+        preAnnotate.addActionListener(new ToolsMenuListener());
+        if (mTask.getExtNames().size() == 0) {
+            preAnnotate.setEnabled(false);
+        }
+        menu.add(preAnnotate);
+
+        JMenuItem regexRules = new JMenuItem("Pre-annotate with Regex Rules...");
+        regexRules.setActionCommand("Regex rules");
+        regexRules.addActionListener(new ToolsMenuListener());
+        if (mTask.getExtNames().size() == 0) {
+            regexRules.setEnabled(false);
+        }
+        menu.add(regexRules);
+        return menu;
+    }
+
+    /**
+     * Creates the sub menu to pick link types that make chains of extents
+     *
+     * @return JMenu with a check box for each link type
+     */
+    private JMenu createChainsMenu(String menuTitle) {
+        JMenu menu = new JMenu(menuTitle);
+        ArrayList<String> linkNames = mTask.getLinkNames();
+        if (linkNames.size() == 0) {
+            menu.setEnabled(false);
+            return menu;
+        }
+        for (final String linkName : linkNames) {
+            final JCheckBoxMenuItem chained = new JCheckBoxMenuItem(linkName);
+            chained.setSelected(mChains.isChained(linkName));
+            chained.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent actionEvent) {
+                    mChains.setChained(linkName, chained.isSelected());
+                    if (mChainPanel.isVisible()) {
+                        mChainPanel.open();
+                    }
+                }
+            });
+            menu.add(chained);
+        }
+        menu.addSeparator();
+        JMenuItem browse = new JMenuItem("Browse Chains...");
+        browse.setActionCommand("Chains");
+        browse.addActionListener(new ToolsMenuListener());
+        menu.add(browse);
+        return menu;
+    }
+
     /**
      * creates a grayed-out menu item that informs user of something
      * @param menu parent menu to which 'guide' goes in
@@ -2831,6 +4218,10 @@ public class MaeMain extends JPanel {
         fileMenu.setMnemonic(MaeHotKeys.FILEMENU);
         mMenuBar.add(fileMenu);
 
+        JMenu editMenu = createEditMenu("Edit");
+        editMenu.setMnemonic(MaeHotKeys.EDITMENU);
+        mMenuBar.add(editMenu);
+
         // some menus are used only after a file is loaded
         if (isFileOpen) {
             JMenu displayMenu = createDisplayMenu("Display");
@@ -2845,6 +4236,9 @@ public class MaeMain extends JPanel {
             JMenu modeMenu = createModeMenu("Modes");
             modeMenu.setMnemonic(MaeHotKeys.MODEMENU);
             mMenuBar.add(modeMenu);
+            JMenu toolsMenu = createToolsMenu("Tools");
+            toolsMenu.setMnemonic(MaeHotKeys.TOOLSMENU);
+            mMenuBar.add(toolsMenu);
         }
 
         JMenu helpMenu = createHelpMenu("Help");
@@ -2888,6 +4282,18 @@ public class MaeMain extends JPanel {
         return spans;
     }
 
+    /**
+     * Packs start and end pairs of spans into a single array
+     */
+    private int[] packSpans(ArrayList<int[]> spans) {
+        int[] packed = new int[spans.size() * 2];
+        for (int i = 0; i < spans.size(); i++) {
+            packed[i * 2] = spans.get(i)[0];
+            packed[i * 2 + 1] = spans.get(i)[1];
+        }
+        return packed;
+    }
+
     /**
      * Takes an array of integer pairs, then merge it into a string. Each span
      * separated by SPANSEPARATOR start and end point of each span joined with
@@ -2936,6 +4342,36 @@ public class MaeMain extends JPanel {
         }
     }
 
+    /**
+     * Highlights all other extents in the chain of an extent,
+     * or moves the chain bar to the extent when the bar is open
+     *
+     * @param hl highlighter of the text pane
+     * @param id extent ID
+     */
+    private void highlightChain(Highlighter hl, String id) {
+        if (mChains.getLinkTypes().size() == 0) {
+            return;
+        }
+        if (mChainPanel.isVisible() && mChainPanel.openAt(id)) {
+            return;
+        }
+        ArrayList<String> chain = mChains.getChain(id);
+        if (chain.size() < 2) {
+            return;
+        }
+        for (String memberId : chain) {
+            if (!memberId.equals(id)) {
+                ArrayList<int[]> memberSpans = mTask.getLocByID(memberId);
+                if (memberSpans != null) {
+                    highlightTextSpans(hl, memberSpans, mCyanHL);
+                }
+            }
+        }
+        mStatusScheduler.post(String.format(
+                "%s is in a chain of %d extents", id, chain.size()), 3000);
+    }
+
     /** make a list all extent elements in mSpan */
     private void updateArgList() {
         mPossibleArgIds.clear();
@@ -2961,35 +4397,35 @@ public class MaeMain extends JPanel {
         }
     }
 
-    /** Updates the status bar */
+    /** Updates the status bar to tell the current mode and selection */
     private void updateStatusBar() {
         if (!mTask.hasDTD()) {
-            mStatusBar.setText(MaeStrings.SB_NODTD);
+            mStatusScheduler.post(MaeStrings.SB_NODTD);
         } else if (!isFileOpen) {
-            mStatusBar.setText(MaeStrings.SB_NOFILE);
+            mStatusScheduler.post(MaeStrings.SB_NOFILE);
         } else {
             switch (mMode) {
                 case M_NORMAL:
                     if (isSpansEmpty()) {
-                        mStatusBar.setText(MaeStrings.SB_NOTEXT);
+                        mStatusScheduler.post(MaeStrings.SB_NOTEXT);
                     } else {
-                        mStatusBar.setText(MaeStrings.SB_TEXT
+                        mStatusScheduler.post(MaeStrings.SB_TEXT
                                 + spansToString(this.mSpans));
                     }
                     break;
                 case M_MULTI_SPAN:
                     if (isSpansEmpty()) {
-                        mStatusBar.setText(
+                        mStatusScheduler.post(
                                 MaeStrings.SB_MSPAN_NOTEXT);
                     } else {
-                        mStatusBar.setText(String.format(
+                        mStatusScheduler.post(String.format(
                                 MaeStrings.SB_MSPAN_TEXT +
                                 spansToString(this.mSpans)));
                     }
                     break;
                 case M_ARG_SEL:
                     if (isSpansEmpty()) {
-                        mStatusBar.setText(MaeStrings.SB_MARGS_NOTAG);
+                        mStatusScheduler.post(MaeStrings.SB_MARGS_NOTAG);
                     } else {
                         ArrayList<String> argList = new ArrayList<String>();
                         for (String id : mPossibleArgIds) {
@@ -2998,7 +4434,7 @@ public class MaeMain extends JPanel {
                                     , getTextByID(
                                     mTask.getElemNameById(id), id, false)));
                         }
-                        mStatusBar.setText(String.format(
+                        mStatusScheduler.post(String.format(
                                 MaeStrings.SB_MARGS_TAG
                                 , mPossibleArgIds.size(), argList.toString()));
                     }
@@ -3025,8 +4461,7 @@ public class MaeMain extends JPanel {
     private void returnToNormalMode() {
 
         if (mMode != M_NORMAL) {
-            mStatusBar.setText(MaeStrings.SB_NORM_MODE);
-            new Timer().schedule(new TimedUpdateStatusBar(), 3000);
+            mStatusScheduler.post(MaeStrings.SB_NORM_MODE, 3000);
         }
         mMode = M_NORMAL;
 
@@ -3072,6 +4507,37 @@ public class MaeMain extends JPanel {
 
     /** Main */
     public static void main(String[] args) {
+        // headless tools
+        if (args.length > 0 && args[0].equals("stats")) {
+            System.exit(CorpusStats.run(Arrays.copyOfRange(args, 1, args.length)));
+        } else if (args.length > 0 && args[0].equals("agree")) {
+            System.exit(Agreement.run(Arrays.copyOfRange(args, 1, args.length)));
+        } else if (args.length > 0 && args[0].equals("merge")) {
+            System.exit(AnnotationMerger.run(Arrays.copyOfRange(args, 1, args.length)));
+        } else if (args.length > 0 && args[0].equals("diff")) {
+            System.exit(AnnotationDiff.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        // options for the session DB, see AnnotDB
+        int profile = AnnotDB.parseProfile(AnnotDB.getProfileName());
+        int cacheSize = AnnotDB.getCacheSize();
+        for (String arg : args) {
+            if (arg.startsWith("--db-profile=")) {
+                profile = AnnotDB.parseProfile(arg.substring("--db-profile=".length()));
+                if (profile < 0) {
+                    System.err.println("unknown DB profile, use memory, normal, wal or full: " + arg);
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--db-cache=")) {
+                try {
+                    cacheSize = Integer.parseInt(arg.substring("--db-cache=".length()));
+                } catch (NumberFormatException e) {
+                    System.err.println("cache size must be a number of pages: " + arg);
+                    System.exit(1);
+                }
+            }
+        }
+        AnnotDB.configure(profile, cacheSize);
+
         javax.swing.SwingUtilities.invokeLater(
                 new Runnable() {
                     public void run() {
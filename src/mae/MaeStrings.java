@@ -51,14 +51,18 @@ public class MaeStrings {
     final static String SPANDELIMITER = "~";
     final static String SPANSEPARATOR = ",";
     final static String SPANTEXTTRUNC = " ... ";
-    final static String LONGTEXTTRUNC = " … ";
+    final static String LONGTEXTTRUNC = " \u2026 ";
     final static String ADD_NC_COMMAND = "ADDNC:";
     final static String ADD_LINK_COMMAND = "ADDLINK:";
     final static String ADD_LINK_WITH_ARGS_COMMAND = "ADDLINKARGS:";
     final static String ALL_TABLE_BACK_NAME = new Object().toString();
     final static String ALL_TABLE_FRONT_NAME = "All Extents";
+    final static String QUERY_TABLE_NAME = "Query Results";
     final static String SEP = "@#";
     final static String ID_SUF = "ID";
+    // marks on tags of a merged file, see AnnotationMerger
+    final static String AGREEMENT_ATT = "agreement";
+    final static String DISAGREEMENT_ATT = "disagreement";
 
 
     /*
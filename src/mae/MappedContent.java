@@ -0,0 +1,177 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+import java.nio.CharBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only content of a document, backed by UTF-16 chars of a memory
+ * mapped file (see AnnotationSnapshot) instead of a char array on the heap.
+ * Chars are copied out of the mapped file in pages when they are asked for,
+ * and only a few recently used pages are kept.
+ * A content can also be made over the char array an XML file was read into
+ * (see XMLFileLoader), then segments point into the array itself.
+ * The primary text is never edited in MAE, so inserting and removing
+ * throw BadLocationException, and positions never move.
+ */
+class MappedContent implements AbstractDocument.Content {
+
+    private static final int PAGE_SIZE = 1 << 14;
+    private static final int CACHE_PAGES = 64;
+
+    private CharBuffer mChars;
+    // length of the text, without the implied newline at the end
+    private int mLength;
+    private LinkedHashMap<Integer, char[]> mPages;
+
+    /**
+     * A position in a content that never changes
+     */
+    private static class FixedPosition implements Position {
+        private final int mOffset;
+
+        FixedPosition(int offset) {
+            mOffset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return mOffset;
+        }
+    }
+
+    /**
+     * @param chars text, from its position to its limit
+     */
+    MappedContent(CharBuffer chars) {
+        mChars = chars.slice();
+        mLength = mChars.remaining();
+        mPages = new LinkedHashMap<Integer, char[]>(CACHE_PAGES * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+                return size() > CACHE_PAGES;
+            }
+        };
+    }
+
+    /**
+     * @return the text as a read-only sequence over the mapped file, without copying it
+     */
+    CharSequence getCharSequence() {
+        return mChars.asReadOnlyBuffer();
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        return new FixedPosition(offset);
+    }
+
+    @Override
+    public int length() {
+        return mLength + 1;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        throw new BadLocationException("mapped content cannot be edited", where);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        throw new BadLocationException("mapped content cannot be edited", where);
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment txt = new Segment();
+        getChars(where, len, txt);
+        return new String(txt.array, txt.offset, txt.count);
+    }
+
+    /**
+     * Points the segment into the backing array if there is one, or into
+     * a cached page when the chars are on a single page, or when the
+     * segment takes a partial return. Otherwise the chars are copied to
+     * a new array.
+     */
+    @Override
+    public synchronized void getChars(int where, int len, Segment txt)
+            throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length()) {
+            throw new BadLocationException("Invalid location", where + len);
+        }
+        if (mChars.hasArray() && where + len <= mLength) {
+            txt.array = mChars.array();
+            txt.offset = mChars.arrayOffset() + where;
+            txt.count = len;
+            return;
+        }
+        int page = where / PAGE_SIZE;
+        int offset = where - page * PAGE_SIZE;
+        char[] chars = getPage(page);
+        if (offset + len <= chars.length || txt.isPartialReturn()) {
+            txt.array = chars;
+            txt.offset = offset;
+            txt.count = Math.min(len, chars.length - offset);
+            return;
+        }
+        chars = new char[len];
+        copy(where, chars, len);
+        txt.array = chars;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    private char[] getPage(int page) {
+        char[] chars = mPages.get(page);
+        if (chars == null) {
+            int start = page * PAGE_SIZE;
+            chars = new char[Math.min(PAGE_SIZE, length() - start)];
+            copy(start, chars, chars.length);
+            mPages.put(page, chars);
+        }
+        return chars;
+    }
+
+    /**
+     * Copies chars from the mapped text, and the implied newline
+     */
+    private void copy(int where, char[] chars, int len) {
+        int mapped = Math.max(0, Math.min(len, mLength - where));
+        CharBuffer text = mChars.duplicate();
+        text.position(where);
+        text.get(chars, 0, mapped);
+        if (mapped < len) {
+            chars[mapped] = '\n';
+        }
+    }
+}
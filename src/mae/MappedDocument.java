@@ -0,0 +1,103 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleContext;
+import java.util.ArrayList;
+
+/**
+ * A styled document over a MappedContent, for the primary text of an
+ * annotated file, read from its snapshot or its XML. The text is not
+ * inserted into the document, paragraphs are made up front from the lines
+ * of the content, so the text is never copied to the heap as a whole.
+ * Styles (colors of tags) can be set as usual, but the text cannot be
+ * edited.
+ */
+class MappedDocument extends DefaultStyledDocument {
+
+    private static final long serialVersionUID = 1L;
+
+    MappedDocument(MappedContent content) {
+        super(content, new StyleContext());
+    }
+
+    CharSequence getCharSequence() {
+        return ((MappedContent) getContent()).getCharSequence();
+    }
+
+    /**
+     * Makes a paragraph for each line of the content, which is already
+     * there when this is called from the constructor
+     */
+    @Override
+    protected AbstractDocument.BranchElement createDefaultRoot() {
+        writeLock();
+        try {
+            BranchElement section = new SectionElement();
+            Content content = getContent();
+            ArrayList<Element> paragraphs = new ArrayList<Element>();
+            // paragraphs take the default style, as the logical style of
+            // a paragraph is passed on to new ones when text is inserted
+            SimpleAttributeSet style = new SimpleAttributeSet();
+            style.setResolveParent(((StyleContext) getAttributeContext())
+                    .getStyle(StyleContext.DEFAULT_STYLE));
+            Segment segment = new Segment();
+            segment.setPartialReturn(true);
+            int start = 0;
+            int offset = 0;
+            while (offset < content.length()) {
+                content.getChars(offset, content.length() - offset, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] == '\n') {
+                        int end = offset + i + 1;
+                        paragraphs.add(createParagraph(section, style, start, end));
+                        start = end;
+                    }
+                }
+                offset += segment.count;
+            }
+            section.replace(0, 0, paragraphs.toArray(new Element[paragraphs.size()]));
+            return section;
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    private Element createParagraph(BranchElement section, AttributeSet style,
+                                    int start, int end) {
+        BranchElement paragraph = (BranchElement) createBranchElement(section, style);
+        paragraph.replace(0, 0, new Element[]{createLeafElement(paragraph, null, start, end)});
+        return paragraph;
+    }
+}
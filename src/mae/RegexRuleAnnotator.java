@@ -0,0 +1,270 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Finds candidate extent tags in a text with regular expressions.
+ * Rules are read from a UTF-8 text file, one rule per line:
+ * an extent element name, a regular expression, and optionally
+ * attribute templates as 'name=template', all separated by tabs.
+ * In a template, $0 to $9 are replaced with groups of the match, and
+ * \$ is a literal dollar sign. Blank lines and lines starting with '#'
+ * are ignored.
+ *
+ * A text is scanned in chunks of CHUNK_SIZE characters, so that chunks
+ * can be scanned in parallel. Only matches starting within a chunk are
+ * returned, so each match is found once. A chunk scan reads ahead
+ * CHUNK_OVERLAP characters past the chunk. When a match found in the
+ * chunk reaches that limit, and so might go on past it, the chunk is
+ * scanned again reading twice as far, up to MAX_READ_AHEAD characters
+ * past the chunk; a match running further than that is cut there.
+ * A match that needs more than the read-ahead to match at all is not
+ * seen, so it can be missed at the end of a chunk, and rules are meant
+ * for matches shorter than CHUNK_OVERLAP characters. A rule that finds
+ * nothing reads each chunk once.
+ * A chunk scan also starts CHUNK_OVERLAP characters before the chunk, to
+ * fall in step with a scan over the whole text. Only a match starting
+ * more than CHUNK_OVERLAP characters before a chunk and running into it
+ * can leave the two out of step, and then matches at the start of the
+ * chunk may differ from those of a single scan.
+ */
+class RegexRuleAnnotator {
+
+    static final int CHUNK_SIZE = 1 << 16;
+    static final int CHUNK_OVERLAP = 1024;
+    static final int MAX_READ_AHEAD = CHUNK_SIZE;
+
+    /**
+     * A regular expression and the element its matches are tagged with
+     */
+    static class Rule {
+        final String elemName;
+        final Pattern pattern;
+        final String[] attNames;
+        final String[] templates;
+
+        Rule(String elemName, Pattern pattern, String[] attNames, String[] templates) {
+            this.elemName = elemName;
+            this.pattern = pattern;
+            this.attNames = attNames;
+            this.templates = templates;
+        }
+    }
+
+    private ArrayList<Rule> mRules;
+    private int mSkipped;
+
+    RegexRuleAnnotator() {
+        mRules = new ArrayList<Rule>();
+    }
+
+    /**
+     * Reads a rule file
+     *
+     * @param file rule file
+     * @param task annotation task with a DTD, rules for elements other than
+     *             extent elements of it, or with unknown attributes are skipped
+     * @return an annotator with all valid rules of the file
+     * @throws IOException
+     */
+    static RegexRuleAnnotator load(File file, AnnotationTask task)
+            throws IOException {
+        RegexRuleAnnotator annotator = new RegexRuleAnnotator();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                Rule rule = parseRule(line, task);
+                if (rule == null) {
+                    System.err.println("Skipping regex rule: " + line);
+                    annotator.mSkipped++;
+                } else {
+                    annotator.mRules.add(rule);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return annotator;
+    }
+
+    private static Rule parseRule(String line, AnnotationTask task) {
+        String[] fields = line.split("\t");
+        if (fields.length < 2) {
+            return null;
+        }
+        Elem elem = task.getElemByName(fields[0].trim());
+        if (!(elem instanceof ElemExtent)) {
+            return null;
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(fields[1]);
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+        int attNum = fields.length - 2;
+        String[] attNames = new String[attNum];
+        String[] templates = new String[attNum];
+        for (int i = 0; i < attNum; i++) {
+            String field = fields[i + 2];
+            int eq = field.indexOf('=');
+            if (eq < 0) {
+                return null;
+            }
+            attNames[i] = field.substring(0, eq).trim();
+            templates[i] = field.substring(eq + 1);
+            // id, spans and text are given by the match
+            if (elem.getAttributeIndex(attNames[i]) < 0 || attNames[i].equals("id")
+                    || attNames[i].equals("spans") || attNames[i].equals("text")) {
+                return null;
+            }
+        }
+        return new Rule(elem.getName(), pattern, attNames, templates);
+    }
+
+    /**
+     * @return number of rules
+     */
+    int size() {
+        return mRules.size();
+    }
+
+    /**
+     * @return number of rule lines that were not used
+     */
+    int getSkipped() {
+        return mSkipped;
+    }
+
+    /**
+     * @return number of chunks a text of the length is scanned in
+     */
+    static int countChunks(int length) {
+        return Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    /**
+     * Runs all rules over a chunk of a text.
+     * Stops early when the current thread is interrupted.
+     *
+     * @param text the primary text of a document
+     * @param chunk index of the chunk, from 0 to countChunks() - 1
+     * @return matches starting in the chunk
+     */
+    ArrayList<TagCandidate> annotateChunk(CharSequence text, int chunk) {
+        int start = chunk * CHUNK_SIZE;
+        int end = Math.min(text.length(), start + CHUNK_SIZE);
+        ArrayList<TagCandidate> candidates = new ArrayList<TagCandidate>();
+        for (Rule rule : mRules) {
+            int readAhead = CHUNK_OVERLAP;
+            while (!scanChunk(rule, text, start, end, Math.min(text.length(),
+                    end + readAhead), readAhead < MAX_READ_AHEAD, candidates)) {
+                readAhead *= 2;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Runs a rule over a chunk, reading the text up to a limit
+     *
+     * @param canReadMore false if the limit cannot be moved any further
+     * @return false if a match found before the end of the chunk might go on
+     * past the limit, then nothing is added to candidates
+     */
+    private boolean scanChunk(Rule rule, CharSequence text, int start, int end,
+                              int limit, boolean canReadMore,
+                              ArrayList<TagCandidate> candidates) {
+        Matcher m = rule.pattern.matcher(text);
+        // let \b, ^, lookarounds, etc. see outside of the chunk
+        m.useTransparentBounds(true);
+        m.useAnchoringBounds(false);
+        m.region(Math.max(0, start - CHUNK_OVERLAP), limit);
+        boolean isCut = canReadMore && limit < text.length();
+        ArrayList<TagCandidate> found = new ArrayList<TagCandidate>();
+        while (m.find()) {
+            if (m.start() >= end || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            // a failed find() also hits the end, only a match is worth a rescan
+            if (isCut && m.hitEnd()) {
+                return false;
+            }
+            if (m.start() < start || m.end() == m.start()) {
+                continue;
+            }
+            TagCandidate candidate = new TagCandidate(m.start(), m.end(), rule.elemName);
+            for (int i = 0; i < rule.attNames.length; i++) {
+                candidate.setAttribute(rule.attNames[i], expand(m, rule.templates[i]));
+            }
+            found.add(candidate);
+        }
+        candidates.addAll(found);
+        return true;
+    }
+
+    /**
+     * Fills group references in an attribute template with a match
+     */
+    static String expand(Matcher m, String template) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c == '\\' && i + 1 < template.length() && template.charAt(i + 1) == '$') {
+                value.append('$');
+                i++;
+            } else if (c == '$' && i + 1 < template.length()
+                    && Character.isDigit(template.charAt(i + 1))
+                    && template.charAt(i + 1) - '0' <= m.groupCount()) {
+                String group = m.group(template.charAt(i + 1) - '0');
+                if (group != null) {
+                    value.append(group);
+                }
+                i++;
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+}
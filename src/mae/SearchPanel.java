@@ -0,0 +1,364 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A find bar for the main text pane. Queries are answered by a TextIndex
+ * built on the first search in a document, and are run again shortly
+ * after the user stops typing. Hits can be limited to text tagged with an element,
+ * or to untagged text, using locations of extents in the DB; those are
+ * read again only when extents have changed since the last search.
+ */
+class SearchPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+    private static final int SEARCH_DELAY = 150;
+    // hits after this many are counted but not highlighted
+    private static final int MAX_HIGHLIGHTS = 5000;
+    private static final String FILTER_ALL = "All text";
+    private static final String FILTER_UNTAGGED = "Untagged";
+    private static final String FILTER_TAGGED = "Tagged as ";
+
+    private JTextComponent mTextPane;
+    private AnnotationTask mTask;
+    private CharSequence mText;
+    // built on the first search, null until then
+    private TextIndex mIndex;
+
+    private JTextField mQueryField;
+    private JCheckBox mRegexBox;
+    private JCheckBox mCaseBox;
+    private JComboBox<String> mFilterBox;
+    private JLabel mCountLabel;
+    private Timer mSearchTimer;
+
+    private ArrayList<int[]> mHits;
+    private int mCurrent;
+    private ArrayList<Object> mHighlights;
+    private Object mCurrentHighlight;
+    private Highlighter.HighlightPainter mHitPainter;
+    private Highlighter.HighlightPainter mCurrentPainter;
+
+    // element name -> tagged locations, and all tagged locations
+    private HashMap<String, BitSet> mLocations;
+    private BitSet mTaggedLocations;
+    private int mLocationsVersion;
+    // true while the filter box is being refilled
+    private boolean mFillingFilters;
+
+    SearchPanel(JTextComponent textPane, AnnotationTask task) {
+        super(new FlowLayout(FlowLayout.LEFT, 4, 2));
+        mTextPane = textPane;
+        mTask = task;
+        mHits = new ArrayList<int[]>();
+        mHighlights = new ArrayList<Object>();
+        mHitPainter = new DefaultHighlighter.DefaultHighlightPainter(new Color(255, 240, 120));
+        mCurrentPainter = new DefaultHighlighter.DefaultHighlightPainter(new Color(255, 160, 60));
+
+        mQueryField = new JTextField(24);
+        mRegexBox = new JCheckBox("Regex");
+        mCaseBox = new JCheckBox("Match case");
+        mFilterBox = new JComboBox<String>();
+        mFilterBox.addItem(FILTER_ALL);
+        mCountLabel = new JLabel();
+        JButton prev = new JButton("<");
+        JButton next = new JButton(">");
+        JButton close = new JButton("x");
+
+        mSearchTimer = new Timer(SEARCH_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                search();
+            }
+        });
+        mSearchTimer.setRepeats(false);
+        mQueryField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                mSearchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                mSearchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        ActionListener research = new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (!mFillingFilters && isVisible()) {
+                    search();
+                }
+            }
+        };
+        mRegexBox.addActionListener(research);
+        mCaseBox.addActionListener(research);
+        mFilterBox.addActionListener(research);
+        prev.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showHit(mCurrent - 1);
+            }
+        });
+        next.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showHit(mCurrent + 1);
+            }
+        });
+        close.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                close();
+            }
+        });
+
+        // enter and shift-enter go through hits, escape closes
+        InputMap inputs = mQueryField.getInputMap();
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "next");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, KeyEvent.SHIFT_DOWN_MASK), "prev");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "close");
+        mQueryField.getActionMap().put("next", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (mSearchTimer.isRunning()) {
+                    search();
+                } else {
+                    showHit(mCurrent + 1);
+                }
+            }
+        });
+        mQueryField.getActionMap().put("prev", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showHit(mCurrent - 1);
+            }
+        });
+        mQueryField.getActionMap().put("close", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                close();
+            }
+        });
+
+        add(new JLabel("Find:"));
+        add(mQueryField);
+        add(prev);
+        add(next);
+        add(mRegexBox);
+        add(mCaseBox);
+        add(mFilterBox);
+        add(mCountLabel);
+        add(close);
+        setVisible(false);
+    }
+
+    /**
+     * Sets the text of a newly loaded document, it is indexed when searched first
+     *
+     * @param text the primary text, null when no document is open
+     */
+    void setText(CharSequence text) {
+        clearHighlights();
+        mHits.clear();
+        mText = text;
+        mIndex = null;
+        mLocations = null;
+        mCountLabel.setText("");
+    }
+
+    /**
+     * Fills the filter box with extent elements of the task
+     */
+    void setElements(List<String> extNames) {
+        mFillingFilters = true;
+        mFilterBox.removeAllItems();
+        mFilterBox.addItem(FILTER_ALL);
+        mFilterBox.addItem(FILTER_UNTAGGED);
+        for (String extName : extNames) {
+            mFilterBox.addItem(FILTER_TAGGED + extName);
+        }
+        mFillingFilters = false;
+    }
+
+    /**
+     * Shows the panel and moves focus to the query field
+     */
+    void open() {
+        setVisible(true);
+        mQueryField.selectAll();
+        mQueryField.requestFocusInWindow();
+        if (mQueryField.getText().length() > 0) {
+            search();
+        }
+    }
+
+    void close() {
+        mSearchTimer.stop();
+        clearHighlights();
+        setVisible(false);
+        mTextPane.requestFocusInWindow();
+    }
+
+    /**
+     * Runs the query, filters hits by tags, and highlights them
+     */
+    void search() {
+        mSearchTimer.stop();
+        clearHighlights();
+        mHits.clear();
+        mCurrent = -1;
+        String query = mQueryField.getText();
+        if (mText == null || query.length() == 0) {
+            mCountLabel.setText("");
+            return;
+        }
+        if (mIndex == null) {
+            mIndex = new TextIndex(mText);
+        }
+        ArrayList<int[]> hits;
+        if (mRegexBox.isSelected()) {
+            try {
+                hits = mIndex.find(Pattern.compile(query,
+                        mCaseBox.isSelected() ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+            } catch (PatternSyntaxException e) {
+                mCountLabel.setText("invalid regex");
+                return;
+            }
+        } else {
+            hits = mIndex.find(query, mCaseBox.isSelected());
+        }
+        filter(hits);
+        mCountLabel.setText(String.format("%d found", mHits.size()));
+        highlightHits();
+        showHit(0);
+    }
+
+    private void filter(ArrayList<int[]> hits) {
+        String filter = (String) mFilterBox.getSelectedItem();
+        if (filter == null || filter.equals(FILTER_ALL)) {
+            mHits.addAll(hits);
+            return;
+        }
+        loadLocations();
+        boolean untagged = filter.equals(FILTER_UNTAGGED);
+        BitSet tagged = untagged ? mTaggedLocations
+                : mLocations.get(filter.substring(FILTER_TAGGED.length()));
+        if (tagged == null) {
+            tagged = new BitSet();
+        }
+        for (int[] hit : hits) {
+            int loc = tagged.nextSetBit(hit[0]);
+            boolean overlaps = loc >= 0 && loc < hit[1];
+            if (overlaps != untagged) {
+                mHits.add(hit);
+            }
+        }
+    }
+
+    private void loadLocations() {
+        if (mLocations != null && mLocationsVersion == mTask.getExtentsVersion()) {
+            return;
+        }
+        mLocations = mTask.getExtentLocations();
+        mLocationsVersion = mTask.getExtentsVersion();
+        mTaggedLocations = new BitSet();
+        for (BitSet locs : mLocations.values()) {
+            mTaggedLocations.or(locs);
+        }
+    }
+
+    private void highlightHits() {
+        Highlighter hl = mTextPane.getHighlighter();
+        // the text pane repaints once for all highlights added here
+        int count = Math.min(mHits.size(), MAX_HIGHLIGHTS);
+        try {
+            for (int i = 0; i < count; i++) {
+                int[] hit = mHits.get(i);
+                mHighlights.add(hl.addHighlight(hit[0], hit[1], mHitPainter));
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void showHit(int index) {
+        if (mHits.size() == 0) {
+            return;
+        }
+        // wrap around at both ends
+        mCurrent = (index + mHits.size()) % mHits.size();
+        int[] hit = mHits.get(mCurrent);
+        Highlighter hl = mTextPane.getHighlighter();
+        try {
+            if (mCurrentHighlight != null) {
+                hl.removeHighlight(mCurrentHighlight);
+            }
+            mCurrentHighlight = hl.addHighlight(hit[0], hit[1], mCurrentPainter);
+            Rectangle2D view = mTextPane.modelToView2D(hit[0]);
+            if (view != null) {
+                mTextPane.scrollRectToVisible(view.getBounds());
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        mCountLabel.setText(String.format("%d of %d", mCurrent + 1, mHits.size()));
+    }
+
+    private void clearHighlights() {
+        Highlighter hl = mTextPane.getHighlighter();
+        for (Object highlight : mHighlights) {
+            hl.removeHighlight(highlight);
+        }
+        mHighlights.clear();
+        if (mCurrentHighlight != null) {
+            hl.removeHighlight(mCurrentHighlight);
+            mCurrentHighlight = null;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * Shows messages on the status bar and puts it back to its default
+ * message (given as a Runnable, e.g. MaeMain.updateStatusBar()) after
+ * a delay. All timing is done by a single javax.swing.Timer, so the
+ * reset always runs on the EDT and no thread is started per message.
+ *
+ * Scheduling a reset while another is pending supersedes the old one,
+ * so that the latest message is shown for its whole delay.
+ * Messages posted from other threads are coalesced: only the latest
+ * one not yet shown is handed over to the EDT. getQueueDepth() and
+ * getCoalescedCount() tell how many updates are pending and how many
+ * were superseded.
+ */
+class StatusBarScheduler {
+
+    private JLabel mStatusBar;
+    private Runnable mResetAction;
+    private Timer mResetTimer;
+
+    // latest message from another thread, waiting to be shown on the EDT
+    private String mQueuedMessage;
+    private int mQueuedDelay;
+    private boolean mDeliveryScheduled;
+    // number of messages dropped because a newer one superseded them
+    private long mCoalesced;
+
+    StatusBarScheduler(JLabel statusBar, Runnable resetAction) {
+        mStatusBar = statusBar;
+        mResetAction = resetAction;
+        mResetTimer = new Timer(0, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                mResetAction.run();
+            }
+        });
+        mResetTimer.setRepeats(false);
+    }
+
+    /**
+     * Shows a message until something else updates the status bar
+     *
+     * @param message text to show
+     */
+    void post(String message) {
+        post(message, -1);
+    }
+
+    /**
+     * Shows a message, then resets the status bar after a delay
+     *
+     * @param message text to show
+     * @param delay milliseconds to show the message, no reset if negative
+     */
+    void post(String message, int delay) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            show(message, delay);
+            return;
+        }
+        synchronized (this) {
+            if (mQueuedMessage != null) {
+                mCoalesced++;
+            }
+            mQueuedMessage = message;
+            mQueuedDelay = delay;
+            if (mDeliveryScheduled) {
+                return;
+            }
+            mDeliveryScheduled = true;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                int delay;
+                synchronized (StatusBarScheduler.this) {
+                    message = mQueuedMessage;
+                    delay = mQueuedDelay;
+                    mQueuedMessage = null;
+                    mDeliveryScheduled = false;
+                }
+                show(message, delay);
+            }
+        });
+    }
+
+    /**
+     * Resets the status bar after a delay, superseding a pending reset.
+     * Must be called on the EDT, as any other Swing call.
+     *
+     * @param delay milliseconds until the reset
+     */
+    void scheduleReset(int delay) {
+        synchronized (this) {
+            if (mResetTimer.isRunning()) {
+                mCoalesced++;
+            }
+        }
+        mResetTimer.setInitialDelay(delay);
+        mResetTimer.restart();
+    }
+
+    /**
+     * Cancels a pending reset and resets the status bar right away
+     */
+    void resetNow() {
+        mResetTimer.stop();
+        mResetAction.run();
+    }
+
+    /**
+     * @return number of updates waiting to be applied: a message from
+     * another thread not yet shown, and a scheduled reset
+     */
+    synchronized int getQueueDepth() {
+        return (mQueuedMessage == null ? 0 : 1) + (mResetTimer.isRunning() ? 1 : 0);
+    }
+
+    /**
+     * @return number of messages and resets superseded by newer ones
+     */
+    synchronized long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    private void show(String message, int delay) {
+        mStatusBar.setText(message);
+        if (delay >= 0) {
+            scheduleReset(delay);
+        } else {
+            mResetTimer.stop();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.util.HashMap;
+
+/**
+ * An extent tag found by a pre-annotator, not yet added to the DB.
+ * Attributes not set here take their default values from the DTD.
+ */
+class TagCandidate {
+
+    final int start;
+    final int end;
+    final String elemName;
+    // attribute name -> value, null when no attribute is given
+    private HashMap<String, String> mAttributes;
+
+    TagCandidate(int start, int end, String elemName) {
+        this.start = start;
+        this.end = end;
+        this.elemName = elemName;
+    }
+
+    void setAttribute(String attName, String value) {
+        if (mAttributes == null) {
+            mAttributes = new HashMap<String, String>();
+        }
+        mAttributes.put(attName, value);
+    }
+
+    HashMap<String, String> getAttributes() {
+        return mAttributes;
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A query over tags in the annotation store, compiled to a single SQL
+ * statement over extents, links and attributes tables of AnnotDB.
+ *
+ * <pre>
+ * query     := element [ 'where' condition { 'and' condition } ]
+ * element   := NAME | '*'
+ * condition := [ 'not' ] ( NAME '=' value      attribute equals
+ *                        | NAME '!=' value     attribute differs
+ *                        | NAME '~' value      attribute contains
+ *                        | NAME 'of' NAME      is an argument of a link type
+ *                        | NAME 'is' NAME      link argument is a tag of a type
+ *                        | NAME 'is' '*'       link argument is filled
+ *                        | 'in' INT '..' INT ) has a location in the range
+ * value     := NAME | INT | quoted string
+ * </pre>
+ * e.g. EVENT where polarity = NEG and arg0 of TLINK
+ *
+ * Keywords are case-insensitive, names are not. Conditions are planned
+ * by how selective they usually are: a positive attribute equality, or
+ * else a location range, drives the query through an index, and the
+ * rest filter its result in order of attribute equalities, arguments,
+ * ranges, substrings, and negations. Values are compared by their codes
+ * in the attribute dictionary, and among equalities the one with fewest
+ * tags, counted on the index of codes, is planned first.
+ */
+class TagQuery {
+
+    // condition kinds, in the order they are planned
+    private static final int COND_EQUALS = 0;
+    private static final int COND_ARG_OF = 1;
+    private static final int COND_ARG_IS = 2;
+    private static final int COND_RANGE = 3;
+    private static final int COND_CONTAINS = 4;
+
+    // column of results
+    static final int RESULT_ID = 0;
+    static final int RESULT_ELEMENT = 1;
+    static final int RESULT_SPANS = 2;
+    static final int RESULT_TEXT = 3;
+
+    /**
+     * A compiled condition, subquery selects ids of tags satisfying it
+     */
+    private static class Condition {
+        int kind;
+        boolean negated;
+        String subquery;
+        List<Object> params = new ArrayList<Object>();
+        // when driving the query
+        String driver;
+        List<Object> driverParams = new ArrayList<Object>();
+
+        // number of tags satisfying an equality
+        int count = Integer.MAX_VALUE;
+
+        int rank() {
+            return negated ? COND_CONTAINS + 1 : kind;
+        }
+    }
+
+    private String mQuery;
+    private String mSql;
+    private List<Object> mParams;
+
+    // tokenizer state
+    private int mPos;
+    private int mTokenStart;
+
+    private AnnotationTask mTask;
+    private Elem mTarget;
+
+    private TagQuery(String query, AnnotationTask task) {
+        mQuery = query;
+        mTask = task;
+        mParams = new ArrayList<Object>();
+    }
+
+    /**
+     * Parses and plans a query
+     *
+     * @param query query string
+     * @param task annotation task, to check element, attribute, and argument names
+     * @return a compiled query
+     * @throws ParseException if the query is malformed or uses unknown names
+     */
+    static TagQuery compile(String query, AnnotationTask task) throws ParseException {
+        TagQuery q = new TagQuery(query, task);
+        q.parse();
+        return q;
+    }
+
+    String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * @return a statement selecting id, element name, spans, and text of tags
+     */
+    String getSql() {
+        return mSql;
+    }
+
+    /**
+     * @return Strings and Integers to bind to the statement, in order
+     */
+    List<Object> getParams() {
+        return mParams;
+    }
+
+    private void parse() throws ParseException {
+        mPos = 0;
+        String target = nextToken();
+        if (target == null) {
+            throw error("element name or * expected");
+        }
+        if (!target.equals("*")) {
+            mTarget = mTask.getElemByName(target);
+            if (mTarget == null) {
+                throw error("unknown element: " + target);
+            }
+        }
+        ArrayList<Condition> conditions = new ArrayList<Condition>();
+        String token = nextToken();
+        if (token != null) {
+            if (!token.equalsIgnoreCase("where")) {
+                throw error("'where' expected");
+            }
+            do {
+                conditions.add(parseCondition());
+                token = nextToken();
+            } while (token != null && token.equalsIgnoreCase("and"));
+            if (token != null) {
+                throw error("'and' expected");
+            }
+        }
+        plan(conditions);
+    }
+
+    private Condition parseCondition() throws ParseException {
+        Condition cond = new Condition();
+        String first = nextToken();
+        if (first != null && first.equalsIgnoreCase("not")) {
+            cond.negated = true;
+            first = nextToken();
+        }
+        if (first == null) {
+            throw error("condition expected");
+        }
+        if (first.equalsIgnoreCase("in")) {
+            int begin = parseInt(nextToken());
+            expect("..");
+            int end = parseInt(nextToken());
+            cond.kind = COND_RANGE;
+            cond.subquery = "SELECT id FROM extents WHERE location >= ? AND location < ?";
+            cond.params.add(begin);
+            cond.params.add(end);
+            cond.driver = "SELECT id, element_name FROM extents "
+                    + "WHERE location >= ? AND location < ?";
+            cond.driverParams.add(begin);
+            cond.driverParams.add(end);
+            if (mTarget != null) {
+                cond.driver += " AND element_name = ?";
+                cond.driverParams.add(mTarget.getName());
+            }
+            cond.driver += " GROUP BY id";
+            return cond;
+        }
+        String op = nextToken();
+        if (op == null) {
+            throw error("operator expected after " + first);
+        }
+        if (op.equals("=") || op.equals("!=") || op.equals("~")) {
+            if (mTarget != null && mTarget.getAttributeIndex(first) < 0) {
+                throw error(String.format("%s has no attribute %s", mTarget.getName(), first));
+            }
+            String value = parseValue(nextToken());
+            if (op.equals("!=")) {
+                cond.negated = !cond.negated;
+            }
+            cond.kind = op.equals("~") ? COND_CONTAINS : COND_EQUALS;
+            AttributeDictionary dict = mTask.getAttributeDictionary();
+            List<Integer> atts;
+            if (mTarget == null) {
+                atts = dict.getAttCodes(first);
+            } else {
+                atts = new ArrayList<Integer>();
+                int att = dict.getAttCode(mTarget.getName(), first);
+                if (att >= 0) {
+                    atts.add(att);
+                }
+            }
+            if (cond.kind == COND_CONTAINS) {
+                cond.subquery = "SELECT id FROM attributes a WHERE a.att IN ("
+                        + placeholders(atts.size()) + ") AND a.code IN "
+                        + "(SELECT code FROM attribute_values "
+                        + "WHERE att = a.att AND value LIKE ? ESCAPE '\\')";
+                cond.params.addAll(atts);
+                cond.params.add("%" + value.replaceAll("([\\\\%_])", "\\\\$1") + "%");
+            } else {
+                // values never seen have no code and match nothing
+                StringBuilder pairs = new StringBuilder("0");
+                cond.count = 0;
+                for (int att : atts) {
+                    int code = dict.getValueCode(att, value);
+                    if (code >= 0) {
+                        pairs.append(" OR a.att = ? AND a.code = ?");
+                        cond.params.add(att);
+                        cond.params.add(code);
+                        cond.count += mTask.countAttributeValue(att, code);
+                    }
+                }
+                cond.subquery = "SELECT id FROM attributes a WHERE " + pairs;
+                cond.driver = "SELECT a.id, n.element_name "
+                        + "FROM attributes a, attribute_names n "
+                        + "WHERE n.att = a.att AND (" + pairs + ")";
+                cond.driverParams.addAll(cond.params);
+            }
+        } else if (op.equalsIgnoreCase("of")) {
+            String linkType = nextToken();
+            Elem link = linkType == null ? null : mTask.getElemByName(linkType);
+            if (!(link instanceof ElemLink)) {
+                throw error("link element expected after 'of'");
+            }
+            int arg = argIndex((ElemLink) link, first);
+            cond.kind = COND_ARG_OF;
+            cond.subquery = String.format(
+                    "SELECT arg%d FROM links WHERE element_name = ? AND arg%d IS NOT NULL",
+                    arg, arg);
+            cond.params.add(link.getName());
+        } else if (op.equalsIgnoreCase("is")) {
+            if (!(mTarget instanceof ElemLink)) {
+                throw error("'is' can only be used with a link element");
+            }
+            int arg = argIndex((ElemLink) mTarget, first);
+            String type = nextToken();
+            if (type == null) {
+                throw error("element name or * expected after 'is'");
+            }
+            cond.kind = COND_ARG_IS;
+            if (type.equals("*")) {
+                cond.subquery = String.format(
+                        "SELECT id FROM links WHERE element_name = ? AND arg%d IS NOT NULL",
+                        arg);
+                cond.params.add(mTarget.getName());
+            } else {
+                if (mTask.getElemByName(type) == null) {
+                    throw error("unknown element: " + type);
+                }
+                cond.subquery = String.format(
+                        "SELECT id FROM links WHERE element_name = ? AND arg%d_name = ?",
+                        arg);
+                cond.params.add(mTarget.getName());
+                cond.params.add(type);
+            }
+        } else {
+            throw error("unknown operator: " + op);
+        }
+        return cond;
+    }
+
+    /**
+     * Picks a driving subquery and orders the rest of the conditions
+     */
+    private void plan(ArrayList<Condition> conditions) {
+        Collections.sort(conditions, new Comparator<Condition>() {
+            @Override
+            public int compare(Condition a, Condition b) {
+                if (a.rank() != b.rank()) {
+                    return a.rank() - b.rank();
+                }
+                return a.count < b.count ? -1 : (a.count == b.count ? 0 : 1);
+            }
+        });
+        String driver = null;
+        for (Condition cond : conditions) {
+            if (!cond.negated && cond.driver != null) {
+                driver = cond.driver;
+                mParams.addAll(cond.driverParams);
+                conditions.remove(cond);
+                break;
+            }
+        }
+        if (driver == null) {
+            if (mTarget instanceof ElemExtent) {
+                driver = "SELECT id, element_name FROM extents "
+                        + "WHERE element_name = ? GROUP BY id";
+                mParams.add(mTarget.getName());
+            } else if (mTarget instanceof ElemLink) {
+                driver = "SELECT id, element_name FROM links WHERE element_name = ?";
+                mParams.add(mTarget.getName());
+            } else {
+                driver = "SELECT id, element_name FROM extents GROUP BY id "
+                        + "UNION SELECT id, element_name FROM links";
+            }
+        }
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT t.id, t.element_name, ");
+        sql.append(selectValue("spans")).append(", ");
+        sql.append(selectValue("text")).append(" ");
+        sql.append("FROM (").append(driver).append(") t");
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition cond = conditions.get(i);
+            sql.append(i == 0 ? " WHERE " : " AND ");
+            sql.append(cond.negated ? "t.id NOT IN (" : "t.id IN (");
+            sql.append(cond.subquery).append(")");
+            mParams.addAll(cond.params);
+        }
+        sql.append(" ORDER BY t.element_name, t.id;");
+        mSql = sql.toString();
+    }
+
+    /**
+     * @return a subquery selecting a value of the current tag, t
+     */
+    private static String selectValue(String attName) {
+        return "(SELECT v.value FROM attributes a, attribute_values v "
+                + "WHERE a.id = t.id AND v.att = a.att AND v.code = a.code AND a.att IN "
+                + "(SELECT att FROM attribute_names WHERE name = '" + attName + "'))";
+    }
+
+    private static String placeholders(int n) {
+        StringBuilder marks = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            marks.append(i == 0 ? "?" : ", ?");
+        }
+        return marks.toString();
+    }
+
+    private int argIndex(ElemLink link, String argName) throws ParseException {
+        int arg = link.getArguments().indexOf(argName);
+        if (arg < 0) {
+            throw error(String.format("%s has no argument %s", link.getName(), argName));
+        }
+        return arg;
+    }
+
+    private int parseInt(String token) throws ParseException {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw error("number expected");
+        }
+    }
+
+    private String parseValue(String token) throws ParseException {
+        if (token == null) {
+            throw error("value expected");
+        }
+        if (token.startsWith("\"") || token.startsWith("'")) {
+            return token.substring(1, token.length() - 1).replaceAll("\\\\(.)", "$1");
+        }
+        return token;
+    }
+
+    private void expect(String expected) throws ParseException {
+        String token = nextToken();
+        if (token == null || !token.equals(expected)) {
+            throw error("'" + expected + "' expected");
+        }
+    }
+
+    private ParseException error(String message) {
+        return new ParseException(
+                String.format("%s at %d: %s", message, mTokenStart, mQuery), mTokenStart);
+    }
+
+    /**
+     * Reads the next token: a name, a quoted string with quotes,
+     * an operator, or '..'
+     *
+     * @return null at the end of the query
+     */
+    private String nextToken() throws ParseException {
+        while (mPos < mQuery.length() && Character.isWhitespace(mQuery.charAt(mPos))) {
+            mPos++;
+        }
+        mTokenStart = mPos;
+        if (mPos == mQuery.length()) {
+            return null;
+        }
+        char c = mQuery.charAt(mPos);
+        if (c == '"' || c == '\'') {
+            int end = mPos + 1;
+            while (end < mQuery.length() && mQuery.charAt(end) != c) {
+                end += mQuery.charAt(end) == '\\' ? 2 : 1;
+            }
+            if (end >= mQuery.length()) {
+                throw error("unterminated string");
+            }
+            mPos = end + 1;
+        } else if (mQuery.startsWith("!=", mPos) || mQuery.startsWith("..", mPos)) {
+            mPos += 2;
+        } else if (c == '=' || c == '~' || c == '*') {
+            mPos++;
+        } else if (isNameChar(c)) {
+            while (mPos < mQuery.length() && isNameChar(mQuery.charAt(mPos))) {
+                mPos++;
+            }
+        } else {
+            throw error("unexpected character '" + c + "'");
+        }
+        return mQuery.substring(mTokenStart, mPos);
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == ':';
+    }
+}
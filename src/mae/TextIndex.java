@@ -0,0 +1,180 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Trigram index over the primary text of a document, built the first time
+ * the document is searched, for finding substrings without scanning the text.
+ *
+ * Every position of the text is put in a bucket by a hash of the three
+ * lower-cased characters starting there. Buckets are stored as one array
+ * of positions, sorted by bucket and then by position. A query is looked
+ * up in the smallest bucket of its trigrams, and each candidate position
+ * is checked against the text, which also sorts out hash collisions.
+ * Queries shorter than three characters and regular expressions are
+ * answered by scanning the text. The text can be any CharSequence, such
+ * as the mapped text of a MappedDocument, and is not copied; characters
+ * are lower-cased one at a time as they are read.
+ */
+class TextIndex {
+
+    private static final int GRAM = 3;
+    private static final int BUCKET_BITS = 20;
+
+    private CharSequence mText;
+    // positions of bucket b are mPositions[mBucketStarts[b]..mBucketStarts[b + 1]]
+    private int[] mBucketStarts;
+    private int[] mPositions;
+    private int mBucketBits;
+
+    TextIndex(CharSequence text) {
+        mText = text;
+        int grams = Math.max(0, text.length() - GRAM + 1);
+        mBucketBits = Math.min(BUCKET_BITS,
+                Math.max(4, 32 - Integer.numberOfLeadingZeros(grams)));
+        int buckets = 1 << mBucketBits;
+        mBucketStarts = new int[buckets + 1];
+        for (int i = 0; i < grams; i++) {
+            mBucketStarts[bucketAt(text, i) + 1]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            mBucketStarts[b + 1] += mBucketStarts[b];
+        }
+        mPositions = new int[grams];
+        int[] next = new int[buckets];
+        System.arraycopy(mBucketStarts, 0, next, 0, buckets);
+        for (int i = 0; i < grams; i++) {
+            mPositions[next[bucketAt(text, i)]++] = i;
+        }
+    }
+
+    CharSequence getText() {
+        return mText;
+    }
+
+    /**
+     * Finds all occurrences of a string, overlapping ones included
+     *
+     * @param query string to find
+     * @param matchCase if false, case is ignored
+     * @return start-end pairs of occurrences, sorted by start
+     */
+    ArrayList<int[]> find(String query, boolean matchCase) {
+        ArrayList<int[]> hits = new ArrayList<int[]>();
+        int length = query.length();
+        if (length == 0) {
+            return hits;
+        }
+        String folded = fold(query);
+        if (length < GRAM) {
+            for (int start = 0; start + length <= mText.length(); start++) {
+                if (foldedStartsWith(mText, folded, start)
+                        && (!matchCase || startsWith(mText, query, start))) {
+                    hits.add(new int[]{start, start + length});
+                }
+            }
+            return hits;
+        }
+        // the rarest trigram of the query gives the fewest candidates
+        int offset = 0;
+        int bucket = bucketAt(folded, 0);
+        for (int i = 1; i <= length - GRAM; i++) {
+            int b = bucketAt(folded, i);
+            if (bucketSize(b) < bucketSize(bucket)) {
+                bucket = b;
+                offset = i;
+            }
+        }
+        for (int p = mBucketStarts[bucket]; p < mBucketStarts[bucket + 1]; p++) {
+            int start = mPositions[p] - offset;
+            if (start < 0 || start + length > mText.length()) {
+                continue;
+            }
+            if (foldedStartsWith(mText, folded, start)
+                    && (!matchCase || startsWith(mText, query, start))) {
+                hits.add(new int[]{start, start + length});
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Finds all non-empty matches of a regular expression
+     *
+     * @return start-end pairs of matches, sorted by start
+     */
+    ArrayList<int[]> find(Pattern pattern) {
+        ArrayList<int[]> hits = new ArrayList<int[]>();
+        Matcher m = pattern.matcher(mText);
+        while (m.find()) {
+            if (m.end() > m.start()) {
+                hits.add(new int[]{m.start(), m.end()});
+            }
+        }
+        return hits;
+    }
+
+    private int bucketSize(int bucket) {
+        return mBucketStarts[bucket + 1] - mBucketStarts[bucket];
+    }
+
+    private int bucketAt(CharSequence s, int i) {
+        int h = (Character.toLowerCase(s.charAt(i)) * 31
+                + Character.toLowerCase(s.charAt(i + 1))) * 31
+                + Character.toLowerCase(s.charAt(i + 2));
+        h *= 0x9E3779B9;
+        return h >>> (32 - mBucketBits);
+    }
+
+    private static boolean startsWith(CharSequence text, String prefix, int start) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean foldedStartsWith(CharSequence text, String prefix, int start) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(text.charAt(start + i)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String fold(CharSequence s) {
+        char[] chars = new char[s.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(s.charAt(i));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * MAE - Multi-purpose Annotation Environment
+ *
+ * Copyright Keigh Rim (krim@brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ * Original program by Amber Stubbs (astubbs@cs.brandeis.edu)
+ *
+ * MAE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, @see <a href="http://www.gnu.org/licenses">http://www.gnu.org/licenses</a>.
+ *
+ * For feedback, reporting bugs, use the project repo on github
+ * @see <a href="https://github.com/keighrim/mae-annotation">https://github.com/keighrim/mae-annotation</a>
+ */
+
+package mae;
+
+import java.util.*;
+
+/**
+ * Keeps track of link tags that still have empty arguments.
+ * For each link type and each argument of it, ids of links that have
+ * the argument empty are kept in a LinkedHashSet (in the order links
+ * are added), so checking, filling and listing a slot do not need to
+ * look at the tables.
+ */
+class UnderspecifiedLinks {
+
+    // link type -> argument name -> ids of links with the argument empty
+    private HashMap<String, HashMap<String, LinkedHashSet<String>>> mSlots;
+    // link id -> names of its empty arguments
+    private HashMap<String, HashSet<String>> mEmptyArgs;
+    // link id -> link type
+    private HashMap<String, String> mTypes;
+
+    UnderspecifiedLinks() {
+        mSlots = new HashMap<String, HashMap<String, LinkedHashSet<String>>>();
+        mEmptyArgs = new HashMap<String, HashSet<String>>();
+        mTypes = new HashMap<String, String>();
+    }
+
+    /**
+     * Marks an argument of a link as empty
+     *
+     * @param linkType element name of the link
+     * @param linkId id of the link
+     * @param argName name of the empty argument
+     */
+    void setEmpty(String linkType, String linkId, String argName) {
+        getSlot(linkType, argName, true).add(linkId);
+        HashSet<String> args = mEmptyArgs.get(linkId);
+        if (args == null) {
+            args = new HashSet<String>();
+            mEmptyArgs.put(linkId, args);
+            mTypes.put(linkId, linkType);
+        }
+        args.add(argName);
+    }
+
+    /**
+     * Marks an argument of a link as filled, the link is not
+     * underspecified any more when all arguments are filled
+     *
+     * @param linkType element name of the link
+     * @param linkId id of the link
+     * @param argName name of the filled argument
+     */
+    void fill(String linkType, String linkId, String argName) {
+        LinkedHashSet<String> slot = getSlot(linkType, argName, false);
+        if (slot != null) {
+            slot.remove(linkId);
+        }
+        HashSet<String> args = mEmptyArgs.get(linkId);
+        if (args != null) {
+            args.remove(argName);
+            if (args.isEmpty()) {
+                mEmptyArgs.remove(linkId);
+                mTypes.remove(linkId);
+            }
+        }
+    }
+
+    /**
+     * Forgets a link, used when the link is removed
+     *
+     * @param linkId id of the link
+     */
+    void remove(String linkId) {
+        HashSet<String> args = mEmptyArgs.remove(linkId);
+        String linkType = mTypes.remove(linkId);
+        if (args == null) {
+            return;
+        }
+        for (String argName : args) {
+            LinkedHashSet<String> slot = getSlot(linkType, argName, false);
+            if (slot != null) {
+                slot.remove(linkId);
+            }
+        }
+    }
+
+    boolean isUnderspecified(String linkId) {
+        return mEmptyArgs.containsKey(linkId);
+    }
+
+    boolean isEmpty(String linkType, String linkId, String argName) {
+        LinkedHashSet<String> slot = getSlot(linkType, argName, false);
+        return slot != null && slot.contains(linkId);
+    }
+
+    /**
+     * @return ids of links of a type with an argument empty, in the
+     * order they were added
+     */
+    Set<String> getLinks(String linkType, String argName) {
+        LinkedHashSet<String> slot = getSlot(linkType, argName, false);
+        if (slot == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(slot);
+    }
+
+    /**
+     * @return number of links with any empty argument
+     */
+    int size() {
+        return mEmptyArgs.size();
+    }
+
+    /**
+     * @return link types and ids of all links with any empty argument
+     */
+    HashCollection<String, String> getAll() {
+        HashCollection<String, String> links = new HashCollection<String, String>();
+        for (Map.Entry<String, String> entry : mTypes.entrySet()) {
+            links.putEnt(entry.getValue(), entry.getKey());
+        }
+        return links;
+    }
+
+    void clear() {
+        mSlots.clear();
+        mEmptyArgs.clear();
+        mTypes.clear();
+    }
+
+    private LinkedHashSet<String> getSlot(
+            String linkType, String argName, boolean create) {
+        HashMap<String, LinkedHashSet<String>> slots = mSlots.get(linkType);
+        if (slots == null) {
+            if (!create) {
+                return null;
+            }
+            slots = new HashMap<String, LinkedHashSet<String>>();
+            mSlots.put(linkType, slots);
+        }
+        LinkedHashSet<String> slot = slots.get(argName);
+        if (slot == null && create) {
+            slot = new LinkedHashSet<String>();
+            slots.put(argName, slot);
+        }
+        return slot;
+    }
+}
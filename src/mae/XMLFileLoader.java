@@ -24,16 +24,36 @@
 
 package mae;
 
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
-
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.util.Hashtable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 /**
- * XMLFileLoader reads in any annotated files that are loaded into MAE by 
- * calling the XMLHandler file.
+ * XMLFileLoader reads in any annotated files that are loaded into MAE.
+ *
+ * The file is read by a StAX pull parser, and each tag is handed to a
+ * TagListener as soon as it is read, instead of collecting all tags (a
+ * Hashtable per tag) before processing any of them.
+ * Attribute values of a tag are put in a String array indexed by the
+ * attribute positions in its DTD element (see Elem.getAttributeIndex()).
+ * The array is reused for every tag of the same element, so a listener
+ * must copy values it wants to keep.
+ * The primary text is collected, chunk by chunk as the parser hands it
+ * over, into a single char array sized by the file size, and is handed
+ * out as a CharBuffer over that array, without making a String of it.
+ * Agreement marks a merged file puts on its tags (see AnnotationMerger)
+ * are not in the DTD, they are collected apart from attribute values.
  * 
  * @author Amber Stubbs, Keigh Rim
  *
@@ -41,41 +61,224 @@ import java.util.Hashtable;
 
 class XMLFileLoader{
 
-    private XMLHandler mXmlfile;
+    /**
+     * Receives tags while a file is being read
+     */
+    interface TagListener {
+        /**
+         * @param elem DTD element of the tag
+         * @param values attribute values, indexed by attribute positions
+         *               in elem, null for attributes not in the tag
+         */
+        void tag(Elem elem, String[] values);
+    }
+
+    // a factory per thread, as loaders can run in parallel (see CorpusStats)
+    private static final ThreadLocal<XMLInputFactory> sFactory
+            = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            // annotation files are stand-alone, never fetch a DTD from the web
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            return factory;
+        }
+    };
+
+    // elements by their names
+    private HashMap<String, Elem> mElements;
+    private TagListener mListener;
+    private boolean mFailed;
+    // primary text, mText[0..mTextLength]
+    private char[] mText;
+    private int mTextLength;
+    // one reused value array per element name
+    private HashMap<String, String[]> mValues;
+    // id, element, spans, text, agreement, and disagreement of marked tags
+    private ArrayList<String[]> mAgreements;
+
+    XMLFileLoader(File f, AnnotationTask task, TagListener listener){
+        this(f, task.getElements(), listener);
+    }
 
-    XMLFileLoader(File f){
-        mXmlfile = new XMLHandler();
+    /**
+     * Reads a file with elements of a DTD, without an annotation task
+     */
+    XMLFileLoader(File f, List<Elem> elements, TagListener listener){
+        mElements = new HashMap<String, Elem>();
+        for (Elem elem : elements) {
+            mElements.put(elem.getName(), elem);
+        }
+        mListener = listener;
+        mFailed = false;
+        mText = new char[0];
+        mTextLength = 0;
+        mValues = new HashMap<String, String[]>();
+        mAgreements = new ArrayList<String[]>();
         try{
             readFile(f);
         }catch(Exception e){
+            mFailed = true;
             e.printStackTrace();
         }
     }
 
-    private void readFile(File f) throws Exception{
-
-        try { //this will work with java 5 and 6.  Java 1.4 is not supported.
-            XMLReader parser = XMLReaderFactory.createXMLReader();
-            parser.setContentHandler(mXmlfile);
-            String xmlContents = f.toString();
-            try{
-                parser.parse(xmlContents);
-            }catch(Exception ex){
-                ex.printStackTrace();
-                System.err.println(String.format(
-                        "%s: parsing failed.\n%s", f.getName(), xmlContents));
-                throw new Exception();
+    /**
+     * @return true if the file could not be read to the end
+     */
+    boolean hasFailed() {
+        return mFailed;
+    }
+
+    private void readFile(File f) throws IOException, XMLStreamException {
+        XMLInputFactory factory = sFactory.get();
+        InputStream in = new BufferedInputStream(new FileInputStream(f));
+        XMLStreamReader reader = null;
+        try {
+            reader = factory.createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    String tagName = getName(reader.getPrefix(), reader.getLocalName());
+                    if (tagName.equalsIgnoreCase("text")) {
+                        readText(reader, f.length());
+                    } else {
+                        readTag(reader, tagName);
+                    }
+                }
             }
-        }catch (SAXException e) {
-            e.printStackTrace();
+        } catch (XMLStreamException e) {
+            System.err.println(String.format(
+                    "%s: parsing failed.", f.getName()));
+            throw e;
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+            in.close();
+        }
+    }
+
+    /**
+     * Reads all character data until the end of the current element.
+     * A long text comes in many chunks, every one of them is appended.
+     *
+     * @param sizeHint size of the file in bytes, the text has at most
+     *                 as many chars as the file has bytes
+     */
+    private void readText(XMLStreamReader reader, long sizeHint) throws XMLStreamException {
+        mText = new char[(int) Math.min(sizeHint, Integer.MAX_VALUE - 8)];
+        mTextLength = 0;
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    appendText(reader.getTextCharacters(),
+                            reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+            }
+        }
+        // tags took most of the file, do not keep the unused space
+        if (mTextLength < mText.length / 4 * 3) {
+            mText = Arrays.copyOf(mText, mTextLength);
+        }
+    }
+
+    private void appendText(char[] chars, int start, int length) {
+        if (mTextLength + length > mText.length) {
+            mText = Arrays.copyOf(mText,
+                    Math.max(mTextLength + length, mText.length * 2));
+        }
+        System.arraycopy(chars, start, mText, mTextLength, length);
+        mTextLength += length;
+    }
+
+    private void readTag(XMLStreamReader reader, String tagName) {
+        Elem elem = mElements.get(tagName);
+        // root element, TAGS, or a tag not in the DTD
+        if (elem == null) {
+            return;
+        }
+        String[] values = mValues.get(tagName);
+        if (values == null) {
+            values = new String[elem.getAttributes().size()];
+            mValues.put(tagName, values);
+        } else {
+            Arrays.fill(values, null);
+        }
+
+        // add by krim: for legacy support
+        String start = null, end = null;
+        String agreement = null, disagreement = null;
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attName = getName(
+                    reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+            String attValue = reader.getAttributeValue(i);
+            int index = elem.getAttributeIndex(attName);
+            if (index >= 0) {
+                values[index] = attValue;
+            } else if (attName.equals("start")) {
+                start = attValue;
+            } else if (attName.equals("end")) {
+                end = attValue;
+            } else if (attName.equals(MaeStrings.AGREEMENT_ATT)) {
+                agreement = attValue;
+            } else if (attName.equals(MaeStrings.DISAGREEMENT_ATT)) {
+                disagreement = attValue;
+            }
+        }
+        convertLegXml(elem, values, start, end);
+        if (agreement != null) {
+            mAgreements.add(new String[]{valueOf(elem, values, "id"), tagName,
+                    valueOf(elem, values, "spans"), valueOf(elem, values, "text"),
+                    agreement, disagreement == null ? "" : disagreement});
+        }
+        mListener.tag(elem, values);
+    }
+
+    /**
+     * add by krim:
+     * Used to convert start-end attributes for old version to new 'spans' attribute.
+     */
+    private void convertLegXml(Elem elem, String[] values, String start, String end) {
+        int spans = elem.getAttributeIndex("spans");
+        if (spans >= 0 && values[spans] == null && start != null && end != null) {
+            values[spans] = start + MaeStrings.SPANDELIMITER + end;
+        }
+    }
+
+    private static String valueOf(Elem elem, String[] values, String attName) {
+        int index = elem.getAttributeIndex(attName);
+        return index < 0 || values[index] == null ? "" : values[index];
+    }
+
+    private static String getName(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) {
+            return localName;
         }
+        return prefix + ":" + localName;
     }
 
-    public HashCollection<String,Hashtable<String,String>> getTagHash(){
-        return mXmlfile.returnTagHash();
+    /**
+     * @return id, element name, spans, text, agreement, and disagreement
+     * of every tag with an agreement mark, empty strings for missing ones
+     */
+    ArrayList<String[]> getAgreements(){
+        return mAgreements;
     }
 
-    public String getTextChars(){
-        return mXmlfile.getText();
+    /**
+     * @return the primary text, over the array it was read into
+     */
+    CharBuffer getText(){
+        return CharBuffer.wrap(mText, 0, mTextLength);
     }
-}
\ No newline at end of file
+}